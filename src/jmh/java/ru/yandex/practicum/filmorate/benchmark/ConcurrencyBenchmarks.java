@@ -0,0 +1,118 @@
+package ru.yandex.practicum.filmorate.benchmark;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.core.NestedExceptionUtils;
+import org.springframework.jdbc.CannotGetJdbcConnectionException;
+import org.springframework.transaction.CannotCreateTransactionException;
+
+import java.sql.SQLTransientConnectionException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Нагрузочное сравнение моделей исполнения запросов: пул платформенных потоков размером с пул Tomcat
+ * против виртуального потока на запрос. Одна операция - пачка из {@code concurrency} одновременных
+ * чтений версии фильма через сервис: это запрос по первичному ключу, который выполняет каждый GET /films/{id}
+ * ради ETag, и он не проходит через кэш фильмов, так что каждое чтение действительно занимает соединение.
+ * Режим SampleTime даёт распределение времени пачки (p50/p99), пропускная способность равна
+ * {@code concurrency} / время пачки. Отказы считаются отдельно ({@link Failures}): пачка, в которой часть
+ * запросов получила бы 503, иначе выглядела бы просто быстрой.
+ * Сравнивать с ограничителем и без: {@code -p jdbcMaxConcurrency=0,10}.
+ */
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ConcurrencyBenchmarks {
+    private static final int TOMCAT_MAX_THREADS = 200;
+
+    @Param({"platform", "virtual"})
+    public String threads;
+
+    @Param("2000")
+    public int concurrency;
+
+    private ExecutorService executor;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        executor = threads.equals("virtual")
+                ? Executors.newVirtualThreadPerTaskExecutor()
+                : Executors.newFixedThreadPool(TOMCAT_MAX_THREADS);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Benchmark
+    public int burst(SeededApplication app, Failures failures) throws InterruptedException {
+        CountDownLatch done = new CountDownLatch(concurrency);
+        AtomicInteger acquireTimeouts = new AtomicInteger();
+        AtomicInteger overloaded = new AtomicInteger();
+        AtomicInteger errors = new AtomicInteger();
+        for (int i = 0; i < concurrency; i++) {
+            executor.execute(() -> {
+                try {
+                    app.filmService.getFilmVersionOrThrow(app.randomFilmId());
+                } catch (Exception e) {
+                    if (NestedExceptionUtils.getRootCause(e) instanceof SQLTransientConnectionException) {
+                        acquireTimeouts.incrementAndGet();
+                        overloaded.incrementAndGet();
+                    } else if (e instanceof CannotGetJdbcConnectionException
+                            || e instanceof CannotCreateTransactionException) {
+                        overloaded.incrementAndGet();
+                    } else {
+                        errors.incrementAndGet();
+                    }
+                } finally {
+                    done.countDown();
+                }
+            });
+        }
+        done.await();
+        failures.acquireTimeouts += acquireTimeouts.get();
+        failures.overloaded += overloaded.get();
+        failures.errors += errors.get();
+        return overloaded.get() + errors.get();
+    }
+
+    /**
+     * Отказы за итерацию, JMH выводит их рядом со временем пачки.
+     * {@code overloaded} - запросы, на которые {@code GlobalExceptionHandler} ответил бы 503,
+     * {@code acquireTimeouts} - их часть, не дождавшаяся соединения от ограничителя или пула.
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Failures {
+        public long acquireTimeouts;
+        public long overloaded;
+        public long errors;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            acquireTimeouts = 0;
+            overloaded = 0;
+            errors = 0;
+        }
+    }
+}
@@ -0,0 +1,127 @@
+package ru.yandex.practicum.filmorate.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import ru.yandex.practicum.filmorate.exception.NotFoundException;
+import ru.yandex.practicum.filmorate.exception.ValidationException;
+import ru.yandex.practicum.filmorate.model.Film;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FilmBenchmarks {
+    private static final int VIRAL_THREADS = 8;
+    private static final int LIST_SIZE = 20;
+
+
+    @Benchmark
+    public Collection<Film> findAll(SeededApplication app) {
+        return app.filmStorage.findAll();
+    }
+
+    @Benchmark
+    public Film findById(SeededApplication app) {
+        return app.filmStorage.findById(app.randomFilmId());
+    }
+
+    /**
+     * Список из {@link #LIST_SIZE} фильмов одним запросом по id против того же списка по одному фильму.
+     */
+    @Benchmark
+    public List<Film> findByIds(SeededApplication app) {
+        List<Integer> ids = new ArrayList<>(LIST_SIZE);
+        for (int i = 0; i < LIST_SIZE; i++) {
+            ids.add(app.randomFilmId());
+        }
+        return app.filmStorage.findByIds(ids);
+    }
+
+    @Benchmark
+    public List<Film> findByIdInLoop(SeededApplication app) {
+        List<Film> films = new ArrayList<>(LIST_SIZE);
+        for (int i = 0; i < LIST_SIZE; i++) {
+            films.add(app.filmStorage.findById(app.randomFilmId()));
+        }
+        return films;
+    }
+
+    @Benchmark
+    public List<Film> getPopularFilms(SeededApplication app) {
+        return app.filmService.getPopularFilms(10);
+    }
+
+    @Benchmark
+    public List<Film> getPopularFilmsByGenreAndYear(SeededApplication app) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        return app.filmService.getPopularFilms(10, 1 + random.nextInt(6), 1950 + random.nextInt(75));
+    }
+
+    @Benchmark
+    public List<Film> getTrendingFilms(SeededApplication app) throws ValidationException {
+        return app.filmService.getTrendingFilms("24h", 10);
+    }
+
+    /**
+     * Слово "film" есть в каждом фильме, поэтому кандидатов отбирает номер: как префикс он совпадает и с более длинными номерами.
+     */
+    @Benchmark
+    public List<Film> search(SeededApplication app) throws ValidationException {
+        return app.filmService.search("film " + app.randomFilmId(), "title,description", 10);
+    }
+
+    /**
+     * Пара операций: лайк и его снятие (или наоборот, если лайк уже был), чтобы состояние БД не дрейфовало.
+     */
+    @Benchmark
+    public void toggleLike(SeededApplication app) throws NotFoundException, ValidationException {
+        int filmId = app.randomFilmId();
+        int userId = app.randomUserId();
+        try {
+            app.filmService.addLike(filmId, userId);
+            app.filmService.removeLike(filmId, userId);
+        } catch (ValidationException alreadyLiked) {
+            app.filmService.removeLike(filmId, userId);
+            app.filmService.addLike(filmId, userId);
+        }
+    }
+
+    /**
+     * То же, что {@link #toggleLike}, но все потоки лайкают один фильм: конкуренция за его строку и счётчик.
+     * У каждого потока свои пользователи, чтобы потоки не снимали лайки друг друга.
+     */
+    @Benchmark
+    @Threads(VIRAL_THREADS)
+    public void toggleLikeOnViralFilm(SeededApplication app, Liker liker) throws NotFoundException, ValidationException {
+        int userId = liker.slot + 1 + VIRAL_THREADS * ThreadLocalRandom.current().nextInt(app.users / VIRAL_THREADS);
+        try {
+            app.filmService.addLike(1, userId);
+            app.filmService.removeLike(1, userId);
+        } catch (ValidationException alreadyLiked) {
+            app.filmService.removeLike(1, userId);
+            app.filmService.addLike(1, userId);
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Liker {
+        private static final AtomicInteger SLOTS = new AtomicInteger();
+        final int slot = SLOTS.getAndIncrement() % VIRAL_THREADS;
+    }
+}
@@ -0,0 +1,213 @@
+package ru.yandex.practicum.filmorate.benchmark;
+
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import org.springframework.jdbc.datasource.init.ResourceDatabasePopulator;
+import ru.yandex.practicum.filmorate.FilmorateApplication;
+import ru.yandex.practicum.filmorate.service.FilmService;
+import ru.yandex.practicum.filmorate.service.UserService;
+import ru.yandex.practicum.filmorate.storage.film.FilmStorage;
+import ru.yandex.practicum.filmorate.storage.film.LikesGraph;
+import ru.yandex.practicum.filmorate.storage.user.FriendsGraph;
+import ru.yandex.practicum.filmorate.storage.user.UserStorage;
+
+import java.sql.Date;
+import java.sql.Timestamp;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Приложение поверх in-memory H2, заранее заполненной пользователями, фильмами, лайками и дружбами.
+ * БД заполняется до старта контекста, поэтому всё, что приложение строит при запуске, видит готовые данные.
+ * Объём данных задаётся параметрами JMH, например {@code -p films=100000 -p users=50000}.
+ */
+@State(Scope.Benchmark)
+public class SeededApplication {
+    private static final int GENRES = 6;
+    private static final int MPA_RATINGS = 5;
+    private static final long WEEK_MILLIS = TimeUnit.DAYS.toMillis(7);
+
+    @Param("1000")
+    public int users;
+
+    @Param("1000")
+    public int films;
+
+    @Param("20")
+    public int likesPerUser;
+
+    @Param("20")
+    public int friendsPerUser;
+
+    /**
+     * Значение {@code filmorate.jdbc.max-concurrency}; 0 - без ограничителя.
+     */
+    @Param("0")
+    public int jdbcMaxConcurrency;
+
+    /**
+     * Значение {@code filmorate.metrics.storage.enabled}: позволяет оценить цену метрик хранилищ.
+     */
+    @Param("true")
+    public boolean storageMetrics;
+
+    /**
+     * Значение {@code filmorate.likes.write-behind.enabled}.
+     */
+    @Param("false")
+    public boolean writeBehindLikes;
+
+    /**
+     * {@code false} выключает кэши фильмов и пользователей ({@code filmorate.cache.*.max-size=0}).
+     */
+    @Param("true")
+    public boolean entityCache;
+
+    FilmService filmService;
+    UserService userService;
+    FilmStorage filmStorage;
+    UserStorage userStorage;
+    LikesGraph likesGraph;
+    FriendsGraph friendsGraph;
+
+    private ConfigurableApplicationContext context;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        String url = "jdbc:h2:mem:benchmark-" + UUID.randomUUID() + ";DB_CLOSE_DELAY=-1";
+        seed(new JdbcTemplate(new DriverManagerDataSource(url, "sa", "password")));
+
+        context = new SpringApplicationBuilder(FilmorateApplication.class)
+                .web(WebApplicationType.NONE)
+                .logStartupInfo(false)
+                .run(arguments(url));
+        filmService = context.getBean(FilmService.class);
+        userService = context.getBean(UserService.class);
+        filmStorage = context.getBean(FilmStorage.class);
+        userStorage = context.getBean(UserStorage.class);
+        likesGraph = context.getBean(LikesGraph.class);
+        friendsGraph = context.getBean(FriendsGraph.class);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        context.close();
+    }
+
+    private String[] arguments(String url) {
+        List<String> arguments = new ArrayList<>(List.of(
+                "--spring.datasource.url=" + url,
+                "--spring.main.banner-mode=off",
+                "--logging.level.root=WARN"));
+        if (jdbcMaxConcurrency > 0) {
+            arguments.add("--filmorate.jdbc.max-concurrency=" + jdbcMaxConcurrency);
+        }
+        arguments.add("--filmorate.metrics.storage.enabled=" + storageMetrics);
+        arguments.add("--filmorate.likes.write-behind.enabled=" + writeBehindLikes);
+        if (!entityCache) {
+            arguments.add("--filmorate.cache.films.max-size=0");
+            arguments.add("--filmorate.cache.users.max-size=0");
+        }
+        return arguments.toArray(String[]::new);
+    }
+
+    <T> T getBean(Class<T> type) {
+        return context.getBean(type);
+    }
+
+    int randomFilmId() {
+        return ThreadLocalRandom.current().nextInt(films) + 1;
+    }
+
+    int randomUserId() {
+        return ThreadLocalRandom.current().nextInt(users) + 1;
+    }
+
+    private void seed(JdbcTemplate jdbcTemplate) {
+        ResourceDatabasePopulator populator = new ResourceDatabasePopulator(
+                new ClassPathResource("schema.sql"), new ClassPathResource("data.sql"));
+        populator.execute(jdbcTemplate.getDataSource());
+
+        Random random = new Random(42);
+        List<Object[]> rows = new ArrayList<>();
+        for (int i = 1; i <= users; i++) {
+            rows.add(new Object[]{"user" + i + "@bench.ru", "user" + i, "User " + i, Date.valueOf(LocalDate.of(1990, 1, 1))});
+        }
+        jdbcTemplate.batchUpdate("INSERT INTO users (email, login, name, birthday) VALUES (?, ?, ?, ?)", rows);
+
+        rows.clear();
+        for (int i = 1; i <= films; i++) {
+            rows.add(new Object[]{"Film " + i, "Description of film " + i,
+                    Date.valueOf(LocalDate.of(1950 + random.nextInt(75), 1 + random.nextInt(12), 1)),
+                    60 + random.nextInt(120), 1 + random.nextInt(MPA_RATINGS)});
+        }
+        jdbcTemplate.batchUpdate("INSERT INTO films (name, description, release_date, duration, mpa_id) " +
+                "VALUES (?, ?, ?, ?, ?)", rows);
+
+        rows.clear();
+        for (int filmId = 1; filmId <= films; filmId++) {
+            for (int genreId : distinct(random, 1 + random.nextInt(2), GENRES, 0)) {
+                rows.add(new Object[]{filmId, genreId});
+            }
+        }
+        jdbcTemplate.batchUpdate("INSERT INTO film_genre (film_id, genre_id) VALUES (?, ?)", rows);
+
+        // Лайки распределены по последней неделе, чтобы в окна популярности попадала их часть
+        rows.clear();
+        long now = System.currentTimeMillis();
+        for (int userId = 1; userId <= users; userId++) {
+            for (int filmId : skewed(random, Math.min(likesPerUser, films), films)) {
+                rows.add(new Object[]{filmId, userId, new Timestamp(now - (long) (random.nextDouble() * WEEK_MILLIS))});
+            }
+        }
+        jdbcTemplate.batchUpdate("INSERT INTO likes (film_id, user_id, created_at) VALUES (?, ?, ?)", rows);
+
+        rows.clear();
+        for (int userId = 1; userId <= users; userId++) {
+            for (int friendId : distinct(random, Math.min(friendsPerUser, users - 1), users, userId)) {
+                rows.add(new Object[]{userId, friendId});
+            }
+        }
+        jdbcTemplate.batchUpdate("INSERT INTO friendship (user_id, friend_id) VALUES (?, ?)", rows);
+    }
+
+    private static Set<Integer> distinct(Random random, int count, int bound, int excluded) {
+        Set<Integer> ids = new LinkedHashSet<>();
+        while (ids.size() < count) {
+            int id = random.nextInt(bound) + 1;
+            if (id != excluded) {
+                ids.add(id);
+            }
+        }
+        return ids;
+    }
+
+    /**
+     * Смещает выбор к фильмам с маленькими id, чтобы у каталога были явные лидеры по лайкам.
+     */
+    private static Set<Integer> skewed(Random random, int count, int bound) {
+        Set<Integer> ids = new LinkedHashSet<>();
+        while (ids.size() < count) {
+            double r = random.nextDouble();
+            ids.add((int) (r * r * bound) + 1);
+        }
+        return ids;
+    }
+}
@@ -0,0 +1,128 @@
+package ru.yandex.practicum.filmorate.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+import ru.yandex.practicum.filmorate.controller.UserController;
+import ru.yandex.practicum.filmorate.exception.GlobalExceptionHandler;
+import ru.yandex.practicum.filmorate.exception.NotFoundException;
+import ru.yandex.practicum.filmorate.exception.ValidationException;
+import ru.yandex.practicum.filmorate.model.Film;
+import ru.yandex.practicum.filmorate.model.User;
+
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class UserBenchmarks {
+
+    @Benchmark
+    public List<User> getFriends(SeededApplication app) throws NotFoundException {
+        return app.userService.getFriends(app.randomUserId());
+    }
+
+    @Benchmark
+    public List<User> getCommonFriends(SeededApplication app) throws NotFoundException {
+        return app.userService.getCommonFriends(app.randomUserId(), app.randomUserId());
+    }
+
+    @Benchmark
+    public List<User> getFriendSuggestions(SeededApplication app) throws NotFoundException, ValidationException {
+        return app.userService.getFriendSuggestions(app.randomUserId(), 10);
+    }
+
+    /**
+     * Только подбор id по графу дружбы, без загрузки пользователей из БД.
+     */
+    @Benchmark
+    public List<Integer> suggestFriendIds(SeededApplication app) {
+        return app.friendsGraph.suggest(app.randomUserId(), 10);
+    }
+
+    @Benchmark
+    public List<Film> getRecommendations(SeededApplication app) throws NotFoundException, ValidationException {
+        return app.userService.getRecommendations(app.randomUserId(), 10);
+    }
+
+    /**
+     * Только подбор id по графу лайков, без загрузки фильмов из БД.
+     */
+    @Benchmark
+    public List<Integer> recommendFilmIds(SeededApplication app) {
+        return app.likesGraph.recommend(app.randomUserId(), 10);
+    }
+
+    /**
+     * Ошибочный путь в сервисе: NotFoundException создаётся и ловится на каждом вызове.
+     */
+    @Benchmark
+    public Object getMissingUserOrThrow(SeededApplication app) {
+        try {
+            return app.userService.getUserOrThrow(app.users + app.randomUserId());
+        } catch (NotFoundException e) {
+            return e;
+        }
+    }
+
+    /**
+     * Тот же поиск без исключения: с ним сравнивается {@link #getMissingUserOrThrow}.
+     */
+    @Benchmark
+    public Optional<User> findMissingUser(SeededApplication app) {
+        return app.userService.findUser(app.users + app.randomUserId());
+    }
+
+    /**
+     * Список друзей через DispatcherServlet и GlobalExceptionHandler, как в приложении, но без сети.
+     */
+    @Benchmark
+    public int getFriendsOverMvc(SeededApplication app, Mvc mvc) throws Exception {
+        return mvc.status("/users/" + app.randomUserId() + "/friends");
+    }
+
+    /**
+     * Ошибочный путь: пользователя нет, ответ 404. Должен стоить не дороже успешного запроса.
+     */
+    @Benchmark
+    public int getFriendsOfMissingUserOverMvc(SeededApplication app, Mvc mvc) throws Exception {
+        return mvc.status("/users/" + (app.users + app.randomUserId()) + "/friends");
+    }
+
+    @Benchmark
+    public int findMissingUserOverMvc(SeededApplication app, Mvc mvc) throws Exception {
+        return mvc.status("/users/" + (app.users + app.randomUserId()));
+    }
+
+    @State(Scope.Benchmark)
+    public static class Mvc {
+        private MockMvc mockMvc;
+
+        @Setup(Level.Trial)
+        public void setUp(SeededApplication app) {
+            mockMvc = MockMvcBuilders.standaloneSetup(app.getBean(UserController.class))
+                    .setControllerAdvice(new GlobalExceptionHandler())
+                    .build();
+        }
+
+        int status(String path) throws Exception {
+            return mockMvc.perform(get(path)).andReturn().getResponse().getStatus();
+        }
+    }
+}
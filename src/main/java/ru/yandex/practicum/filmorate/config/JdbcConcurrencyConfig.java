@@ -0,0 +1,61 @@
+package ru.yandex.practicum.filmorate.config;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.env.Environment;
+
+import javax.sql.DataSource;
+import java.time.Duration;
+
+/**
+ * Включает {@link BoundedDataSource}, если задан {@code filmorate.jdbc.max-concurrency}.
+ * Нужен прежде всего в режиме виртуальных потоков ({@code spring.threads.virtual.enabled=true}).
+ */
+@Configuration
+@ConditionalOnProperty("filmorate.jdbc.max-concurrency")
+public class JdbcConcurrencyConfig {
+
+    @Bean
+    static BoundedDataSourcePostProcessor boundedDataSourcePostProcessor(Environment environment) {
+        int maxConcurrency = environment.getRequiredProperty("filmorate.jdbc.max-concurrency", Integer.class);
+        Duration acquireTimeout = environment.getProperty("filmorate.jdbc.acquire-timeout", Duration.class,
+                Duration.ofSeconds(5));
+        return new BoundedDataSourcePostProcessor(maxConcurrency, acquireTimeout);
+    }
+
+    @Bean
+    MeterBinder boundedDataSourceMetrics(BoundedDataSourcePostProcessor postProcessor) {
+        return registry -> {
+            Gauge.builder("filmorate.jdbc.bulkhead.active", postProcessor, p -> p.bounded == null ? 0 : p.bounded.getActive())
+                    .description("Соединения, выданные через ограничитель")
+                    .register(registry);
+            Gauge.builder("filmorate.jdbc.bulkhead.waiting", postProcessor, p -> p.bounded == null ? 0 : p.bounded.getWaiting())
+                    .description("Запросы, ожидающие доступа к БД")
+                    .register(registry);
+        };
+    }
+
+    static class BoundedDataSourcePostProcessor implements BeanPostProcessor {
+        private final int maxConcurrency;
+        private final Duration acquireTimeout;
+        private volatile BoundedDataSource bounded;
+
+        BoundedDataSourcePostProcessor(int maxConcurrency, Duration acquireTimeout) {
+            this.maxConcurrency = maxConcurrency;
+            this.acquireTimeout = acquireTimeout;
+        }
+
+        @Override
+        public Object postProcessAfterInitialization(Object bean, String beanName) {
+            if (bean instanceof DataSource dataSource && bounded == null) {
+                bounded = new BoundedDataSource(dataSource, maxConcurrency, acquireTimeout);
+                return bounded;
+            }
+            return bean;
+        }
+    }
+}
@@ -0,0 +1,101 @@
+package ru.yandex.practicum.filmorate.config;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.aop.framework.autoproxy.AbstractBeanFactoryAwareAdvisingPostProcessor;
+import org.springframework.aop.support.DefaultPointcutAdvisor;
+import org.springframework.aop.support.StaticMethodMatcherPointcut;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.web.filter.OncePerRequestFilter;
+import org.springframework.web.servlet.HandlerMapping;
+
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Метрики хранилищ: таймер и число строк для каждого метода {@code FilmStorage}, {@code UserStorage},
+ * {@code GenreStorage}, {@code MpaStorage} и {@code EventStorage}, а также число обращений к хранилищам за HTTP-запрос.
+ * <p>
+ * Рост обращений на запрос указывает на N+1, а гистограммы таймеров - на медленные запросы.
+ * В отличие от наблюдения за каждым JDBC-вызовом ({@code jdbc.datasource-proxy.enabled}) эти метры
+ * достаточно дёшевы, чтобы оставаться включёнными постоянно.
+ */
+@Configuration
+@ConditionalOnProperty(value = "filmorate.metrics.storage.enabled", matchIfMissing = true)
+public class StorageMetricsConfig {
+    static final String CALLS_PER_REQUEST = "filmorate.storage.requests";
+
+    @Bean
+    static StorageMetricsPostProcessor storageMetricsPostProcessor(ObjectProvider<MeterRegistry> registry) {
+        return new StorageMetricsPostProcessor(new StorageMetricsInterceptor(registry));
+    }
+
+    @Bean
+    OncePerRequestFilter storageCallsPerRequestFilter(ObjectProvider<MeterRegistry> registry) {
+        return new StorageCallsFilter(registry);
+    }
+
+    /**
+     * Добавляет перехватчик к бинам хранилищ. Он встаёт перед транзакционным, поэтому время
+     * вызова включает фиксацию транзакции.
+     */
+    static class StorageMetricsPostProcessor extends AbstractBeanFactoryAwareAdvisingPostProcessor {
+
+        StorageMetricsPostProcessor(StorageMetricsInterceptor interceptor) {
+            this.advisor = new DefaultPointcutAdvisor(new StaticMethodMatcherPointcut() {
+                @Override
+                public boolean matches(Method method, Class<?> targetClass) {
+                    Class<?> storage = StorageMetricsInterceptor.storageOf(targetClass);
+                    if (storage == null) {
+                        return false;
+                    }
+                    try {
+                        storage.getMethod(method.getName(), method.getParameterTypes());
+                        return true;
+                    } catch (NoSuchMethodException e) {
+                        return false;
+                    }
+                }
+            }, interceptor);
+            setBeforeExistingAdvisors(true);
+            setProxyTargetClass(true);
+        }
+    }
+
+    static class StorageCallsFilter extends OncePerRequestFilter {
+        private final ObjectProvider<MeterRegistry> registry;
+        private final Map<String, DistributionSummary> summaries = new ConcurrentHashMap<>();
+
+        StorageCallsFilter(ObjectProvider<MeterRegistry> registry) {
+            this.registry = registry;
+        }
+
+        @Override
+        protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain chain)
+                throws ServletException, IOException {
+            StorageMetricsInterceptor.startRequest();
+            try {
+                chain.doFilter(request, response);
+            } finally {
+                int calls = StorageMetricsInterceptor.finishRequest();
+                Object pattern = request.getAttribute(HandlerMapping.BEST_MATCHING_PATTERN_ATTRIBUTE);
+                String uri = pattern != null ? pattern.toString() : "UNKNOWN";
+                summaries.computeIfAbsent(request.getMethod() + " " + uri, key -> DistributionSummary.builder(CALLS_PER_REQUEST)
+                                .description("Число обращений к хранилищам за HTTP-запрос")
+                                .tag("method", request.getMethod())
+                                .tag("uri", uri)
+                                .register(registry.getObject()))
+                        .record(calls);
+            }
+        }
+    }
+}
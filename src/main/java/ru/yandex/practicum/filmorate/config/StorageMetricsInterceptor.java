@@ -0,0 +1,132 @@
+package ru.yandex.practicum.filmorate.config;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+import org.aopalliance.intercept.MethodInterceptor;
+import org.aopalliance.intercept.MethodInvocation;
+import org.springframework.beans.factory.ObjectProvider;
+import ru.yandex.practicum.filmorate.model.Film;
+import ru.yandex.practicum.filmorate.storage.event.EventStorage;
+import ru.yandex.practicum.filmorate.storage.film.FilmStorage;
+import ru.yandex.practicum.filmorate.storage.genre.GenreStorage;
+import ru.yandex.practicum.filmorate.storage.mpa.MpaStorage;
+import ru.yandex.practicum.filmorate.storage.user.UserStorage;
+
+import java.lang.reflect.Method;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Засекает время каждого вызова хранилища, считает возвращённые строки
+ * и число обращений к хранилищам в рамках текущего HTTP-запроса.
+ * <p>
+ * Метры регистрируются один раз на метод и на класс исключения, поэтому на вызов приходятся
+ * только замер времени и запись значений.
+ */
+class StorageMetricsInterceptor implements MethodInterceptor {
+    static final String TIMER = "filmorate.storage";
+    static final String ROWS = "filmorate.storage.rows";
+    static final List<Class<?>> STORAGES = List.of(FilmStorage.class, UserStorage.class, GenreStorage.class, MpaStorage.class,
+            EventStorage.class);
+    private static final ThreadLocal<int[]> REQUEST_CALLS = new ThreadLocal<>();
+    private final ObjectProvider<MeterRegistry> registryProvider;
+    private final Map<Method, Meters> meters = new ConcurrentHashMap<>();
+
+    private record Meters(Tags tags, Timer timer, DistributionSummary rows, Map<Class<?>, Timer> failures) {
+    }
+
+    StorageMetricsInterceptor(ObjectProvider<MeterRegistry> registryProvider) {
+        this.registryProvider = registryProvider;
+    }
+
+    @Override
+    public Object invoke(MethodInvocation invocation) throws Throwable {
+        int[] calls = REQUEST_CALLS.get();
+        if (calls != null) {
+            calls[0]++;
+        }
+        Meters methodMeters = meters.computeIfAbsent(invocation.getMethod(), this::register);
+        long start = System.nanoTime();
+        Object result;
+        try {
+            result = invocation.proceed();
+        } catch (Throwable e) {
+            methodMeters.failures().computeIfAbsent(e.getClass(), type -> Timer.builder(TIMER)
+                            .tags(methodMeters.tags())
+                            .tag("exception", type.getSimpleName())
+                            .register(registryProvider.getObject()))
+                    .record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+            throw e;
+        }
+        methodMeters.timer().record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        if (methodMeters.rows() != null) {
+            methodMeters.rows().record(rows(result));
+        }
+        return result;
+    }
+
+    private Meters register(Method method) {
+        MeterRegistry registry = registryProvider.getObject();
+        Tags tags = Tags.of("storage", storageOf(method.getDeclaringClass()).getSimpleName(), "method", method.getName());
+        Timer timer = Timer.builder(TIMER)
+                .description("Время вызова метода хранилища")
+                .tags(tags)
+                .tag("exception", "none")
+                .register(registry);
+        DistributionSummary rows = returnsRows(method.getReturnType()) ? DistributionSummary.builder(ROWS)
+                .description("Число строк, возвращённых методом хранилища")
+                .baseUnit("rows")
+                .tags(tags)
+                .register(registry) : null;
+        return new Meters(tags, timer, rows, new ConcurrentHashMap<>());
+    }
+
+    /**
+     * @return хранилище, которое реализует класс, или {@code null}
+     */
+    static Class<?> storageOf(Class<?> type) {
+        for (Class<?> storage : STORAGES) {
+            if (storage.isAssignableFrom(type)) {
+                return storage;
+            }
+        }
+        return null;
+    }
+
+    private static boolean returnsRows(Class<?> type) {
+        return Collection.class.isAssignableFrom(type) || type == Optional.class
+                || type.getPackageName().equals(Film.class.getPackageName());
+    }
+
+    private static int rows(Object result) {
+        if (result instanceof Collection<?> collection) {
+            return collection.size();
+        }
+        if (result instanceof Optional<?> optional) {
+            return optional.isPresent() ? 1 : 0;
+        }
+        return result != null ? 1 : 0;
+    }
+
+    /**
+     * Начинает подсчёт обращений к хранилищам в текущем потоке.
+     */
+    static void startRequest() {
+        REQUEST_CALLS.set(new int[1]);
+    }
+
+    /**
+     * @return число обращений к хранилищам с вызова {@link #startRequest()}
+     */
+    static int finishRequest() {
+        int[] calls = REQUEST_CALLS.get();
+        REQUEST_CALLS.remove();
+        return calls != null ? calls[0] : 0;
+    }
+}
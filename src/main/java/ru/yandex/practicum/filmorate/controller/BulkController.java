@@ -0,0 +1,74 @@
+package ru.yandex.practicum.filmorate.controller;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+import ru.yandex.practicum.filmorate.model.BulkReport;
+import ru.yandex.practicum.filmorate.service.BulkService;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+@RequiredArgsConstructor
+@RestController
+@RequestMapping("/bulk")
+@Slf4j
+public class BulkController {
+    private final BulkService bulkService;
+    private final ObjectMapper objectMapper;
+
+    @PostMapping(value = "/films", consumes = MediaType.APPLICATION_NDJSON_VALUE)
+    public BulkReport importFilms(InputStream body) throws IOException {
+        log.info("Получен запрос на пакетную загрузку фильмов");
+        return bulkService.importFilms(body);
+    }
+
+    @PostMapping(value = "/users", consumes = MediaType.APPLICATION_NDJSON_VALUE)
+    public BulkReport importUsers(InputStream body) throws IOException {
+        log.info("Получен запрос на пакетную загрузку пользователей");
+        return bulkService.importUsers(body);
+    }
+
+    @PostMapping(value = "/likes", consumes = MediaType.APPLICATION_NDJSON_VALUE)
+    public BulkReport importLikes(InputStream body) throws IOException {
+        log.info("Получен запрос на пакетную загрузку лайков");
+        return bulkService.importLikes(body);
+    }
+
+    @PostMapping(value = "/friendships", consumes = MediaType.APPLICATION_NDJSON_VALUE)
+    public BulkReport importFriendships(InputStream body) throws IOException {
+        log.info("Получен запрос на пакетную загрузку дружбы");
+        return bulkService.importFriendships(body);
+    }
+
+    @GetMapping("/films")
+    public ResponseEntity<StreamingResponseBody> exportFilms() {
+        log.info("Получен запрос на выгрузку фильмов");
+        return NdjsonStream.of(objectMapper, bulkService::exportFilms);
+    }
+
+    @GetMapping("/users")
+    public ResponseEntity<StreamingResponseBody> exportUsers() {
+        log.info("Получен запрос на выгрузку пользователей");
+        return NdjsonStream.of(objectMapper, bulkService::exportUsers);
+    }
+
+    @GetMapping("/likes")
+    public ResponseEntity<StreamingResponseBody> exportLikes() {
+        log.info("Получен запрос на выгрузку лайков");
+        return NdjsonStream.of(objectMapper, bulkService::exportLikes);
+    }
+
+    @GetMapping("/friendships")
+    public ResponseEntity<StreamingResponseBody> exportFriendships() {
+        log.info("Получен запрос на выгрузку дружбы");
+        return NdjsonStream.of(objectMapper, bulkService::exportFriendships);
+    }
+}
@@ -0,0 +1,23 @@
+package ru.yandex.practicum.filmorate.controller;
+
+import java.util.Arrays;
+import java.util.stream.Collectors;
+
+/**
+ * Строгие ETag ответов из версий данных.
+ * <p>
+ * Счётчики версий справочников и рейтингов живут в памяти и после перезапуска начинаются заново,
+ * поэтому в метку входит время запуска приложения: метки разных запусков не совпадают.
+ */
+final class ETags {
+    private static final String EPOCH = Long.toString(System.currentTimeMillis(), 36);
+
+    private ETags() {
+    }
+
+    static String of(long... versions) {
+        return Arrays.stream(versions)
+                .mapToObj(version -> Long.toString(version, 36))
+                .collect(Collectors.joining("-", "\"" + EPOCH + "-", "\""));
+    }
+}
@@ -1,15 +1,21 @@
 package ru.yandex.practicum.filmorate.controller;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
 import jakarta.validation.Valid;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.ResponseEntity;
+import org.springframework.http.converter.json.MappingJacksonValue;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.WebRequest;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 import ru.yandex.practicum.filmorate.exception.NotFoundException;
 import ru.yandex.practicum.filmorate.exception.ValidationException;
 import ru.yandex.practicum.filmorate.model.Film;
+import ru.yandex.practicum.filmorate.model.FilmSummary;
+import ru.yandex.practicum.filmorate.service.BatchLookup;
 import ru.yandex.practicum.filmorate.service.FilmService;
 
-import java.util.Collection;
 import java.util.List;
 
 @RequiredArgsConstructor
@@ -18,16 +24,83 @@ import java.util.List;
 @Slf4j
 public class FilmController {
     private final FilmService filmService;
+    private final ObjectMapper objectMapper;
 
+    /**
+     * Параметры {@code view} и {@code fields} списков фильмов описаны в {@link FilmView}.
+     */
     @GetMapping
-    public Collection<Film> findAll() {
+    public MappingJacksonValue findAll(@RequestParam(required = false) String view,
+                                       @RequestParam(required = false) String fields) throws ValidationException {
         log.info("Получен запрос на список всех фильмов");
-        return filmService.findAll();
+        FilmView filmView = FilmView.of(view, fields);
+        if (filmView.isSummary()) {
+            return filmView.render(filmService.findAllSummaries());
+        }
+        return new MappingJacksonValue(filmService.findAll());
     }
 
+    @GetMapping(params = "limit")
+    public MappingJacksonValue findPage(@RequestParam(defaultValue = "0") int after,
+                                        @RequestParam int limit,
+                                        @RequestParam(required = false) String view,
+                                        @RequestParam(required = false) String fields) throws ValidationException {
+        log.info("Получен запрос на страницу фильмов после ID " + after + ", размер " + limit);
+        FilmView filmView = FilmView.of(view, fields);
+        if (filmView.isSummary()) {
+            return filmView.render(filmService.findSummaryPage(after, limit));
+        }
+        return new MappingJacksonValue(filmService.findPage(after, limit));
+    }
+
+    /**
+     * Фильмы по списку {@code ids=1,2,3}; не найденные id перечислены в заголовке {@value MissingIds#HEADER}, их число - в {@value MissingIds#COUNT_HEADER}.
+     */
+    @GetMapping(params = "ids")
+    public ResponseEntity<MappingJacksonValue> findByIds(@RequestParam String ids,
+                                                         @RequestParam(required = false) String view,
+                                                         @RequestParam(required = false) String fields)
+            throws ValidationException {
+        log.info("Получен запрос на фильмы с ID " + ids);
+        FilmView filmView = FilmView.of(view, fields);
+        if (filmView.isSummary()) {
+            BatchLookup<FilmSummary> lookup = filmService.findSummariesByIds(ids);
+            return MissingIds.respond(lookup, filmView.render(lookup.found()));
+        }
+        BatchLookup<Film> lookup = filmService.findByIds(ids);
+        return MissingIds.respond(lookup, new MappingJacksonValue(lookup.found()));
+    }
+
+    @GetMapping(params = "stream=true")
+    public ResponseEntity<StreamingResponseBody> streamAll() {
+        log.info("Получен запрос на потоковую выгрузку всех фильмов");
+        return JsonArrayStream.of(objectMapper, filmService::streamAll);
+    }
+
+    @GetMapping("/trending")
+    public List<Film> getTrending(@RequestParam(defaultValue = "24h") String window,
+                                  @RequestParam(defaultValue = "10") int count) throws ValidationException {
+        log.info("Получен запрос на популярные за " + window + " фильмы");
+        return filmService.getTrendingFilms(window, count);
+    }
+
+    @GetMapping("/search")
+    public List<Film> search(@RequestParam String query,
+                             @RequestParam(defaultValue = "title,description") String by,
+                             @RequestParam(defaultValue = "10") int count) throws ValidationException {
+        log.info("Получен запрос на поиск фильмов: \"" + query + "\" по полям " + by);
+        return filmService.search(query, by, count);
+    }
+
+    /**
+     * Версия фильма читается до загрузки самого фильма: при совпадении ETag ответ 304 обходится одним запросом по ключу.
+     */
     @GetMapping("/{id}")
-    public Film findById(@PathVariable int id) throws NotFoundException {
+    public Film findById(@PathVariable int id, WebRequest request) throws NotFoundException {
         log.info("Получен запрос на фильм с ID " + id);
+        if (request.checkNotModified(ETags.of(filmService.getFilmVersionOrThrow(id)))) {
+            return null;
+        }
         return filmService.getFilmOrThrow(id);
     }
 
@@ -61,9 +134,25 @@ public class FilmController {
         filmService.removeLike(id, userId);
     }
 
+    /**
+     * Оба представления выдачи зависят от одних и тех же изменений, поэтому делят версию;
+     * ETag относится к URL, а представление входит в строку запроса.
+     */
     @GetMapping("/popular")
-    public List<Film> getPopular(@RequestParam(defaultValue = "10") int count) {
-        log.info("Получен запрос на " + count + " популярных фильмов");
-        return filmService.getPopularFilms(count);
+    public MappingJacksonValue getPopular(@RequestParam(defaultValue = "10") int count,
+                                          @RequestParam(required = false) Integer genreId,
+                                          @RequestParam(required = false) Integer year,
+                                          @RequestParam(required = false) String view,
+                                          @RequestParam(required = false) String fields,
+                                          WebRequest request) throws ValidationException {
+        log.info("Получен запрос на " + count + " популярных фильмов, жанр " + genreId + ", год " + year);
+        FilmView filmView = FilmView.of(view, fields);
+        if (request.checkNotModified(ETags.of(filmService.getPopularVersion()))) {
+            return null;
+        }
+        if (filmView.isSummary()) {
+            return filmView.render(filmService.getPopularSummaries(count, genreId, year));
+        }
+        return new MappingJacksonValue(filmService.getPopularFilms(count, genreId, year));
     }
 }
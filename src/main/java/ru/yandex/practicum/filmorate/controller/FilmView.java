@@ -0,0 +1,64 @@
+package ru.yandex.practicum.filmorate.controller;
+
+import com.fasterxml.jackson.databind.ser.impl.SimpleBeanPropertyFilter;
+import com.fasterxml.jackson.databind.ser.impl.SimpleFilterProvider;
+import org.springframework.http.converter.json.MappingJacksonValue;
+import ru.yandex.practicum.filmorate.exception.ValidationException;
+import ru.yandex.practicum.filmorate.model.FilmSummary;
+
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * Представление списков фильмов, выбранное параметрами запроса.
+ * <p>
+ * {@code view=summary} отдаёт {@link FilmSummary}: число лайков вместо их id. {@code fields=id,name,...}
+ * выбирает то же представление и оставляет в ответе только перечисленные поля.
+ * Без параметров отдаются фильмы целиком.
+ */
+final class FilmView {
+    private static final Set<String> SUMMARY_FIELDS = Set.of("id", "name", "description", "releaseDate", "duration",
+            "mpa", "genres", "likesCount");
+    private static final FilmView FULL = new FilmView(null);
+    private static final FilmView SUMMARY = new FilmView(SUMMARY_FIELDS);
+    private final Set<String> fields;
+
+    private FilmView(Set<String> fields) {
+        this.fields = fields;
+    }
+
+    static FilmView of(String view, String fields) throws ValidationException {
+        if (fields != null) {
+            if (view != null && !view.equals("summary")) {
+                throw new ValidationException("Параметр fields применим только к представлению summary");
+            }
+            Set<String> selected = new LinkedHashSet<>();
+            for (String field : fields.split(",")) {
+                if (!SUMMARY_FIELDS.contains(field.trim())) {
+                    throw new ValidationException("Неизвестное поле фильма: " + field.trim());
+                }
+                selected.add(field.trim());
+            }
+            return new FilmView(selected);
+        }
+        if (view == null || view.equals("full")) {
+            return FULL;
+        }
+        if (view.equals("summary")) {
+            return SUMMARY;
+        }
+        throw new ValidationException("Неизвестное представление фильмов: " + view);
+    }
+
+    boolean isSummary() {
+        return fields != null;
+    }
+
+    MappingJacksonValue render(Collection<FilmSummary> films) {
+        MappingJacksonValue body = new MappingJacksonValue(films);
+        body.setFilters(new SimpleFilterProvider()
+                .addFilter(FilmSummary.FIELDS_FILTER, SimpleBeanPropertyFilter.filterOutAllExcept(fields)));
+        return body;
+    }
+}
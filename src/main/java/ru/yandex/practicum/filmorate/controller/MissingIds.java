@@ -0,0 +1,50 @@
+package ru.yandex.practicum.filmorate.controller;
+
+import org.springframework.http.ResponseEntity;
+import ru.yandex.practicum.filmorate.service.BatchLookup;
+
+import java.util.List;
+
+/**
+ * Ответ на поиск по списку id: тело - найденное в порядке запроса, не найденные id - в заголовке
+ * {@value #HEADER} через запятую, их общее число - в заголовке {@value #COUNT_HEADER}. Если нашлось всё,
+ * заголовков нет.
+ * <p>
+ * Прокси и серверы обычно не принимают заголовки длиннее 8 КБ, а в запросе бывает до тысячи id,
+ * поэтому список обрезается до {@value #MAX_HEADER_LENGTH} символов. Если в нём меньше id, чем
+ * в {@value #COUNT_HEADER}, остальные не найденные id идут в запросе после последнего перечисленного.
+ */
+final class MissingIds {
+    static final String HEADER = "X-Missing-Ids";
+    static final String COUNT_HEADER = "X-Missing-Count";
+    static final int MAX_HEADER_LENGTH = 4096;
+
+    private MissingIds() {
+    }
+
+    static <T> ResponseEntity<T> respond(BatchLookup<?> lookup, T body) {
+        ResponseEntity.BodyBuilder response = ResponseEntity.ok();
+        List<Integer> missing = lookup.missingIds();
+        if (!missing.isEmpty()) {
+            response.header(HEADER, join(missing));
+            response.header(COUNT_HEADER, String.valueOf(missing.size()));
+        }
+        return response.body(body);
+    }
+
+    private static String join(List<Integer> ids) {
+        StringBuilder joined = new StringBuilder();
+        for (int id : ids) {
+            String next = String.valueOf(id);
+            int length = joined.isEmpty() ? next.length() : joined.length() + 1 + next.length();
+            if (length > MAX_HEADER_LENGTH) {
+                break;
+            }
+            if (!joined.isEmpty()) {
+                joined.append(',');
+            }
+            joined.append(next);
+        }
+        return joined.toString();
+    }
+}
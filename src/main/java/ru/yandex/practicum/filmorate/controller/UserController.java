@@ -1,27 +1,34 @@
 package ru.yandex.practicum.filmorate.controller;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
 import jakarta.validation.Valid;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.WebRequest;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 import ru.yandex.practicum.filmorate.exception.NotFoundException;
 import ru.yandex.practicum.filmorate.exception.ValidationException;
+import ru.yandex.practicum.filmorate.model.Event;
+import ru.yandex.practicum.filmorate.model.Film;
 import ru.yandex.practicum.filmorate.model.User;
+import ru.yandex.practicum.filmorate.service.BatchLookup;
 import ru.yandex.practicum.filmorate.service.UserService;
 
 import java.util.Collection;
 import java.util.List;
-import java.util.Map;
 
 @RestController
 @RequestMapping("/users")
 @Slf4j
 public class UserController {
     private final UserService userService;
+    private final ObjectMapper objectMapper;
 
-    public UserController(UserService userService) {
+    public UserController(UserService userService, ObjectMapper objectMapper) {
         this.userService = userService;
+        this.objectMapper = objectMapper;
     }
 
     @GetMapping
@@ -30,18 +37,37 @@ public class UserController {
         return userService.findAll();
     }
 
+    @GetMapping(params = "limit")
+    public List<User> findPage(@RequestParam(defaultValue = "0") int after,
+                               @RequestParam int limit) throws ValidationException {
+        log.info("Получен запрос на страницу пользователей после ID {}, размер {}", after, limit);
+        return userService.findPage(after, limit);
+    }
+
+    /**
+     * Пользователи по списку {@code ids=1,2,3}; не найденные id перечислены в заголовке {@value MissingIds#HEADER}, их число - в {@value MissingIds#COUNT_HEADER}.
+     */
+    @GetMapping(params = "ids")
+    public ResponseEntity<List<User>> findByIds(@RequestParam String ids) throws ValidationException {
+        log.info("Получен запрос на пользователей с ID {}", ids);
+        BatchLookup<User> lookup = userService.findByIds(ids);
+        return MissingIds.respond(lookup, lookup.found());
+    }
+
+    @GetMapping(params = "stream=true")
+    public ResponseEntity<StreamingResponseBody> streamAll() {
+        log.info("Получен запрос на потоковую выгрузку всех пользователей");
+        return JsonArrayStream.of(objectMapper, userService::streamAll);
+    }
+
     @GetMapping("/{id}")
-    public ResponseEntity<?> findById(@PathVariable int id) {
-        try {
-            User user = userService.getUserOrThrow(id);
-            return ResponseEntity.ok(user);
-        } catch (NotFoundException e) {
-            return ResponseEntity.status(HttpStatus.NOT_FOUND)
-                    .body(Map.of("message", e.getMessage()));
+    public User findById(@PathVariable int id, WebRequest request) throws NotFoundException {
+        if (request.checkNotModified(ETags.of(userService.getUserVersionOrThrow(id)))) {
+            return null;
         }
+        return userService.getUserOrThrow(id);
     }
 
-
     @PostMapping
     public User create(@Valid @RequestBody User user) {
         log.info("Получен запрос на создание пользователя");
@@ -49,82 +75,62 @@ public class UserController {
     }
 
     @PutMapping
-    public ResponseEntity<?> update(@Valid @RequestBody User user) {
-        try {
-            User updatedUser = userService.update(user);
-            return ResponseEntity.ok(updatedUser);
-        } catch (NotFoundException e) {
-            return ResponseEntity.status(HttpStatus.NOT_FOUND)
-                    .body(Map.of("message", e.getMessage()));
-        }
+    public User update(@Valid @RequestBody User user) throws NotFoundException {
+        return userService.update(user);
     }
 
-
     @DeleteMapping("/{id}")
-    public ResponseEntity<?> delete(@PathVariable int id) {
-        try {
-            userService.delete(id);
-            return ResponseEntity.noContent().build();
-        } catch (NotFoundException e) {
-            return ResponseEntity.status(HttpStatus.NOT_FOUND)
-                    .body(Map.of("message", e.getMessage()));
-        }
+    @ResponseStatus(HttpStatus.NO_CONTENT)
+    public void delete(@PathVariable int id) throws NotFoundException {
+        userService.delete(id);
     }
 
-
     @PutMapping("/{userId}/friends/{friendId}")
-    public ResponseEntity<?> addFriend(@PathVariable int userId,
-                                       @PathVariable int friendId) {
-        try {
-            userService.addFriend(userId, friendId);
-            return ResponseEntity.ok().build();
-        } catch (NotFoundException e) {
-            return ResponseEntity.status(HttpStatus.NOT_FOUND)
-                    .body(Map.of("message", e.getMessage()));
-        } catch (ValidationException e) {
-            return ResponseEntity.status(HttpStatus.BAD_REQUEST)
-                    .body(Map.of("message", e.getMessage()));
-        } catch (Exception e) {
-            log.error("Ошибка при добавлении в друзья", e);
-            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
-                    .body(Map.of("message", "Внутренняя ошибка сервера"));
-        }
+    public void addFriend(@PathVariable int userId,
+                          @PathVariable int friendId) throws NotFoundException, ValidationException {
+        userService.addFriend(userId, friendId);
     }
 
     @DeleteMapping("/{userId}/friends/{friendId}")
-    public ResponseEntity<?> removeFriend(@PathVariable int userId,
-                                          @PathVariable int friendId) {
-        try {
-            userService.removeFriend(userId, friendId);
-            return ResponseEntity.noContent().build();
-        } catch (NotFoundException e) {
-            return ResponseEntity.status(HttpStatus.NOT_FOUND)
-                    .body(Map.of("message", e.getMessage()));
-        }
+    @ResponseStatus(HttpStatus.NO_CONTENT)
+    public void removeFriend(@PathVariable int userId,
+                             @PathVariable int friendId) throws NotFoundException {
+        userService.removeFriend(userId, friendId);
     }
 
-
     @GetMapping("/{id}/friends")
-    public ResponseEntity<?> getFriends(@PathVariable int id) {
-        try {
-            List<User> friends = userService.getFriends(id);
-            return ResponseEntity.ok(friends != null ? friends : List.of());
-        } catch (NotFoundException e) {
-            return ResponseEntity.status(HttpStatus.NOT_FOUND)
-                    .body(Map.of("message", e.getMessage()));
-        }
+    public List<User> getFriends(@PathVariable int id) throws NotFoundException {
+        return userService.getFriends(id);
     }
 
-
     @GetMapping("/{id}/friends/common/{otherId}")
-    public ResponseEntity<?> getCommonFriends(@PathVariable int id,
-                                              @PathVariable int otherId) {
-        try {
-            List<User> commonFriends = userService.getCommonFriends(id, otherId);
-            return ResponseEntity.ok(commonFriends);
-        } catch (NotFoundException e) {
-            return ResponseEntity.status(HttpStatus.NOT_FOUND)
-                    .body(Map.of("message", e.getMessage()));
-        }
+    public List<User> getCommonFriends(@PathVariable int id,
+                                       @PathVariable int otherId) throws NotFoundException {
+        return userService.getCommonFriends(id, otherId);
+    }
+
+    @GetMapping("/{id}/friend-suggestions")
+    public List<User> getFriendSuggestions(@PathVariable int id,
+                                           @RequestParam(defaultValue = "10") int count)
+            throws NotFoundException, ValidationException {
+        log.info("Получен запрос на {} предложений дружбы для пользователя {}", count, id);
+        return userService.getFriendSuggestions(id, count);
+    }
+
+    @GetMapping("/{id}/recommendations")
+    public List<Film> getRecommendations(@PathVariable int id,
+                                         @RequestParam(defaultValue = "10") int count)
+            throws NotFoundException, ValidationException {
+        log.info("Получен запрос на {} рекомендаций для пользователя {}", count, id);
+        return userService.getRecommendations(id, count);
+    }
+
+    @GetMapping("/{id}/feed")
+    public List<Event> getFeed(@PathVariable int id,
+                               @RequestParam(defaultValue = "0") long after,
+                               @RequestParam(defaultValue = "100") int limit)
+            throws NotFoundException, ValidationException {
+        log.info("Получен запрос на ленту пользователя {} после события {}, размер {}", id, after, limit);
+        return userService.getFeed(id, after, limit);
     }
-}
\ No newline at end of file
+}
@@ -1,7 +1,13 @@
 package ru.yandex.practicum.filmorate.exception;
 
+/**
+ * Искомой сущности нет: ответ 404.
+ * <p>
+ * Это ожидаемый исход запроса, а не сбой, поэтому исключение создаётся без стека: заполнение стека
+ * стоило бы дороже самого ответа.
+ */
 public class NotFoundException extends Exception {
     public NotFoundException(String m) {
-        super(m);
+        super(m, null, false, false);
     }
 }
@@ -1,7 +1,10 @@
 package ru.yandex.practicum.filmorate.exception;
 
+/**
+ * Некорректный запрос: ответ 400. Как и {@link NotFoundException}, создаётся без стека.
+ */
 public class ValidationException extends Exception {
     public ValidationException(String m) {
-        super(m);
+        super(m, null, false, false);
     }
 }
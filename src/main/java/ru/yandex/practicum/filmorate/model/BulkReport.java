@@ -0,0 +1,25 @@
+package ru.yandex.practicum.filmorate.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Итог пакетной загрузки: сколько строк записано и отклонено и что пошло не так в каждой пачке.
+ */
+@Data
+public class BulkReport {
+    private long imported;
+    private long rejected;
+    private final List<Chunk> failedChunks = new ArrayList<>();
+
+    @Data
+    @AllArgsConstructor
+    public static class Chunk {
+        private long firstLine;
+        private long lastLine;
+        private List<String> errors;
+    }
+}
@@ -0,0 +1,41 @@
+package ru.yandex.practicum.filmorate.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * Запись ленты активности пользователя.
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class Event {
+    private Long eventId;
+
+    /**
+     * Момент действия в миллисекундах с начала эпохи.
+     */
+    private Long timestamp;
+
+    private Integer userId;
+
+    private EventType eventType;
+
+    private Operation operation;
+
+    /**
+     * Фильм для {@link EventType#LIKE}, друг для {@link EventType#FRIEND}.
+     */
+    private Integer entityId;
+
+    public enum EventType {
+        LIKE,
+        FRIEND
+    }
+
+    public enum Operation {
+        ADD,
+        REMOVE
+    }
+}
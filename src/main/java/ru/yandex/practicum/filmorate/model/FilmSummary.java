@@ -0,0 +1,35 @@
+package ru.yandex.practicum.filmorate.model;
+
+import com.fasterxml.jackson.annotation.JsonFilter;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDate;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * Облегчённое представление фильма для списков: вместо id всех лайкнувших - только их число.
+ * <p>
+ * Сериализуется через фильтр {@link #FIELDS_FILTER}, которым контроллер оставляет запрошенные поля.
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+@JsonFilter(FilmSummary.FIELDS_FILTER)
+public class FilmSummary {
+    public static final String FIELDS_FILTER = "filmSummaryFields";
+
+    private Integer id;
+    private String name;
+    private String description;
+    private LocalDate releaseDate;
+    private Integer duration;
+    private Mpa mpa;
+    @Builder.Default
+    private Set<Genre> genres = new LinkedHashSet<>();
+    private Integer likesCount;
+}
@@ -0,0 +1,20 @@
+package ru.yandex.practicum.filmorate.model;
+
+import jakarta.validation.constraints.NotNull;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * Строка выгрузки и загрузки дружбы: односторонняя связь userId -> friendId.
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class Friendship {
+    @NotNull(message = "Не указан пользователь")
+    private Integer userId;
+
+    @NotNull(message = "Не указан друг")
+    private Integer friendId;
+}
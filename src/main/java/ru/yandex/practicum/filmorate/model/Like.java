@@ -0,0 +1,20 @@
+package ru.yandex.practicum.filmorate.model;
+
+import jakarta.validation.constraints.NotNull;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * Строка выгрузки и загрузки лайков.
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class Like {
+    @NotNull(message = "Не указан фильм")
+    private Integer filmId;
+
+    @NotNull(message = "Не указан пользователь")
+    private Integer userId;
+}
@@ -0,0 +1,40 @@
+package ru.yandex.practicum.filmorate.service;
+
+import ru.yandex.practicum.filmorate.exception.ValidationException;
+
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Function;
+
+/**
+ * Результат поиска по списку id ({@code ids=1,2,3}): найденное в порядке запроса и id, которых нет.
+ */
+public record BatchLookup<T>(List<T> found, List<Integer> missingIds) {
+
+    /**
+     * Разбирает список id через запятую. Повторы отбрасываются, порядок первых вхождений сохраняется.
+     */
+    static List<Integer> parseIds(String ids) throws ValidationException {
+        Set<Integer> parsed = new LinkedHashSet<>();
+        for (String id : ids.split(",")) {
+            try {
+                parsed.add(Integer.parseInt(id.trim()));
+            } catch (NumberFormatException e) {
+                throw new ValidationException("Некорректный id в списке: " + id.trim());
+            }
+        }
+        if (parsed.size() > PageRequests.MAX_PAGE_SIZE) {
+            throw new ValidationException("В списке не может быть больше " + PageRequests.MAX_PAGE_SIZE + " id");
+        }
+        return List.copyOf(parsed);
+    }
+
+    static <T> BatchLookup<T> of(List<Integer> requested, List<T> found, Function<T, Integer> idOf) {
+        Set<Integer> foundIds = new HashSet<>(found.size() * 2);
+        found.forEach(item -> foundIds.add(idOf.apply(item)));
+        List<Integer> missing = requested.stream().filter(id -> !foundIds.contains(id)).toList();
+        return new BatchLookup<>(found, missing);
+    }
+}
@@ -0,0 +1,214 @@
+package ru.yandex.practicum.filmorate.service;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import jakarta.validation.ConstraintViolation;
+import jakarta.validation.Validator;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataAccessException;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import ru.yandex.practicum.filmorate.model.BulkReport;
+import ru.yandex.practicum.filmorate.model.Film;
+import ru.yandex.practicum.filmorate.model.Friendship;
+import ru.yandex.practicum.filmorate.model.Genre;
+import ru.yandex.practicum.filmorate.model.Like;
+import ru.yandex.practicum.filmorate.model.User;
+import ru.yandex.practicum.filmorate.storage.film.FilmStorage;
+import ru.yandex.practicum.filmorate.storage.genre.GenreStorage;
+import ru.yandex.practicum.filmorate.storage.mpa.MpaStorage;
+import ru.yandex.practicum.filmorate.storage.user.UserStorage;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * Пакетная загрузка и выгрузка в формате NDJSON: одна JSON-запись на строку.
+ * <p>
+ * Строки читаются по одной и проверяются по справочникам из кэша. Прошедшие проверку строки
+ * пишутся JDBC-пакетами, каждая пачка в своей транзакции. Ошибка в пачке не останавливает загрузку,
+ * а попадает в отчёт вместе с номерами строк.
+ */
+@Slf4j
+@Service
+public class BulkService {
+    private final FilmStorage filmStorage;
+    private final UserStorage userStorage;
+    private final GenreStorage genreStorage;
+    private final MpaStorage mpaStorage;
+    private final Validator validator;
+    private final ObjectMapper objectMapper;
+    private final TransactionTemplate transactionTemplate;
+    private final int chunkSize;
+
+    public BulkService(FilmStorage filmStorage, UserStorage userStorage, GenreStorage genreStorage, MpaStorage mpaStorage,
+                       Validator validator, ObjectMapper objectMapper, PlatformTransactionManager transactionManager,
+                       @Value("${filmorate.bulk.chunk-size:5000}") int chunkSize) {
+        this.filmStorage = filmStorage;
+        this.userStorage = userStorage;
+        this.genreStorage = genreStorage;
+        this.mpaStorage = mpaStorage;
+        this.validator = validator;
+        this.objectMapper = objectMapper;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.chunkSize = chunkSize;
+    }
+
+    public BulkReport importFilms(InputStream in) throws IOException {
+        return importLines(in, Film.class, this::checkFilm, filmStorage::addAll, filmStorage::afterBulkLoad);
+    }
+
+    public BulkReport importUsers(InputStream in) throws IOException {
+        return importLines(in, User.class, this::checkUser, userStorage::addAll, userStorage::afterBulkLoad);
+    }
+
+    /**
+     * Ссылки на фильмы и пользователей проверяют внешние ключи: ошибка отклоняет пачку целиком.
+     */
+    public BulkReport importLikes(InputStream in) throws IOException {
+        return importLines(in, Like.class, this::checkConstraints, filmStorage::addLikes, filmStorage::afterBulkLoad);
+    }
+
+    public BulkReport importFriendships(InputStream in) throws IOException {
+        return importLines(in, Friendship.class, friendship -> {
+            String error = checkConstraints(friendship);
+            if (error == null && friendship.getUserId().equals(friendship.getFriendId())) {
+                return "Пользователь не может дружить сам с собой";
+            }
+            return error;
+        }, userStorage::addFriendships, userStorage::afterBulkLoad);
+    }
+
+    public void exportFilms(Consumer<Film> consumer) {
+        filmStorage.streamAll(consumer);
+    }
+
+    public void exportUsers(Consumer<User> consumer) {
+        userStorage.streamAll(consumer);
+    }
+
+    public void exportLikes(Consumer<Like> consumer) {
+        filmStorage.streamLikes(consumer);
+    }
+
+    public void exportFriendships(Consumer<Friendship> consumer) {
+        userStorage.streamFriendships(consumer);
+    }
+
+    /**
+     * @param check     возвращает описание ошибки или {@code null}, если запись можно загружать
+     * @param afterLoad выполняется и при ошибке чтения: уже записанные пачки должны попасть в индексы и кэш
+     */
+    private <T> BulkReport importLines(InputStream in, Class<T> type, Function<T, String> check,
+                                       Consumer<List<T>> writer, Runnable afterLoad) throws IOException {
+        try {
+            return importLines(in, type, check, writer);
+        } finally {
+            afterLoad.run();
+        }
+    }
+
+    private <T> BulkReport importLines(InputStream in, Class<T> type, Function<T, String> check,
+                                       Consumer<List<T>> writer) throws IOException {
+        BulkReport report = new BulkReport();
+        ObjectReader reader = objectMapper.readerFor(type);
+        List<T> chunk = new ArrayList<>(chunkSize);
+        List<String> errors = new ArrayList<>();
+        long lineNumber = 0;
+        long firstLine = 1;
+        try (BufferedReader lines = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = lines.readLine()) != null) {
+                lineNumber++;
+                if (line.isBlank()) {
+                    continue;
+                }
+                try {
+                    T item = reader.readValue(line);
+                    String error = check.apply(item);
+                    if (error == null) {
+                        chunk.add(item);
+                    } else {
+                        errors.add("Строка " + lineNumber + ": " + error);
+                    }
+                } catch (JsonProcessingException e) {
+                    errors.add("Строка " + lineNumber + ": некорректный JSON: " + e.getOriginalMessage());
+                }
+                if (chunk.size() + errors.size() == chunkSize) {
+                    flush(report, chunk, errors, firstLine, lineNumber, writer);
+                    firstLine = lineNumber + 1;
+                }
+            }
+        }
+        if (!chunk.isEmpty() || !errors.isEmpty()) {
+            flush(report, chunk, errors, firstLine, lineNumber, writer);
+        }
+        log.info("Пакетная загрузка {}: записано {}, отклонено {}", type.getSimpleName(), report.getImported(), report.getRejected());
+        return report;
+    }
+
+    private <T> void flush(BulkReport report, List<T> chunk, List<String> errors, long firstLine, long lastLine,
+                           Consumer<List<T>> writer) {
+        report.setRejected(report.getRejected() + errors.size());
+        if (!chunk.isEmpty()) {
+            try {
+                transactionTemplate.executeWithoutResult(status -> writer.accept(chunk));
+                report.setImported(report.getImported() + chunk.size());
+            } catch (DataAccessException e) {
+                log.warn("Пачка строк {}-{} не записана", firstLine, lastLine, e);
+                errors.add("Пачка не записана: " + e.getMostSpecificCause().getMessage());
+                report.setRejected(report.getRejected() + chunk.size());
+            }
+        }
+        if (!errors.isEmpty()) {
+            report.getFailedChunks().add(new BulkReport.Chunk(firstLine, lastLine, List.copyOf(errors)));
+        }
+        chunk.clear();
+        errors.clear();
+    }
+
+    private String checkFilm(Film film) {
+        String error = checkConstraints(film);
+        if (error != null) {
+            return error;
+        }
+        if (film.getReleaseDate().isBefore(FilmService.MIN_RELEASE_DATE)) {
+            return "Дата релиза должна быть не раньше 28 декабря 1895 года";
+        }
+        if (film.getMpa() == null || mpaStorage.getMpaById(film.getMpa().getId()).isEmpty()) {
+            return "Рейтинг MPA не указан или не существует";
+        }
+        if (film.getGenres() != null) {
+            for (Genre genre : film.getGenres()) {
+                if (genreStorage.getGenreById(genre.getId()).isEmpty()) {
+                    return "Жанр с id=" + genre.getId() + " не найден";
+                }
+            }
+        }
+        return null;
+    }
+
+    private String checkUser(User user) {
+        String error = checkConstraints(user);
+        if (error == null && user.getBirthday() == null) {
+            return "Дата рождения должна быть указана";
+        }
+        return error;
+    }
+
+    private <T> String checkConstraints(T item) {
+        Set<ConstraintViolation<T>> violations = validator.validate(item);
+        return violations.isEmpty() ? null : violations.iterator().next().getMessage();
+    }
+}
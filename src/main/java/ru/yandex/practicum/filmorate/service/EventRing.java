@@ -0,0 +1,76 @@
+package ru.yandex.practicum.filmorate.service;
+
+import ru.yandex.practicum.filmorate.model.Event;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Ограниченная кольцевая очередь без блокировок: много писателей, один читатель.
+ * <p>
+ * Писатель занимает номер ячейки сдвигом {@code tail} через CAS и затем публикует в неё событие.
+ * Читатель забирает события подряд с {@code head}, пока не встретит пустую ячейку: она ещё не
+ * опубликована, и следующий проход продолжит с неё же.
+ */
+final class EventRing {
+    private final AtomicReferenceArray<Event> slots;
+    private final int mask;
+    private final AtomicLong tail = new AtomicLong();
+    private volatile long head;
+
+    /**
+     * @param capacity округляется вверх до степени двойки
+     */
+    EventRing(int capacity) {
+        int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+        this.slots = new AtomicReferenceArray<>(size);
+        this.mask = size - 1;
+    }
+
+    /**
+     * @return {@code false}, если очередь заполнена
+     */
+    boolean offer(Event event) {
+        long claimed;
+        do {
+            claimed = tail.get();
+            if (claimed - head > mask) {
+                return false;
+            }
+        } while (!tail.compareAndSet(claimed, claimed + 1));
+        slots.lazySet((int) (claimed & mask), event);
+        return true;
+    }
+
+    /**
+     * Переносит в {@code into} не больше {@code max} опубликованных событий. Вызывается только одним потоком.
+     *
+     * @return число перенесённых событий
+     */
+    int drain(List<Event> into, int max) {
+        long next = head;
+        int drained = 0;
+        while (drained < max) {
+            int slot = (int) (next & mask);
+            Event event = slots.get(slot);
+            if (event == null) {
+                break;
+            }
+            slots.lazySet(slot, null);
+            into.add(event);
+            next++;
+            drained++;
+        }
+        head = next;
+        return drained;
+    }
+
+    int size() {
+        return (int) Math.max(0, tail.get() - head);
+    }
+
+    int capacity() {
+        return mask + 1;
+    }
+}
@@ -0,0 +1,149 @@
+package ru.yandex.practicum.filmorate.service;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import ru.yandex.practicum.filmorate.model.Event;
+import ru.yandex.practicum.filmorate.storage.event.EventStorage;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Лента активности: лайки и изменения дружбы.
+ * <p>
+ * Запись события не обращается к БД: событие кладётся в кольцевой буфер {@link EventRing},
+ * а фоновый поток дописывает накопленное в таблицу events пакетами.
+ * <ul>
+ *     <li>Надёжность: событие появляется в ленте не позже чем через {@code filmorate.feed.flush-interval}.
+ *     При аварийной остановке теряются события за этот интервал, при штатной буфер дописывается до конца.</li>
+ *     <li>Противодавление: если буфер ({@code filmorate.feed.buffer-size}) заполнен, запись ждёт места
+ *     не дольше {@code filmorate.feed.max-block}, после чего событие отбрасывается
+ *     и учитывается в метрике {@code filmorate.feed.dropped}.</li>
+ * </ul>
+ */
+@Slf4j
+@Service
+public class FeedService implements MeterBinder {
+    private static final long OVERFLOW_PAUSE_NANOS = TimeUnit.MICROSECONDS.toNanos(100);
+    private final EventStorage eventStorage;
+    private final EventRing ring;
+    private final int batchSize;
+    private final long flushIntervalNanos;
+    private final long maxBlockNanos;
+    private final LongAdder dropped = new LongAdder();
+    private final List<Event> pending = new ArrayList<>();
+    // ReentrantLock, а не synchronized: запись пакета ждёт БД и не должна закреплять виртуальный поток за несущим
+    private final ReentrantLock flushing = new ReentrantLock();
+    private volatile boolean running;
+    private volatile Thread writer;
+
+    public FeedService(EventStorage eventStorage,
+                       @Value("${filmorate.feed.buffer-size:65536}") int bufferSize,
+                       @Value("${filmorate.feed.batch-size:1000}") int batchSize,
+                       @Value("${filmorate.feed.flush-interval:200ms}") Duration flushInterval,
+                       @Value("${filmorate.feed.max-block:100ms}") Duration maxBlock) {
+        this.eventStorage = eventStorage;
+        this.ring = new EventRing(bufferSize);
+        this.batchSize = batchSize;
+        this.flushIntervalNanos = flushInterval.toNanos();
+        this.maxBlockNanos = maxBlock.toNanos();
+    }
+
+    @PostConstruct
+    void start() {
+        running = true;
+        writer = Thread.ofPlatform().name("feed-writer").daemon().start(this::writeLoop);
+    }
+
+    /**
+     * Останавливает фоновый поток и дописывает в БД всё, что осталось в буфере.
+     */
+    @PreDestroy
+    void stop() throws InterruptedException {
+        running = false;
+        LockSupport.unpark(writer);
+        writer.join();
+        flush();
+    }
+
+    public void record(int userId, Event.EventType eventType, Event.Operation operation, int entityId) {
+        Event event = new Event(null, System.currentTimeMillis(), userId, eventType, operation, entityId);
+        if (ring.offer(event)) {
+            return;
+        }
+        long deadline = System.nanoTime() + maxBlockNanos;
+        while (running && System.nanoTime() < deadline) {
+            LockSupport.unpark(writer);
+            LockSupport.parkNanos(OVERFLOW_PAUSE_NANOS);
+            if (ring.offer(event)) {
+                return;
+            }
+        }
+        dropped.increment();
+        log.warn("Буфер ленты заполнен, событие {} пользователя {} отброшено", eventType, userId);
+    }
+
+    /**
+     * События появляются здесь после записи фоновым потоком.
+     */
+    public List<Event> getFeed(int userId, long afterId, int limit) {
+        return eventStorage.findPage(userId, afterId, limit);
+    }
+
+    /**
+     * Дописывает в БД все опубликованные события. Неудавшийся пакет остаётся первым в очереди на запись.
+     *
+     * @return число записанных событий
+     */
+    public int flush() {
+        flushing.lock();
+        try {
+            int written = 0;
+            while (!pending.isEmpty() || ring.drain(pending, batchSize) > 0) {
+                eventStorage.addAll(pending);
+                written += pending.size();
+                pending.clear();
+            }
+            return written;
+        } finally {
+            flushing.unlock();
+        }
+    }
+
+    private void writeLoop() {
+        while (running) {
+            try {
+                flush();
+            } catch (RuntimeException e) {
+                log.warn("Не удалось записать события ленты, повтор через {} мс",
+                        TimeUnit.NANOSECONDS.toMillis(flushIntervalNanos), e);
+            }
+            LockSupport.parkNanos(flushIntervalNanos);
+        }
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        Gauge.builder("filmorate.feed.buffered", ring, EventRing::size)
+                .description("События в буфере, ещё не записанные в БД")
+                .register(registry);
+        Gauge.builder("filmorate.feed.capacity", ring, EventRing::capacity)
+                .description("Ёмкость буфера событий")
+                .register(registry);
+        FunctionCounter.builder("filmorate.feed.dropped", dropped, LongAdder::sum)
+                .description("События, отброшенные из-за переполнения буфера")
+                .register(registry);
+    }
+}
@@ -1,9 +1,13 @@
 package ru.yandex.practicum.filmorate.service;
 
+import org.springframework.boot.convert.DurationStyle;
+import org.springframework.dao.DataIntegrityViolationException;
 import org.springframework.stereotype.Service;
 import ru.yandex.practicum.filmorate.exception.NotFoundException;
 import ru.yandex.practicum.filmorate.exception.ValidationException;
+import ru.yandex.practicum.filmorate.model.Event;
 import ru.yandex.practicum.filmorate.model.Film;
+import ru.yandex.practicum.filmorate.model.FilmSummary;
 import ru.yandex.practicum.filmorate.model.Genre;
 import ru.yandex.practicum.filmorate.model.Mpa;
 import ru.yandex.practicum.filmorate.model.User;
@@ -12,25 +16,30 @@ import ru.yandex.practicum.filmorate.storage.genre.GenreStorage;
 import ru.yandex.practicum.filmorate.storage.mpa.MpaStorage;
 import ru.yandex.practicum.filmorate.storage.user.UserStorage;
 
+import java.time.Duration;
 import java.time.LocalDate;
 import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
 
 @Service
 public class FilmService {
-    private static final LocalDate MIN_RELEASE_DATE = LocalDate.of(1895, 12, 28);
+    static final LocalDate MIN_RELEASE_DATE = LocalDate.of(1895, 12, 28);
     private final FilmStorage filmStorage;
     private final UserStorage userStorage;
     private final GenreStorage genreStorage;
     private final MpaStorage mpaStorage;
+    private final FeedService feedService;
 
-    public FilmService(FilmStorage filmStorage, UserStorage userStorage, GenreStorage genreStorage, MpaStorage mpaStorage) {
+    public FilmService(FilmStorage filmStorage, UserStorage userStorage, GenreStorage genreStorage, MpaStorage mpaStorage,
+                       FeedService feedService) {
         this.filmStorage = filmStorage;
         this.userStorage = userStorage;
         this.genreStorage = genreStorage;
         this.mpaStorage = mpaStorage;
+        this.feedService = feedService;
     }
 
     public Film addFilm(Film film) throws ValidationException, NotFoundException {
@@ -63,37 +72,103 @@ public class FilmService {
 
 
     public void addLike(int filmId, int userId) throws NotFoundException, ValidationException {
-        Film film = getFilmOrThrow(filmId);
-        User user = getUserOrThrow(userId);
-
-        if (film.getLikes().contains(userId)) {
+        boolean added;
+        try {
+            added = filmStorage.addLike(filmId, userId);
+        } catch (DataIntegrityViolationException e) {
+            requireFilmAndUser(filmId, userId);
+            throw e;
+        }
+        if (!added) {
             throw new ValidationException("Пользователь уже поставил лайк");
         }
-
-        filmStorage.addLike(filmId, userId);
-        film.getLikes().add(userId);
+        feedService.record(userId, Event.EventType.LIKE, Event.Operation.ADD, filmId);
     }
 
     public void removeLike(int filmId, int userId) throws NotFoundException, ValidationException {
-        Film film = getFilmOrThrow(filmId);
-        User user = getUserOrThrow(userId);
-
-        if (!film.getLikes().contains(userId)) {
+        if (!filmStorage.removeLike(filmId, userId)) {
+            requireFilmAndUser(filmId, userId);
             throw new ValidationException("Лайк не найден");
         }
+        feedService.record(userId, Event.EventType.LIKE, Event.Operation.REMOVE, filmId);
+    }
 
-        filmStorage.removeLike(filmId, userId);
-        film.getLikes().remove(userId);
+    /**
+     * Проверка существования нужна только на пути ошибки, когда запись лайка не удалась.
+     */
+    private void requireFilmAndUser(int filmId, int userId) throws NotFoundException {
+        if (!filmStorage.exists(filmId)) {
+            throw new NotFoundException("Фильм не найден");
+        }
+        if (!userStorage.exists(userId)) {
+            throw new NotFoundException("Пользователь не найден");
+        }
     }
 
     public List<Film> getPopularFilms(int count) {
-        return filmStorage.findAll().stream().sorted((f1, f2) -> Integer.compare(f2.getLikes().size(), f1.getLikes().size())).limit(count).collect(Collectors.toList());
+        return filmStorage.findPopular(count);
+    }
+
+    public List<Film> getPopularFilms(int count, Integer genreId, Integer year) {
+        return filmStorage.findPopular(count, genreId, year);
+    }
+
+    public List<FilmSummary> getPopularSummaries(int count, Integer genreId, Integer year) {
+        return filmStorage.findPopularSummaries(count, genreId, year);
+    }
+
+    /**
+     * @param window длительность окна: {@code 24h}, {@code 7d} или ISO-8601; поддерживаются только настроенные окна
+     */
+    public List<Film> getTrendingFilms(String window, int count) throws ValidationException {
+        if (count <= 0 || count > PageRequests.MAX_PAGE_SIZE) {
+            throw new ValidationException("Количество результатов должно быть от 1 до " + PageRequests.MAX_PAGE_SIZE);
+        }
+        Duration duration;
+        try {
+            duration = DurationStyle.detectAndParse(window);
+        } catch (IllegalArgumentException e) {
+            throw new ValidationException("Некорректное окно популярности: " + window);
+        }
+        List<Duration> windows = filmStorage.getTrendingWindows();
+        if (!windows.contains(duration)) {
+            throw new ValidationException("Окно популярности " + window + " не поддерживается, доступны: " +
+                    windows.stream().map(supported -> supported.toHours() + "h").collect(Collectors.joining(", ")));
+        }
+        return filmStorage.findTrending(duration, count);
+    }
+
+    /**
+     * @param by поля поиска через запятую: {@code title}, {@code description}
+     */
+    public List<Film> search(String query, String by, int count) throws ValidationException {
+        if (count <= 0 || count > PageRequests.MAX_PAGE_SIZE) {
+            throw new ValidationException("Количество результатов должно быть от 1 до " + PageRequests.MAX_PAGE_SIZE);
+        }
+        boolean byTitle = false;
+        boolean byDescription = false;
+        for (String field : by.split(",")) {
+            switch (field.trim()) {
+                case "title" -> byTitle = true;
+                case "description" -> byDescription = true;
+                default -> throw new ValidationException("Неизвестное поле поиска: " + field.trim());
+            }
+        }
+        return filmStorage.search(query, byTitle, byDescription, count);
     }
 
     public Film getFilmOrThrow(int id) throws NotFoundException {
         return Optional.ofNullable(filmStorage.findById(id)).orElseThrow(() -> new NotFoundException("Фильм не найден"));
     }
 
+    public long getFilmVersionOrThrow(int id) throws NotFoundException {
+        return Optional.ofNullable(filmStorage.findVersion(id)).orElseThrow(() -> new NotFoundException("Фильм не найден"));
+    }
+
+    public long getPopularVersion() {
+        return filmStorage.getPopularVersion();
+    }
+
     public User getUserOrThrow(int id) throws NotFoundException {
         return Optional.ofNullable(userStorage.findById(id)).orElseThrow(() -> new NotFoundException("Пользователь не найден"));
     }
@@ -102,6 +177,37 @@ public class FilmService {
         return filmStorage.findAll();
     }
 
+    public List<Film> findPage(int afterId, int limit) throws ValidationException {
+        PageRequests.validate(afterId, limit);
+        return filmStorage.findPage(afterId, limit);
+    }
+
+    /**
+     * @param ids id фильмов через запятую, не больше {@link PageRequests#MAX_PAGE_SIZE}
+     */
+    public BatchLookup<Film> findByIds(String ids) throws ValidationException {
+        List<Integer> requested = BatchLookup.parseIds(ids);
+        return BatchLookup.of(requested, filmStorage.findByIds(requested), Film::getId);
+    }
+
+    public BatchLookup<FilmSummary> findSummariesByIds(String ids) throws ValidationException {
+        List<Integer> requested = BatchLookup.parseIds(ids);
+        return BatchLookup.of(requested, filmStorage.findSummariesByIds(requested), FilmSummary::getId);
+    }
+
+    public Collection<FilmSummary> findAllSummaries() {
+        return filmStorage.findAllSummaries();
+    }
+
+    public List<FilmSummary> findSummaryPage(int afterId, int limit) throws ValidationException {
+        PageRequests.validate(afterId, limit);
+        return filmStorage.findSummaryPage(afterId, limit);
+    }
+
+    public void streamAll(Consumer<Film> consumer) {
+        filmStorage.streamAll(consumer);
+    }
+
     public void delete(int id) {
         filmStorage.delete(id);
     }
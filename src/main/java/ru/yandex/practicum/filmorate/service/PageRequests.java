@@ -0,0 +1,22 @@
+package ru.yandex.practicum.filmorate.service;
+
+import ru.yandex.practicum.filmorate.exception.ValidationException;
+
+/**
+ * Проверка параметров постраничной выборки по ключу (after=&lt;id&gt;&amp;limit=).
+ */
+final class PageRequests {
+    static final int MAX_PAGE_SIZE = 1000;
+
+    private PageRequests() {
+    }
+
+    static void validate(long afterId, int limit) throws ValidationException {
+        if (afterId < 0) {
+            throw new ValidationException("Параметр after не может быть отрицательным");
+        }
+        if (limit < 1 || limit > MAX_PAGE_SIZE) {
+            throw new ValidationException("Параметр limit должен быть от 1 до " + MAX_PAGE_SIZE);
+        }
+    }
+}
@@ -4,19 +4,26 @@ import lombok.extern.slf4j.Slf4j;
 import org.springframework.stereotype.Service;
 import ru.yandex.practicum.filmorate.exception.NotFoundException;
 import ru.yandex.practicum.filmorate.exception.ValidationException;
+import ru.yandex.practicum.filmorate.model.Event;
+import ru.yandex.practicum.filmorate.model.Film;
 import ru.yandex.practicum.filmorate.model.User;
+import ru.yandex.practicum.filmorate.storage.film.FilmStorage;
 import ru.yandex.practicum.filmorate.storage.user.UserStorage;
 
 import java.util.*;
-import java.util.stream.Collectors;
+import java.util.function.Consumer;
 
 @Service
 @Slf4j
 public class UserService {
     private final UserStorage userStorage;
+    private final FilmStorage filmStorage;
+    private final FeedService feedService;
 
-    public UserService(UserStorage userStorage) {
+    public UserService(UserStorage userStorage, FilmStorage filmStorage, FeedService feedService) {
         this.userStorage = userStorage;
+        this.filmStorage = filmStorage;
+        this.feedService = feedService;
     }
 
     public void addFriend(int userId, int friendId) throws NotFoundException, ValidationException {
@@ -30,80 +37,146 @@ public class UserService {
         // Добавляем только одностороннюю дружбу (user -> friend)
         userStorage.addFriend(userId, friendId);
         user.getFriends().add(friendId);
+        feedService.record(userId, Event.EventType.FRIEND, Event.Operation.ADD, friendId);
 
         log.info("Пользователь {} добавил пользователя {} в друзья", userId, friendId);
     }
 
     public List<User> getFriends(int userId) throws NotFoundException {
-        User user = getUserOrThrow(userId);
-        System.out.println("userId=" + userId + ", friends=" + user.getFriends());
-        return user.getFriends().stream()
-                .map(id -> {
-                    try {
-                        return getUserOrThrow(id);
-                    } catch (NotFoundException e) {
-                        return null;
-                    }
-                })
-                .filter(Objects::nonNull)
-                .collect(Collectors.toList());
+        List<User> friends = userStorage.getFriends(userId);
+        if (friends.isEmpty()) {
+            requireUser(userId);
+        }
+        return friends;
     }
 
 
     public boolean removeFriend(int userId, int friendId) throws NotFoundException {
-        User user = getUserOrThrow(userId);
-        User friend = getUserOrThrow(friendId);
-        friend.getFriends().remove(userId);
-        user.getFriends().remove(friendId);
-        userStorage.removeFriend(userId, friendId);
-
-        boolean wasFriends = user.getFriends().remove(friendId);
-
+        getUserOrThrow(userId);
+        getUserOrThrow(friendId);
+        boolean wasFriends = userStorage.removeFriend(userId, friendId);
+        if (wasFriends) {
+            feedService.record(userId, Event.EventType.FRIEND, Event.Operation.REMOVE, friendId);
+        }
         return wasFriends;
     }
 
     public List<User> getCommonFriends(int userId, int otherUserId) throws NotFoundException {
-        User user = getUserOrThrow(userId);
-        User otherUser = getUserOrThrow(otherUserId);
+        List<User> commonFriends = userStorage.getCommonFriends(userId, otherUserId);
+        if (commonFriends.isEmpty()) {
+            requireUser(userId);
+            requireUser(otherUserId);
+        }
+        return commonFriends;
+    }
+
+    public List<User> getFriendSuggestions(int userId, int count) throws NotFoundException, ValidationException {
+        if (count <= 0 || count > PageRequests.MAX_PAGE_SIZE) {
+            throw new ValidationException("Количество предложений должно быть от 1 до " + PageRequests.MAX_PAGE_SIZE);
+        }
+        List<User> users = userStorage.findFriendSuggestions(userId, count);
+        if (users.isEmpty()) {
+            requireUser(userId);
+        }
+        return users;
+    }
+
+    public List<Film> getRecommendations(int userId, int count) throws NotFoundException, ValidationException {
+        if (count <= 0 || count > PageRequests.MAX_PAGE_SIZE) {
+            throw new ValidationException("Количество рекомендаций должно быть от 1 до " + PageRequests.MAX_PAGE_SIZE);
+        }
+        List<Film> films = filmStorage.findRecommended(userId, count);
+        if (films.isEmpty()) {
+            requireUser(userId);
+        }
+        return films;
+    }
+
+    /**
+     * Лента пользователя в порядке событий, страницами по ключу {@code after}.
+     * <p>
+     * Событие, записанное в буфер во время удаления пользователя, может попасть в БД уже после удаления,
+     * поэтому существование пользователя проверяется при каждом запросе.
+     */
+    public List<Event> getFeed(int userId, long afterId, int limit) throws NotFoundException, ValidationException {
+        PageRequests.validate(afterId, limit);
+        requireUser(userId);
+        return feedService.getFeed(userId, afterId, limit);
+    }
 
-        Set<Integer> commonIds = new HashSet<>(user.getFriends());
-        commonIds.retainAll(otherUser.getFriends());
+    /**
+     * Пустой результат join-запроса не отличает пользователя без друзей от несуществующего,
+     * поэтому существование проверяется только в этом случае.
+     */
+    private void requireUser(int id) throws NotFoundException {
+        if (!userStorage.exists(id)) {
+            throw notFound(id);
+        }
+    }
 
-        return commonIds.stream()
-                .map(id -> {
-                    try {
-                        return getUserOrThrow(id);
-                    } catch (NotFoundException e) {
-                        throw new RuntimeException("Общий друг с id=" + id + " не найден", e);
-                    }
-                })
-                .collect(Collectors.toList());
+    public Optional<User> findUser(int id) {
+        return userStorage.find(id);
+    }
+
+    public Optional<Long> findUserVersion(int id) {
+        return Optional.ofNullable(userStorage.findVersion(id));
     }
 
     public User getUserOrThrow(int id) throws NotFoundException {
-        return Optional.ofNullable(userStorage.findById(id))
-                .orElseThrow(() -> new NotFoundException("Пользователь с id=" + id + " не найден"));
+        return findUser(id).orElseThrow(() -> notFound(id));
+    }
+
+    public long getUserVersionOrThrow(int id) throws NotFoundException {
+        return findUserVersion(id).orElseThrow(() -> notFound(id));
+    }
+
+    private static NotFoundException notFound(int id) {
+        return new NotFoundException("Пользователь с id=" + id + " не найден");
     }
 
     public Collection<User> findAll() {
         return userStorage.findAll();
     }
 
+    public List<User> findPage(int afterId, int limit) throws ValidationException {
+        PageRequests.validate(afterId, limit);
+        return userStorage.findPage(afterId, limit);
+    }
+
+    /**
+     * @param ids id пользователей через запятую, не больше {@link PageRequests#MAX_PAGE_SIZE}
+     */
+    public BatchLookup<User> findByIds(String ids) throws ValidationException {
+        List<Integer> requested = BatchLookup.parseIds(ids);
+        return BatchLookup.of(requested, userStorage.findByIds(requested), User::getId);
+    }
+
+    public void streamAll(Consumer<User> consumer) {
+        userStorage.streamAll(consumer);
+    }
+
     public User add(User user) {
         return userStorage.add(user);
     }
 
     public User update(User user) throws NotFoundException {
-        if (user.getId() == null || userStorage.findById(user.getId()) == null) {
+        if (user.getId() == null || !userStorage.exists(user.getId())) {
             throw new NotFoundException("Пользователь не найден");
         }
         return userStorage.update(user);
     }
 
+    /**
+     * События пользователя, ещё не записанные из буфера, дописываются до удаления, чтобы удалиться вместе с ним.
+     * Если записать их не удалось, пользователь всё равно удаляется: ленту удалённого пользователя
+     * {@link #getFeed} не отдаёт, а оставшиеся события допишет фоновый поток.
+     */
     public void delete(int id) throws NotFoundException {
-        User user = userStorage.findById(id);
-        if (user == null) {
-            throw new NotFoundException("Пользователь с id=" + id + " не найден");
+        requireUser(id);
+        try {
+            feedService.flush();
+        } catch (RuntimeException e) {
+            log.warn("Не удалось дописать события ленты перед удалением пользователя с id={}", id, e);
         }
         userStorage.delete(id);
         log.info("Пользователь с id={} удалён", id);
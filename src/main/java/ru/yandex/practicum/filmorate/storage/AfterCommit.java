@@ -0,0 +1,83 @@
+package ru.yandex.practicum.filmorate.storage;
+
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.SingleConnectionDataSource;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+
+/**
+ * Откладывает изменение индексов в памяти до коммита текущей транзакции,
+ * чтобы откат не оставил в них записей, которых нет в БД.
+ * <p>
+ * От начала коммита до конца отложенных действий транзакция держит общую блокировку. Перестройка индекса
+ * берёт её исключительно в {@link #exclusively}: в этот момент каждое закоммиченное изменение
+ * уже применено к индексу, а новые коммиты ждут.
+ */
+public final class AfterCommit {
+    private static final ReentrantReadWriteLock COMMITS = new ReentrantReadWriteLock();
+
+    private AfterCommit() {
+    }
+
+    /**
+     * Вне транзакции изменение уже видно в БД, поэтому действие выполняется сразу. Такие действия
+     * должны быть идемпотентны: перестройка может дочитать изменение из БД до того, как действие применится.
+     */
+    public static void run(Runnable action) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            COMMITS.readLock().lock();
+            try {
+                action.run();
+            } finally {
+                COMMITS.readLock().unlock();
+            }
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            private boolean locked;
+
+            @Override
+            public void beforeCommit(boolean readOnly) {
+                COMMITS.readLock().lock();
+                locked = true;
+            }
+
+            @Override
+            public void afterCommit() {
+                action.run();
+            }
+
+            @Override
+            public void afterCompletion(int status) {
+                if (locked) {
+                    locked = false;
+                    COMMITS.readLock().unlock();
+                }
+            }
+        });
+    }
+
+    /**
+     * Выполняет действие, когда ни одна транзакция не находится между коммитом и своими отложенными
+     * действиями, и не даёт транзакциям коммититься до его окончания. Соединение берётся до блокировки,
+     * поэтому транзакции, ждущие коммита со своими соединениями, не могут занять его место.
+     *
+     * @param action получает JdbcTemplate на этом соединении
+     */
+    public static void exclusively(JdbcTemplate jdbcTemplate, Consumer<JdbcTemplate> action) {
+        jdbcTemplate.execute((ConnectionCallback<Void>) connection -> {
+            JdbcTemplate pinned = new JdbcTemplate(new SingleConnectionDataSource(connection, true));
+            COMMITS.writeLock().lock();
+            try {
+                action.accept(pinned);
+            } finally {
+                COMMITS.writeLock().unlock();
+            }
+            return null;
+        });
+    }
+}
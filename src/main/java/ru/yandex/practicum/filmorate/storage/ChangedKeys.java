@@ -0,0 +1,42 @@
+package ru.yandex.practicum.filmorate.storage;
+
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Id записей, изменённых за время перестройки индекса в памяти.
+ * <p>
+ * Полное чтение таблиц идёт без блокировок, и изменение, закоммиченное во время него, могло попасть
+ * в прочитанное, а могло и нет. Поэтому отложенные действия индекса отмечают здесь затронутые id,
+ * а перестройка в конце перечитывает эти записи в {@link AfterCommit#exclusively} и только потом
+ * подменяет состояние: изменение не теряется и не учитывается дважды.
+ */
+public final class ChangedKeys {
+    private volatile Set<Integer> keys;
+
+    /**
+     * Начинает отмечать изменения; вызывается до первого запроса перестройки.
+     */
+    public void start() {
+        keys = ConcurrentHashMap.newKeySet();
+    }
+
+    public void add(int key) {
+        Set<Integer> current = keys;
+        if (current != null) {
+            current.add(key);
+        }
+    }
+
+    /**
+     * Перестаёт отмечать изменения. Повторный вызов, например после ошибки перестройки, возвращает пустой список.
+     *
+     * @return отмеченные id по возрастанию
+     */
+    public List<Integer> finish() {
+        Set<Integer> current = keys;
+        keys = null;
+        return current == null ? List.of() : current.stream().sorted().toList();
+    }
+}
@@ -0,0 +1,264 @@
+package ru.yandex.practicum.filmorate.storage;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import io.micrometer.core.instrument.binder.cache.CacheMeterBinder;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import java.util.function.IntFunction;
+import java.util.function.ToIntFunction;
+import java.util.function.UnaryOperator;
+
+/**
+ * Кэш сущностей по id перед чтением из БД, ограниченный числом записей и суммарным весом.
+ * <p>
+ * Записи разнесены по полосам со своими блокировками. Полоса - LinkedHashMap в порядке доступа
+ * со своей долей обоих лимитов: при переполнении вытесняются записи, которые дольше всех не читались.
+ * Кэш хранит собственные копии сущностей и отдаёт копии, поэтому изменение полученного объекта его не портит.
+ * <p>
+ * Транзакция может откатиться, поэтому внутри неё кэш не читается и не пополняется, а сброс записей
+ * откладывается до коммита. Каждый сброс увеличивает поколение полосы, и загруженное из БД значение
+ * кладётся в кэш, только если поколение за время загрузки не изменилось: так чтение, начатое до записи,
+ * не вернёт в кэш устаревшую сущность.
+ */
+public class EntityCache<V> implements MeterBinder {
+    private static final int STRIPES = 16;
+    private final String name;
+    private final boolean enabled;
+    private final int maxSize;
+    private final long maxWeight;
+    private final UnaryOperator<V> copier;
+    private final ToIntFunction<V> weigher;
+    private final Stripe<V>[] stripes;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder puts = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    private static final class Stripe<V> {
+        final LinkedHashMap<Integer, Entry<V>> entries = new LinkedHashMap<>(16, 0.75f, true);
+        long weight;
+        long generation;
+    }
+
+    private record Entry<V>(V value, int weight) {
+    }
+
+    /**
+     * @param maxSize   наибольшее число записей, 0 - кэш выключен
+     * @param maxWeight наибольший суммарный вес записей
+     * @param copier    глубокая копия сущности
+     * @param weigher   вес сущности, примерно пропорциональный занимаемой памяти
+     */
+    @SuppressWarnings("unchecked")
+    public EntityCache(String name, int maxSize, long maxWeight, UnaryOperator<V> copier, ToIntFunction<V> weigher) {
+        this.name = name;
+        this.enabled = maxSize > 0 && maxWeight > 0;
+        this.maxSize = Math.max(1, maxSize / STRIPES);
+        this.maxWeight = Math.max(1, maxWeight / STRIPES);
+        this.copier = copier;
+        this.weigher = weigher;
+        this.stripes = new Stripe[STRIPES];
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new Stripe<>();
+        }
+    }
+
+    /**
+     * @param loader читает сущность из БД, возвращает {@code null}, если её нет; отсутствие не кэшируется
+     */
+    public V get(int id, IntFunction<V> loader) {
+        if (!enabled || TransactionSynchronizationManager.isActualTransactionActive()) {
+            return loader.apply(id);
+        }
+        Stripe<V> stripe = stripe(id);
+        Entry<V> entry;
+        long generation;
+        synchronized (stripe) {
+            entry = stripe.entries.get(id);
+            generation = stripe.generation;
+        }
+        if (entry != null) {
+            // Закэшированная копия не изменяется, поэтому копируется вне блокировки
+            hits.increment();
+            return copier.apply(entry.value());
+        }
+        misses.increment();
+        V loaded = loader.apply(id);
+        if (loaded != null) {
+            put(stripe, id, copier.apply(loaded), generation);
+        }
+        return loaded;
+    }
+
+    /**
+     * Пакетный вариант {@link #get}: промахи загружаются одним вызовом {@code loader}.
+     *
+     * @param loader читает сущности по списку id, отсутствующие пропускает
+     * @return найденные сущности по id
+     */
+    public Map<Integer, V> getAll(Collection<Integer> ids, Function<List<Integer>, List<V>> loader,
+                                  ToIntFunction<V> idOf) {
+        Map<Integer, V> result = new HashMap<>(ids.size() * 2);
+        if (!enabled || TransactionSynchronizationManager.isActualTransactionActive()) {
+            loader.apply(List.copyOf(ids)).forEach(value -> result.put(idOf.applyAsInt(value), value));
+            return result;
+        }
+        List<Integer> missing = new ArrayList<>();
+        Map<Integer, Long> generations = new HashMap<>();
+        for (Integer id : ids) {
+            Stripe<V> stripe = stripe(id);
+            Entry<V> entry;
+            long generation;
+            synchronized (stripe) {
+                entry = stripe.entries.get(id);
+                generation = stripe.generation;
+            }
+            if (entry != null) {
+                hits.increment();
+                result.put(id, copier.apply(entry.value()));
+            } else {
+                misses.increment();
+                missing.add(id);
+                generations.put(id, generation);
+            }
+        }
+        if (!missing.isEmpty()) {
+            for (V loaded : loader.apply(missing)) {
+                int id = idOf.applyAsInt(loaded);
+                result.put(id, loaded);
+                put(stripe(id), id, copier.apply(loaded), generations.get(id));
+            }
+        }
+        return result;
+    }
+
+    private void put(Stripe<V> stripe, int id, V value, long generation) {
+        int weight = weigher.applyAsInt(value);
+        synchronized (stripe) {
+            if (stripe.generation != generation) {
+                return;
+            }
+            Entry<V> previous = stripe.entries.put(id, new Entry<>(value, weight));
+            stripe.weight += weight - (previous != null ? previous.weight() : 0);
+            puts.increment();
+            Iterator<Entry<V>> eldest = stripe.entries.values().iterator();
+            while (stripe.entries.size() > maxSize || stripe.weight > maxWeight) {
+                stripe.weight -= eldest.next().weight();
+                eldest.remove();
+                evictions.increment();
+            }
+        }
+    }
+
+    public void invalidate(int id) {
+        AfterCommit.run(() -> evict(id));
+    }
+
+    public void invalidateAll(Collection<Integer> ids) {
+        if (!ids.isEmpty()) {
+            AfterCommit.run(() -> ids.forEach(this::evict));
+        }
+    }
+
+    /**
+     * Сбрасывает весь кэш сразу, без ожидания коммита: вызывается после записей в обход хранилища.
+     */
+    public void clear() {
+        for (Stripe<V> stripe : stripes) {
+            synchronized (stripe) {
+                stripe.generation++;
+                stripe.entries.clear();
+                stripe.weight = 0;
+            }
+        }
+    }
+
+    private void evict(int id) {
+        Stripe<V> stripe = stripe(id);
+        synchronized (stripe) {
+            stripe.generation++;
+            Entry<V> entry = stripe.entries.remove(id);
+            if (entry != null) {
+                stripe.weight -= entry.weight();
+            }
+        }
+    }
+
+    private Stripe<V> stripe(int id) {
+        return stripes[id & (STRIPES - 1)];
+    }
+
+    public long size() {
+        long size = 0;
+        for (Stripe<V> stripe : stripes) {
+            synchronized (stripe) {
+                size += stripe.entries.size();
+            }
+        }
+        return size;
+    }
+
+    public long weight() {
+        long weight = 0;
+        for (Stripe<V> stripe : stripes) {
+            synchronized (stripe) {
+                weight += stripe.weight;
+            }
+        }
+        return weight;
+    }
+
+    /**
+     * Стандартные метрики кэша Micrometer ({@code cache.gets}, {@code cache.puts}, {@code cache.evictions},
+     * {@code cache.size}) с тегом {@code cache} и суммарный вес записей {@code cache.weight}.
+     */
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        new CacheMeterBinder<>(this, name, Tags.empty()) {
+            @Override
+            protected Long size() {
+                return EntityCache.this.size();
+            }
+
+            @Override
+            protected long hitCount() {
+                return hits.sum();
+            }
+
+            @Override
+            protected Long missCount() {
+                return misses.sum();
+            }
+
+            @Override
+            protected Long evictionCount() {
+                return evictions.sum();
+            }
+
+            @Override
+            protected long putCount() {
+                return puts.sum();
+            }
+
+            @Override
+            protected void bindImplementationSpecificMetrics(MeterRegistry registry) {
+                Gauge.builder("cache.weight", EntityCache.this, EntityCache::weight)
+                        .tags(getTagsWithCacheName())
+                        .description("Суммарный вес записей кэша")
+                        .register(registry);
+            }
+        }.bindTo(registry);
+    }
+}
@@ -0,0 +1,48 @@
+package ru.yandex.practicum.filmorate.storage.event;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+import ru.yandex.practicum.filmorate.model.Event;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.List;
+
+@Repository
+public class EventDbStorage implements EventStorage {
+    private final JdbcTemplate jdbcTemplate;
+    private final int batchSize;
+
+    public EventDbStorage(JdbcTemplate jdbcTemplate, @Value("${filmorate.jdbc.batch-size:500}") int batchSize) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.batchSize = batchSize;
+    }
+
+    @Override
+    public void addAll(List<Event> events) {
+        jdbcTemplate.batchUpdate("INSERT INTO events (user_id, event_type, operation, entity_id, event_timestamp) " +
+                "VALUES (?, ?, ?, ?, ?)", events, batchSize, (ps, event) -> {
+            ps.setInt(1, event.getUserId());
+            ps.setString(2, event.getEventType().name());
+            ps.setString(3, event.getOperation().name());
+            ps.setInt(4, event.getEntityId());
+            ps.setLong(5, event.getTimestamp());
+        });
+    }
+
+    @Override
+    public List<Event> findPage(int userId, long afterId, int limit) {
+        String sql = "SELECT * FROM events WHERE user_id = ? AND event_id > ? ORDER BY event_id LIMIT ?";
+        return jdbcTemplate.query(sql, this::mapRowToEvent, userId, afterId, limit);
+    }
+
+    private Event mapRowToEvent(ResultSet rs, int rowNum) throws SQLException {
+        return new Event(rs.getLong("event_id"),
+                rs.getLong("event_timestamp"),
+                rs.getInt("user_id"),
+                Event.EventType.valueOf(rs.getString("event_type")),
+                Event.Operation.valueOf(rs.getString("operation")),
+                rs.getInt("entity_id"));
+    }
+}
@@ -0,0 +1,17 @@
+package ru.yandex.practicum.filmorate.storage.event;
+
+import ru.yandex.practicum.filmorate.model.Event;
+
+import java.util.List;
+
+public interface EventStorage {
+    /**
+     * Дописывает события в журнал одним пакетом; id событий растут в порядке списка.
+     */
+    void addAll(List<Event> events);
+
+    /**
+     * @return события пользователя с id больше {@code afterId} по возрастанию id
+     */
+    List<Event> findPage(int userId, long afterId, int limit);
+}
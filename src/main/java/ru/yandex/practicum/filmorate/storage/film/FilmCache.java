@@ -0,0 +1,30 @@
+package ru.yandex.practicum.filmorate.storage.film;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import ru.yandex.practicum.filmorate.model.Film;
+import ru.yandex.practicum.filmorate.model.Mpa;
+import ru.yandex.practicum.filmorate.storage.EntityCache;
+
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+
+/**
+ * Кэш фильмов для {@link FilmDbStorage#findById}. Вес фильма растёт с числом лайков и жанров,
+ * поэтому популярные фильмы занимают в лимите веса столько, сколько в памяти.
+ */
+@Component
+public class FilmCache extends EntityCache<Film> {
+
+    public FilmCache(@Value("${filmorate.cache.films.max-size:10000}") int maxSize,
+                     @Value("${filmorate.cache.films.max-weight:1000000}") long maxWeight) {
+        super("films", maxSize, maxWeight, FilmCache::copyOf,
+                film -> 1 + film.getLikes().size() + film.getGenres().size());
+    }
+
+    private static Film copyOf(Film film) {
+        Mpa mpa = film.getMpa() != null ? new Mpa(film.getMpa().getName(), film.getMpa().getId()) : null;
+        return new Film(film.getId(), film.getName(), film.getDescription(), film.getReleaseDate(), film.getDuration(),
+                new HashSet<>(film.getLikes()), new LinkedHashSet<>(film.getGenres()), mpa);
+    }
+}
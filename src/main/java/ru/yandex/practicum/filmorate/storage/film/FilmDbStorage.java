@@ -1,45 +1,83 @@
 package ru.yandex.practicum.filmorate.storage.film;
 
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Primary;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.jdbc.core.BatchPreparedStatementSetter;
 import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.jdbc.core.RowMapper;
 import org.springframework.jdbc.support.GeneratedKeyHolder;
 import org.springframework.jdbc.support.KeyHolder;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
 import ru.yandex.practicum.filmorate.model.Film;
+import ru.yandex.practicum.filmorate.model.FilmSummary;
 import ru.yandex.practicum.filmorate.model.Genre;
+import ru.yandex.practicum.filmorate.model.Like;
 import ru.yandex.practicum.filmorate.model.Mpa;
 
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.Duration;
 import java.util.*;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.IntFunction;
 
+@Slf4j
 @Repository
 @Qualifier("filmDbStorage")
 @Primary
 public class FilmDbStorage implements FilmStorage {
+    // LEFT JOIN не даёт оптимизатору сделать mpa ведущей таблицей: иначе сортировка по индексу films не используется
+    private static final String FILM_SELECT = "SELECT f.*, m.name AS mpa_name FROM films f LEFT JOIN mpa m ON f.mpa_id = m.id";
+    private static final int HYDRATION_CHUNK_SIZE = 1000;
+    private static final String INSERT_FILM = "INSERT INTO films (name, description, release_date, duration, mpa_id) " +
+            "VALUES (?, ?, ?, ?, ?)";
+    private static final String NEXT_VERSION = "version = NEXT VALUE FOR entity_version";
     private final JdbcTemplate jdbcTemplate;
+    private final int batchSize;
+    private final LikesGraph likesGraph;
+    private final FilmRankings filmRankings;
+    private final FilmSearchIndex filmSearchIndex;
+    private final WriteBehindLikes writeBehindLikes;
+    private final FilmCache filmCache;
+    private final FilmTrends filmTrends;
+    private final TransactionTemplate transactionTemplate;
 
     @Autowired
-    public FilmDbStorage(JdbcTemplate jdbcTemplate) {
+    public FilmDbStorage(JdbcTemplate jdbcTemplate, @Value("${filmorate.jdbc.batch-size:500}") int batchSize,
+                         LikesGraph likesGraph, FilmRankings filmRankings, FilmSearchIndex filmSearchIndex,
+                         WriteBehindLikes writeBehindLikes, FilmCache filmCache, FilmTrends filmTrends,
+                         PlatformTransactionManager transactionManager) {
         this.jdbcTemplate = jdbcTemplate;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.batchSize = batchSize;
+        this.likesGraph = likesGraph;
+        this.filmRankings = filmRankings;
+        this.filmSearchIndex = filmSearchIndex;
+        this.writeBehindLikes = writeBehindLikes;
+        this.filmCache = filmCache;
+        this.filmTrends = filmTrends;
     }
 
     @Override
+    @Transactional
     public Film add(Film film) {
-        String sql = "INSERT INTO films (name, description, release_date, duration, mpa_id) " +
-                "VALUES (?, ?, ?, ?, ?)";
-
         KeyHolder keyHolder = new GeneratedKeyHolder();
         jdbcTemplate.update(connection -> {
-            PreparedStatement ps = connection.prepareStatement(sql, new String[]{"film_id"});
-            ps.setString(1, film.getName());
-            ps.setString(2, film.getDescription());
-            ps.setDate(3, java.sql.Date.valueOf(film.getReleaseDate()));
-            ps.setInt(4, film.getDuration());
-            ps.setInt(5, film.getMpa().getId());
+            PreparedStatement ps = connection.prepareStatement(INSERT_FILM, new String[]{"film_id"});
+            setFilmColumns(ps, film, 1);
             return ps;
         }, keyHolder);
 
@@ -47,85 +85,495 @@ public class FilmDbStorage implements FilmStorage {
         film.setId(filmId);
 
         if (film.getGenres() != null && !film.getGenres().isEmpty()) {
-            updateFilmGenres(film);
+            addFilmGenres(film);
         }
+        filmRankings.put(filmId, film.getReleaseDate().getYear(), genreIds(film));
+        filmSearchIndex.put(filmId, film.getName(), film.getDescription());
 
         return findById(filmId);
     }
 
+    private static void setFilmColumns(PreparedStatement ps, Film film, int from) throws SQLException {
+        ps.setString(from, film.getName());
+        ps.setString(from + 1, film.getDescription());
+        ps.setDate(from + 2, java.sql.Date.valueOf(film.getReleaseDate()));
+        ps.setInt(from + 3, film.getDuration());
+        ps.setInt(from + 4, film.getMpa().getId());
+    }
+
+    /**
+     * Пакетная вставка для загрузки выгрузок: фильмы с id сохраняют его, остальные получают id из последовательности.
+     * Лайки фильмов не записываются, а индексы и кэш в памяти не обновляются - после загрузки вызывается {@link #afterBulkLoad()}.
+     */
     @Override
-    public Film update(Film film) {
-        String sql = "UPDATE films SET name = ?, description = ?, release_date = ?, duration = ?, mpa_id = ? " + "WHERE film_id = ?";
-        jdbcTemplate.update(sql, film.getName(), film.getDescription(), film.getReleaseDate(), film.getDuration(), film.getMpa().getId(), film.getId());
+    public void addAll(List<Film> films) {
+        List<Film> withId = films.stream().filter(film -> film.getId() != null).toList();
+        List<Film> withoutId = films.stream().filter(film -> film.getId() == null).toList();
+        jdbcTemplate.batchUpdate("INSERT INTO films (film_id, name, description, release_date, duration, mpa_id) " +
+                "VALUES (?, ?, ?, ?, ?, ?)", withId, batchSize, (ps, film) -> {
+            ps.setInt(1, film.getId());
+            setFilmColumns(ps, film, 2);
+        });
+        if (!withoutId.isEmpty()) {
+            KeyHolder keyHolder = new GeneratedKeyHolder();
+            jdbcTemplate.batchUpdate(connection -> connection.prepareStatement(INSERT_FILM, new String[]{"film_id"}),
+                    new BatchPreparedStatementSetter() {
+                        @Override
+                        public void setValues(PreparedStatement ps, int i) throws SQLException {
+                            setFilmColumns(ps, withoutId.get(i), 1);
+                        }
 
-        jdbcTemplate.update("DELETE FROM film_genre WHERE film_id = ?", film.getId());
-        if (film.getGenres() != null && !film.getGenres().isEmpty()) {
-            updateFilmGenres(film);
+                        @Override
+                        public int getBatchSize() {
+                            return withoutId.size();
+                        }
+                    }, keyHolder);
+            List<Map<String, Object>> keys = keyHolder.getKeyList();
+            for (int i = 0; i < withoutId.size(); i++) {
+                withoutId.get(i).setId(((Number) keys.get(i).values().iterator().next()).intValue());
+            }
         }
 
-        updateFilmLikes(film);
-
-        return findById(film.getId());
+        List<int[]> genres = new ArrayList<>();
+        for (Film film : films) {
+            genreIds(film).forEach(genreId -> genres.add(new int[]{film.getId(), genreId}));
+        }
+        jdbcTemplate.batchUpdate("INSERT INTO film_genre (film_id, genre_id) VALUES (?, ?)", genres, batchSize,
+                (ps, row) -> {
+                    ps.setInt(1, row[0]);
+                    ps.setInt(2, row[1]);
+                });
     }
 
-    private void updateFilmLikes(Film film) {
-        jdbcTemplate.update("DELETE FROM likes WHERE film_id = ?", film.getId());
+    /**
+     * Повторная загрузка того же лайка не считается ошибкой.
+     */
+    @Override
+    public void addLikes(List<Like> likes) {
+        jdbcTemplate.batchUpdate("MERGE INTO likes (film_id, user_id) KEY (film_id, user_id) VALUES (?, ?)",
+                likes, batchSize, (ps, like) -> {
+                    ps.setInt(1, like.getFilmId());
+                    ps.setInt(2, like.getUserId());
+                });
+        List<Integer> filmIds = likes.stream().map(Like::getFilmId).distinct().toList();
+        jdbcTemplate.batchUpdate("UPDATE films SET " + NEXT_VERSION + " WHERE film_id = ?", filmIds, batchSize,
+                (ps, filmId) -> ps.setInt(1, filmId));
+    }
 
-        if (film.getLikes() != null && !film.getLikes().isEmpty()) {
-            String sql = "INSERT INTO likes (film_id, user_id) VALUES (?, ?)";
-            for (Integer userId : film.getLikes()) {
-                jdbcTemplate.update(sql, film.getId(), userId);
+    /**
+     * Читает лайки страницами по ключу (film_id, user_id): каждая страница - короткий запрос по первичному ключу.
+     */
+    @Override
+    public void streamLikes(Consumer<Like> consumer) {
+        String sql = "SELECT film_id, user_id FROM likes WHERE (film_id, user_id) > (?, ?) ORDER BY film_id, user_id LIMIT ?";
+        Like last = new Like(Integer.MIN_VALUE, Integer.MIN_VALUE);
+        List<Like> page;
+        do {
+            page = jdbcTemplate.query(sql, (rs, rowNum) -> new Like(rs.getInt("film_id"), rs.getInt("user_id")),
+                    last.getFilmId(), last.getUserId(), HYDRATION_CHUNK_SIZE);
+            page.forEach(consumer);
+            if (!page.isEmpty()) {
+                last = page.get(page.size() - 1);
             }
+        } while (page.size() == HYDRATION_CHUNK_SIZE);
+    }
+
+    /**
+     * Сдвигает последовательность id за загруженные явно id, сверяет счётчики лайков,
+     * перестраивает индексы в памяти и сбрасывает кэш фильмов: пакетная загрузка их не обновляет.
+     */
+    @Override
+    public void afterBulkLoad() {
+        writeBehindLikes.flush();
+        filmCache.clear();
+        Integer nextId = jdbcTemplate.queryForObject("SELECT COALESCE(MAX(film_id), 0) + 1 FROM films", Integer.class);
+        jdbcTemplate.execute("ALTER TABLE films ALTER COLUMN film_id RESTART WITH " + nextId);
+        rebuildPopularity();
+        likesGraph.rebuild();
+        filmTrends.rebuild();
+        filmSearchIndex.rebuild();
+    }
+
+    /**
+     * Отложенные лайки записываются до обновления, чтобы сверка лайков фильма шла с полным набором.
+     * Запись идёт в своей транзакции до транзакции обновления, так что два соединения сразу не нужны.
+     */
+    @Override
+    public Film update(Film film) {
+        writeBehindLikes.flush();
+        return transactionTemplate.execute(status -> {
+            String sql = "UPDATE films SET name = ?, description = ?, release_date = ?, duration = ?, mpa_id = ?, " +
+                    NEXT_VERSION + " WHERE film_id = ?";
+            jdbcTemplate.update(sql, film.getName(), film.getDescription(), film.getReleaseDate(), film.getDuration(), film.getMpa().getId(), film.getId());
+
+            syncFilmGenres(film);
+            syncFilmLikes(film);
+            filmCache.invalidate(film.getId());
+            filmRankings.put(film.getId(), film.getReleaseDate().getYear(), genreIds(film));
+            filmSearchIndex.put(film.getId(), film.getName(), film.getDescription());
+
+            return findById(film.getId());
+        });
+    }
+
+    /**
+     * Приводит жанры фильма в БД к переданному набору, записывая только изменившиеся строки.
+     */
+    private void syncFilmGenres(Film film) {
+        Set<Integer> stored = new HashSet<>(jdbcTemplate.queryForList(
+                "SELECT genre_id FROM film_genre WHERE film_id = ?", Integer.class, film.getId()));
+        Set<Integer> incoming = genreIds(film);
+        batchUpdate("DELETE FROM film_genre WHERE film_id = ? AND genre_id = ?", film.getId(), difference(stored, incoming));
+        batchUpdate("INSERT INTO film_genre (film_id, genre_id) VALUES (?, ?)", film.getId(), difference(incoming, stored));
+    }
+
+    /**
+     * Приводит лайки фильма в БД к переданному набору, записывая только изменившиеся строки.
+     */
+    private void syncFilmLikes(Film film) {
+        Map<Integer, Long> stored = new HashMap<>();
+        jdbcTemplate.query("SELECT user_id, created_at FROM likes WHERE film_id = ?", (RowCallbackHandler) rs ->
+                stored.put(rs.getInt("user_id"), rs.getTimestamp("created_at").getTime()), film.getId());
+        Set<Integer> incoming = film.getLikes() != null ? film.getLikes() : Set.of();
+        List<Integer> removed = difference(stored.keySet(), incoming);
+        List<Integer> added = difference(incoming, stored.keySet());
+        if (removed.isEmpty() && added.isEmpty()) {
+            return;
+        }
+        long now = filmTrends.now();
+        batchUpdate("DELETE FROM likes WHERE film_id = ? AND user_id = ?", film.getId(), removed);
+        if (!added.isEmpty()) {
+            jdbcTemplate.batchUpdate("INSERT INTO likes (film_id, user_id, created_at) VALUES (?, ?, ?)", added, batchSize,
+                    (ps, userId) -> {
+                        ps.setInt(1, film.getId());
+                        ps.setInt(2, userId);
+                        ps.setTimestamp(3, new Timestamp(now));
+                    });
+        }
+        jdbcTemplate.update("UPDATE films SET likes_count = likes_count + ? WHERE film_id = ?",
+                added.size() - removed.size(), film.getId());
+        filmRankings.changeLikes(film.getId(), added.size() - removed.size());
+        removed.forEach(userId -> {
+            likesGraph.removeLike(film.getId(), userId);
+            filmTrends.removeLike(film.getId(), stored.get(userId));
+        });
+        added.forEach(userId -> {
+            likesGraph.addLike(film.getId(), userId);
+            filmTrends.addLike(film.getId(), now);
+        });
+    }
+
+    private static Set<Integer> genreIds(Film film) {
+        Set<Integer> ids = new LinkedHashSet<>();
+        if (film.getGenres() != null) {
+            film.getGenres().forEach(genre -> ids.add(genre.getId()));
         }
+        return ids;
     }
 
-    private void updateFilmGenres(Film film) {
-        String sql = "INSERT INTO film_genre (film_id, genre_id) VALUES (?, ?)";
-        for (Genre genre : film.getGenres()) {
-            jdbcTemplate.update(sql, film.getId(), genre.getId());
+    private void addFilmGenres(Film film) {
+        List<Integer> genreIds = film.getGenres().stream()
+                .map(Genre::getId)
+                .distinct()
+                .toList();
+        batchUpdate("INSERT INTO film_genre (film_id, genre_id) VALUES (?, ?)", film.getId(), genreIds);
+    }
+
+    private void batchUpdate(String sql, int filmId, Collection<Integer> ids) {
+        if (ids.isEmpty()) {
+            return;
         }
+        jdbcTemplate.batchUpdate(sql, ids, batchSize, (ps, id) -> {
+            ps.setInt(1, filmId);
+            ps.setInt(2, id);
+        });
+    }
+
+    private static List<Integer> difference(Set<Integer> from, Set<Integer> subtract) {
+        List<Integer> result = new ArrayList<>();
+        for (Integer id : from) {
+            if (!subtract.contains(id)) {
+                result.add(id);
+            }
+        }
+        return result;
     }
 
     @Override
+    @Transactional
     public void delete(int id) {
         jdbcTemplate.update("DELETE FROM films WHERE film_id = ?", id);
+        filmCache.invalidate(id);
+        likesGraph.removeFilm(id);
+        filmRankings.remove(id);
+        filmTrends.removeFilm(id);
+        filmSearchIndex.remove(id);
+    }
+
+    @Override
+    public Long findVersion(int id) {
+        List<Long> versions = jdbcTemplate.queryForList("SELECT version FROM films WHERE film_id = ?", Long.class, id);
+        return versions.isEmpty() ? null : versions.get(0);
+    }
+
+    @Override
+    public long getPopularVersion() {
+        return filmRankings.version();
     }
 
     @Override
     public Film findById(int id) {
-        String sql = "SELECT f.*, m.name AS mpa_name FROM films f JOIN mpa m ON f.mpa_id = m.id WHERE f.film_id = ?";
+        return filmCache.get(id, this::loadById);
+    }
+
+    private Film loadById(int id) {
+        String sql = FILM_SELECT + " WHERE f.film_id = ?";
         List<Film> films = jdbcTemplate.query(sql, this::mapRowToFilm, id);
         if (films.isEmpty()) {
             return null;
         }
-        Film film = films.get(0);
-        loadGenresForFilm(film);
-        loadLikesForFilm(film);
-        return film;
+        hydrate(films);
+        return films.get(0);
     }
 
     @Override
     public Collection<Film> findAll() {
-        String sql = "SELECT f.*, m.name AS mpa_name FROM films f JOIN mpa m ON f.mpa_id = m.id";
-        List<Film> films = jdbcTemplate.query(sql, this::mapRowToFilm);
-        films.forEach(film -> {
-            loadGenresForFilm(film);
-            loadLikesForFilm(film);
-        });
+        List<Film> films = jdbcTemplate.query(FILM_SELECT, this::mapRowToFilm);
+        hydrateAll(films);
+        return films;
+    }
+
+    @Override
+    public List<Film> findPage(int afterId, int limit) {
+        String sql = FILM_SELECT + " WHERE f.film_id > ? ORDER BY f.film_id LIMIT ?";
+        List<Film> films = jdbcTemplate.query(sql, this::mapRowToFilm, afterId, limit);
+        hydrate(films);
+        return films;
+    }
+
+    /**
+     * Фильмы берутся из кэша, промахи читаются вместе с жанрами и лайками тремя запросами
+     * на пачку по {@link #HYDRATION_CHUNK_SIZE} id.
+     */
+    @Override
+    public List<Film> findByIds(List<Integer> ids) {
+        Map<Integer, Film> filmsById = filmCache.getAll(ids, this::findAllById, Film::getId);
+        return ids.stream().map(filmsById::get).filter(Objects::nonNull).toList();
+    }
+
+    /**
+     * Читает фильмы страницами по ключу ({@link #findPage}) по {@link #HYDRATION_CHUNK_SIZE}, так что в памяти
+     * одновременно находится не больше одной страницы. Курсор с fetchSize этого не даёт: H2 без
+     * LAZY_QUERY_EXECUTION строит весь результат запроса в памяти. Соединение занято только на время страницы.
+     */
+    @Override
+    public void streamAll(Consumer<Film> consumer) {
+        int afterId = Integer.MIN_VALUE;
+        List<Film> page;
+        do {
+            page = findPage(afterId, HYDRATION_CHUNK_SIZE);
+            page.forEach(consumer);
+            if (!page.isEmpty()) {
+                afterId = page.get(page.size() - 1).getId();
+            }
+        } while (page.size() == HYDRATION_CHUNK_SIZE);
+    }
+
+    @Override
+    public List<Film> findPopular(int count) {
+        String sql = FILM_SELECT + " ORDER BY f.likes_count DESC, f.film_id LIMIT ?";
+        List<Film> films = jdbcTemplate.query(sql, this::mapRowToFilm, count);
+        hydrate(films);
         return films;
     }
 
+    /**
+     * Без фильтров фильмы читаются из БД по индексу популярности, с фильтрами - по рейтингу среза в памяти.
+     */
+    @Override
+    public List<Film> findPopular(int count, Integer genreId, Integer year) {
+        if (genreId == null && year == null) {
+            return findPopular(count);
+        }
+        return findAllById(filmRankings.top(count, genreId, year));
+    }
+
+    @Override
+    public Collection<FilmSummary> findAllSummaries() {
+        List<FilmSummary> films = jdbcTemplate.query(FILM_SELECT, this::mapRowToSummary);
+        if (!films.isEmpty()) {
+            loadGenres(summaryGenres(films), "");
+        }
+        return films;
+    }
 
     @Override
-    public void addLike(int filmId, int userId) {
-        String sql = "INSERT INTO likes (film_id, user_id) VALUES (?, ?)";
-        jdbcTemplate.update(sql, filmId, userId);
+    public List<FilmSummary> findSummaryPage(int afterId, int limit) {
+        String sql = FILM_SELECT + " WHERE f.film_id > ? ORDER BY f.film_id LIMIT ?";
+        List<FilmSummary> films = jdbcTemplate.query(sql, this::mapRowToSummary, afterId, limit);
+        hydrateSummaries(films);
+        return films;
     }
 
     @Override
-    public void removeLike(int filmId, int userId) {
-        String sql = "DELETE FROM likes WHERE film_id = ? AND user_id = ?";
-        jdbcTemplate.update(sql, filmId, userId);
+    public List<FilmSummary> findSummariesByIds(List<Integer> ids) {
+        List<FilmSummary> films = findAllById(ids, this::mapRowToSummary, FilmSummary::getId);
+        hydrateSummaries(films);
+        return films;
+    }
+
+    /**
+     * Выбирает фильмы так же, как {@link #findPopular(int, Integer, Integer)}, но без чтения лайков.
+     */
+    @Override
+    public List<FilmSummary> findPopularSummaries(int count, Integer genreId, Integer year) {
+        List<FilmSummary> films;
+        if (genreId == null && year == null) {
+            String sql = FILM_SELECT + " ORDER BY f.likes_count DESC, f.film_id LIMIT ?";
+            films = jdbcTemplate.query(sql, this::mapRowToSummary, count);
+        } else {
+            films = findAllById(filmRankings.top(count, genreId, year), this::mapRowToSummary, FilmSummary::getId);
+        }
+        hydrateSummaries(films);
+        return films;
+    }
+
+    /**
+     * Фильмы выбираются по окнам популярности в памяти, из БД читаются только сами фильмы.
+     */
+    @Override
+    public List<Film> findTrending(Duration window, int count) {
+        return findAllById(filmTrends.top(window, count));
+    }
+
+    @Override
+    public List<Duration> getTrendingWindows() {
+        return filmTrends.windows();
+    }
+
+    /**
+     * Поиск идёт по индексу в памяти, при равной релевантности выше фильмы с большим числом лайков.
+     */
+    @Override
+    public List<Film> search(String query, boolean byTitle, boolean byDescription, int count) {
+        return findAllById(filmSearchIndex.search(query, byTitle, byDescription, count, filmRankings::likes));
+    }
+
+    /**
+     * Рекомендации считаются по графу лайков в памяти, из БД читаются только сами фильмы.
+     */
+    @Override
+    public List<Film> findRecommended(int userId, int count) {
+        return findAllById(likesGraph.recommend(userId, count));
+    }
+
+    private List<Film> findAllById(List<Integer> ids) {
+        List<Film> films = findAllById(ids, this::mapRowToFilm, Film::getId);
+        hydrate(films);
+        return films;
+    }
+
+    /**
+     * Загружает фильмы по списку id одним запросом на пачку и возвращает их в порядке списка, без жанров и лайков.
+     */
+    private <T> List<T> findAllById(List<Integer> ids, RowMapper<T> mapper, Function<T, Integer> idOf) {
+        Map<Integer, T> filmsById = new HashMap<>(ids.size() * 2);
+        for (int from = 0; from < ids.size(); from += HYDRATION_CHUNK_SIZE) {
+            Object[] chunk = ids.subList(from, Math.min(from + HYDRATION_CHUNK_SIZE, ids.size())).toArray();
+            String sql = FILM_SELECT + " WHERE f.film_id IN (" + String.join(", ", Collections.nCopies(chunk.length, "?")) + ")";
+            jdbcTemplate.query(sql, (RowCallbackHandler) rs -> {
+                T film = mapper.mapRow(rs, rs.getRow());
+                filmsById.put(idOf.apply(film), film);
+            }, chunk);
+        }
+        List<T> films = new ArrayList<>(filmsById.size());
+        for (Integer id : ids) {
+            T film = filmsById.get(id);
+            if (film != null) {
+                films.add(film);
+            }
+        }
+        return films;
+    }
+
+    /**
+     * Сверяет счётчики лайков в films с таблицей likes, исправляет расхождения
+     * и заново строит по ним рейтинги популярности.
+     *
+     * @return количество исправленных фильмов
+     */
+    @PostConstruct
+    public int rebuildPopularity() {
+        String count = "(SELECT COUNT(*) FROM likes l WHERE l.film_id = f.film_id)";
+        int fixed = jdbcTemplate.update("UPDATE films f SET likes_count = " + count + ", " + NEXT_VERSION +
+                " WHERE likes_count <> " + count);
+        if (fixed > 0) {
+            log.warn("Счётчики лайков пересчитаны для {} фильмов", fixed);
+        }
+        filmRankings.rebuild();
+        return fixed;
+    }
+
+
+    @Override
+    public boolean exists(int id) {
+        String sql = "SELECT EXISTS (SELECT 1 FROM films WHERE film_id = ?)";
+        return Boolean.TRUE.equals(jdbcTemplate.queryForObject(sql, Boolean.class, id));
+    }
+
+    /**
+     * В режиме отложенной записи транзакция не открывается: проверка существования идёт одним запросом
+     * в автокоммите, и соединение возвращается в пул до того, как лайк попадёт в буфер.
+     */
+    @Override
+    public boolean addLike(int filmId, int userId) {
+        if (writeBehindLikes.isEnabled()) {
+            String exists = "SELECT EXISTS (SELECT 1 FROM films WHERE film_id = ?) AND EXISTS (SELECT 1 FROM users WHERE user_id = ?)";
+            if (!Boolean.TRUE.equals(jdbcTemplate.queryForObject(exists, Boolean.class, filmId, userId))) {
+                throw new DataIntegrityViolationException("Фильм " + filmId + " или пользователь " + userId + " не найден");
+            }
+            return writeBehindLikes.addLike(filmId, userId);
+        }
+        return Boolean.TRUE.equals(transactionTemplate.execute(status -> insertLike(filmId, userId)));
+    }
+
+    private boolean insertLike(int filmId, int userId) {
+        long now = filmTrends.now();
+        String sql = "INSERT INTO likes (film_id, user_id, created_at) VALUES (?, ?, ?)";
+        try {
+            jdbcTemplate.update(sql, filmId, userId, new Timestamp(now));
+        } catch (DuplicateKeyException e) {
+            return false;
+        }
+        jdbcTemplate.update("UPDATE films SET likes_count = likes_count + 1, " + NEXT_VERSION + " WHERE film_id = ?", filmId);
+        filmCache.invalidate(filmId);
+        likesGraph.addLike(filmId, userId);
+        filmRankings.changeLikes(filmId, 1);
+        filmTrends.addLike(filmId, now);
+        return true;
+    }
+
+    @Override
+    public boolean removeLike(int filmId, int userId) {
+        if (writeBehindLikes.isEnabled()) {
+            return writeBehindLikes.removeLike(filmId, userId);
+        }
+        return Boolean.TRUE.equals(transactionTemplate.execute(status -> deleteLike(filmId, userId)));
+    }
+
+    private boolean deleteLike(int filmId, int userId) {
+        // Время удалённого лайка нужно, чтобы снять его с корзины окон популярности, в которую он попал
+        String sql = "SELECT created_at FROM OLD TABLE (DELETE FROM likes WHERE film_id = ? AND user_id = ?)";
+        List<Timestamp> deleted = jdbcTemplate.queryForList(sql, Timestamp.class, filmId, userId);
+        if (deleted.isEmpty()) {
+            return false;
+        }
+        jdbcTemplate.update("UPDATE films SET likes_count = likes_count - 1, " + NEXT_VERSION + " WHERE film_id = ?", filmId);
+        filmCache.invalidate(filmId);
+        likesGraph.removeLike(filmId, userId);
+        filmRankings.changeLikes(filmId, -1);
+        filmTrends.removeLike(filmId, deleted.get(0).getTime());
+        return true;
     }
 
     @Override
@@ -136,25 +584,109 @@ public class FilmDbStorage implements FilmStorage {
 
 
     private Film mapRowToFilm(ResultSet rs, int rowNum) throws SQLException {
+        return Film.builder().id(rs.getInt("film_id")).name(rs.getString("name")).description(rs.getString("description")).releaseDate(rs.getDate("release_date").toLocalDate()).duration(rs.getInt("duration")).mpa(mapRowToMpa(rs)).build();
+    }
+
+    private FilmSummary mapRowToSummary(ResultSet rs, int rowNum) throws SQLException {
+        return FilmSummary.builder().id(rs.getInt("film_id")).name(rs.getString("name")).description(rs.getString("description")).releaseDate(rs.getDate("release_date").toLocalDate()).duration(rs.getInt("duration")).mpa(mapRowToMpa(rs)).likesCount(rs.getInt("likes_count")).build();
+    }
+
+    private static Mpa mapRowToMpa(ResultSet rs) throws SQLException {
         Mpa mpa = new Mpa();
         mpa.setId(rs.getInt("mpa_id"));
         mpa.setName(rs.getString("mpa_name"));
+        return mpa;
+    }
+
+    /**
+     * Дозагружает жанры и лайки для произвольного списка фильмов.
+     * Количество запросов зависит только от числа пачек по {@link #HYDRATION_CHUNK_SIZE} id, а не от числа фильмов.
+     */
+    private void hydrate(List<Film> films) {
+        Map<Integer, Film> filmsById = indexById(films);
+        if (filmsById.isEmpty()) {
+            return;
+        }
+        List<Integer> ids = new ArrayList<>(filmsById.keySet());
+        for (int from = 0; from < ids.size(); from += HYDRATION_CHUNK_SIZE) {
+            Object[] chunk = ids.subList(from, Math.min(from + HYDRATION_CHUNK_SIZE, ids.size())).toArray();
+            String filter = "film_id IN (" + String.join(", ", Collections.nCopies(chunk.length, "?")) + ")";
+            loadGenres(filmGenres(filmsById), "WHERE fg." + filter, chunk);
+            loadLikes(filmsById, "WHERE " + filter, chunk);
+        }
+    }
 
-        return Film.builder().id(rs.getInt("film_id")).name(rs.getString("name")).description(rs.getString("description")).releaseDate(rs.getDate("release_date").toLocalDate()).duration(rs.getInt("duration")).mpa(mpa).build();
+    /**
+     * Дозагружает только жанры: облегчённому представлению лайки не нужны.
+     */
+    private void hydrateSummaries(List<FilmSummary> films) {
+        for (int from = 0; from < films.size(); from += HYDRATION_CHUNK_SIZE) {
+            List<FilmSummary> part = films.subList(from, Math.min(from + HYDRATION_CHUNK_SIZE, films.size()));
+            Object[] chunk = part.stream().map(FilmSummary::getId).toArray();
+            String filter = "film_id IN (" + String.join(", ", Collections.nCopies(chunk.length, "?")) + ")";
+            loadGenres(summaryGenres(part), "WHERE fg." + filter, chunk);
+        }
     }
 
-    private void loadGenresForFilm(Film film) {
-        String sql = "SELECT g.id, g.name FROM genre g JOIN film_genre fg ON g.id = fg.genre_id " +
-                "WHERE fg.film_id = ? ORDER BY g.id";
-        List<Genre> genres = jdbcTemplate.query(sql,
-                (rs, rowNum) -> new Genre(rs.getInt("id"), rs.getString("name")),
-                film.getId());
-        film.setGenres(new LinkedHashSet<>(genres));
+    /**
+     * Дозагружает жанры и лайки для всего каталога двумя запросами без фильтра по id.
+     */
+    private void hydrateAll(List<Film> films) {
+        Map<Integer, Film> filmsById = indexById(films);
+        if (filmsById.isEmpty()) {
+            return;
+        }
+        loadGenres(filmGenres(filmsById), "");
+        loadLikes(filmsById, "");
     }
 
-    private void loadLikesForFilm(Film film) {
-        String sql = "SELECT user_id FROM likes WHERE film_id = ?";
-        List<Integer> likes = jdbcTemplate.queryForList(sql, Integer.class, film.getId());
-        film.setLikes(new HashSet<>(likes));
+    private Map<Integer, Film> indexById(List<Film> films) {
+        Map<Integer, Film> filmsById = new HashMap<>(films.size() * 2);
+        for (Film film : films) {
+            film.setGenres(new LinkedHashSet<>());
+            film.setLikes(new HashSet<>());
+            filmsById.put(film.getId(), film);
+        }
+        return filmsById;
+    }
+
+    private static IntFunction<Set<Genre>> filmGenres(Map<Integer, Film> filmsById) {
+        return filmId -> {
+            Film film = filmsById.get(filmId);
+            return film != null ? film.getGenres() : null;
+        };
+    }
+
+    private static IntFunction<Set<Genre>> summaryGenres(List<FilmSummary> films) {
+        Map<Integer, Set<Genre>> genresById = new HashMap<>(films.size() * 2);
+        for (FilmSummary film : films) {
+            film.setGenres(new LinkedHashSet<>());
+            genresById.put(film.getId(), film.getGenres());
+        }
+        return genresById::get;
+    }
+
+    /**
+     * @param genresOf множество жанров фильма по его id или {@code null}, если фильм не загружался
+     */
+    private void loadGenres(IntFunction<Set<Genre>> genresOf, String where, Object... args) {
+        String sql = "SELECT fg.film_id, g.id, g.name FROM film_genre fg JOIN genre g ON g.id = fg.genre_id " +
+                where + " ORDER BY fg.film_id, g.id";
+        jdbcTemplate.query(sql, (RowCallbackHandler) rs -> {
+            Set<Genre> genres = genresOf.apply(rs.getInt("film_id"));
+            if (genres != null) {
+                genres.add(new Genre(rs.getInt("id"), rs.getString("name")));
+            }
+        }, args);
+    }
+
+    private void loadLikes(Map<Integer, Film> filmsById, String where, Object... args) {
+        String sql = "SELECT film_id, user_id FROM likes " + where;
+        jdbcTemplate.query(sql, (RowCallbackHandler) rs -> {
+            Film film = filmsById.get(rs.getInt("film_id"));
+            if (film != null) {
+                film.getLikes().add(rs.getInt("user_id"));
+            }
+        }, args);
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,230 @@
+package ru.yandex.practicum.filmorate.storage.film;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.stereotype.Component;
+import ru.yandex.practicum.filmorate.storage.AfterCommit;
+import ru.yandex.practicum.filmorate.storage.ChangedKeys;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.Consumer;
+
+/**
+ * Рейтинги популярности по жанру, году выпуска и их сочетанию.
+ * <p>
+ * Каждый рейтинг - упорядоченное множество ключей (лайки, id фильма), поэтому первые N фильмов
+ * любого среза читаются без сортировки. Лайк переставляет фильм во всех его срезах,
+ * а их у фильма не больше чем 1 + 2 * число жанров.
+ * <p>
+ * Перестановка - это удаление старого ключа и вставка нового, и обход среза между ними мог бы пропустить
+ * фильм или вернуть его дважды. Поэтому изменения публикуются под блокировкой записи, а {@link #top}
+ * читает срез оптимистично и перечитывает его под блокировкой чтения, если за время обхода что-то изменилось.
+ */
+@Slf4j
+@Component
+public class FilmRankings {
+    private static final int ANY = 0;
+    private static final int RELOAD_CHUNK_SIZE = 1000;
+    private final JdbcTemplate jdbcTemplate;
+    private final ReentrantLock rebuilding = new ReentrantLock();
+    private final ChangedKeys changedFilms = new ChangedKeys();
+    private final AtomicLong version = new AtomicLong();
+    private final StampedLock publishing = new StampedLock();
+    private volatile State state = new State(new ConcurrentHashMap<>(), new ConcurrentHashMap<>());
+
+    private record State(Map<Integer, Entry> films, Map<Long, NavigableSet<Long>> rankings) {
+    }
+
+    private record Entry(int likes, int year, int[] genres) {
+    }
+
+    public FilmRankings(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    /**
+     * Заполняет рейтинги по счётчикам likes_count, поэтому вызывается после их сверки с таблицей likes.
+     * Фильмы, изменённые во время чтения, перечитываются перед подменой рейтингов.
+     */
+    public void rebuild() {
+        rebuilding.lock();
+        try {
+            changedFilms.start();
+            State rebuilt = new State(new ConcurrentHashMap<>(), new ConcurrentHashMap<>());
+            load(jdbcTemplate, rebuilt, "", List.of());
+            AfterCommit.exclusively(jdbcTemplate, pinned -> {
+                List<Integer> changed = changedFilms.finish();
+                for (int from = 0; from < changed.size(); from += RELOAD_CHUNK_SIZE) {
+                    List<Integer> chunk = changed.subList(from, Math.min(from + RELOAD_CHUNK_SIZE, changed.size()));
+                    chunk.forEach(filmId -> displace(rebuilt, filmId));
+                    load(pinned, rebuilt, " WHERE film_id IN (" + String.join(", ", Collections.nCopies(chunk.size(), "?")) + ")",
+                            chunk);
+                }
+                state = rebuilt;
+                version.incrementAndGet();
+            });
+            log.info("Рейтинги популярности построены: {} фильмов, {} срезов", rebuilt.films().size(), rebuilt.rankings().size());
+        } finally {
+            changedFilms.finish();
+            rebuilding.unlock();
+        }
+    }
+
+    private static void load(JdbcTemplate jdbcTemplate, State target, String filter, List<Integer> ids) {
+        Object[] args = ids.toArray();
+        Map<Integer, int[]> genresByFilm = new HashMap<>();
+        jdbcTemplate.query("SELECT film_id, genre_id FROM film_genre" + filter + " ORDER BY film_id, genre_id",
+                (RowCallbackHandler) rs -> {
+                    int[] genres = genresByFilm.getOrDefault(rs.getInt("film_id"), new int[0]);
+                    int[] extended = Arrays.copyOf(genres, genres.length + 1);
+                    extended[genres.length] = rs.getInt("genre_id");
+                    genresByFilm.put(rs.getInt("film_id"), extended);
+                }, args);
+        jdbcTemplate.query("SELECT film_id, likes_count, EXTRACT(YEAR FROM release_date) AS release_year FROM films" + filter,
+                (RowCallbackHandler) rs -> {
+                    int filmId = rs.getInt("film_id");
+                    Entry entry = new Entry(rs.getInt("likes_count"), rs.getInt("release_year"),
+                            genresByFilm.getOrDefault(filmId, new int[0]));
+                    place(target, filmId, entry);
+                }, args);
+    }
+
+    /**
+     * Добавляет фильм или обновляет его год и жанры, сохраняя накопленные лайки.
+     */
+    public void put(int filmId, int year, Collection<Integer> genres) {
+        int[] genreIds = genres.stream().mapToInt(Integer::intValue).distinct().sorted().toArray();
+        AfterCommit.run(() -> publish(filmId, current -> {
+            Entry previous = displace(current, filmId);
+            place(current, filmId, new Entry(previous != null ? previous.likes() : 0, year, genreIds));
+        }));
+    }
+
+    public void changeLikes(int filmId, int delta) {
+        AfterCommit.run(() -> publish(filmId, current -> {
+            // Нулевое изменение не двигает фильм, но меняет версию: в списках фильм отдаётся вместе с набором лайков
+            if (delta == 0) {
+                return;
+            }
+            Entry previous = displace(current, filmId);
+            if (previous != null) {
+                place(current, filmId, new Entry(previous.likes() + delta, previous.year(), previous.genres()));
+            }
+        }));
+    }
+
+    public void remove(int filmId) {
+        AfterCommit.run(() -> publish(filmId, current -> displace(current, filmId)));
+    }
+
+    private void publish(int filmId, Consumer<State> change) {
+        long stamp = publishing.writeLock();
+        try {
+            changedFilms.add(filmId);
+            change.accept(state);
+            version.incrementAndGet();
+        } finally {
+            publishing.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * @param genreId жанр или {@code null}, если фильтр не задан
+     * @param year    год выпуска или {@code null}, если фильтр не задан
+     * @return id самых популярных фильмов среза: по убыванию лайков, при равенстве - по id
+     */
+    public List<Integer> top(int count, Integer genreId, Integer year) {
+        long ranking = rankingKey(genreId != null ? genreId : ANY, year != null ? year : ANY);
+        long stamp = publishing.tryOptimisticRead();
+        List<Integer> ids = first(state, ranking, count);
+        if (publishing.validate(stamp)) {
+            return ids;
+        }
+        stamp = publishing.readLock();
+        try {
+            return first(state, ranking, count);
+        } finally {
+            publishing.unlockRead(stamp);
+        }
+    }
+
+    private static List<Integer> first(State state, long rankingKey, int count) {
+        NavigableSet<Long> ranking = state.rankings().get(rankingKey);
+        if (ranking == null || count <= 0) {
+            return List.of();
+        }
+        List<Integer> ids = new ArrayList<>(Math.min(count, 64));
+        for (Long key : ranking) {
+            if (ids.size() == count) {
+                break;
+            }
+            ids.add((int) (long) key);
+        }
+        return ids;
+    }
+
+    /**
+     * Растёт после каждого применённого изменения фильмов и лайков, включая изменения фильмов
+     * вне срезов, поэтому годится и как версия выдачи популярных фильмов без фильтров.
+     */
+    public long version() {
+        return version.get();
+    }
+
+    /**
+     * @return число лайков фильма по последнему применённому изменению
+     */
+    public int likes(int filmId) {
+        Entry entry = state.films().get(filmId);
+        return entry != null ? entry.likes() : 0;
+    }
+
+    private static void place(State state, int filmId, Entry entry) {
+        state.films().put(filmId, entry);
+        long key = filmKey(entry.likes(), filmId);
+        for (long ranking : rankingKeys(entry)) {
+            state.rankings().computeIfAbsent(ranking, k -> new ConcurrentSkipListSet<>()).add(key);
+        }
+    }
+
+    private static Entry displace(State state, int filmId) {
+        Entry entry = state.films().remove(filmId);
+        if (entry != null) {
+            long key = filmKey(entry.likes(), filmId);
+            for (long ranking : rankingKeys(entry)) {
+                NavigableSet<Long> films = state.rankings().get(ranking);
+                if (films != null) {
+                    films.remove(key);
+                }
+            }
+        }
+        return entry;
+    }
+
+    private static long[] rankingKeys(Entry entry) {
+        long[] keys = new long[1 + entry.genres().length * 2];
+        keys[0] = rankingKey(ANY, entry.year());
+        for (int i = 0; i < entry.genres().length; i++) {
+            keys[1 + i * 2] = rankingKey(entry.genres()[i], ANY);
+            keys[2 + i * 2] = rankingKey(entry.genres()[i], entry.year());
+        }
+        return keys;
+    }
+
+    private static long rankingKey(int genreId, int year) {
+        return ((long) genreId << 32) | (year & 0xFFFFFFFFL);
+    }
+
+    /**
+     * Ключ растёт с убыванием лайков, а при равенстве - с ростом id, как ORDER BY в {@link FilmDbStorage#findPopular}.
+     */
+    private static long filmKey(int likes, int filmId) {
+        return ((long) (Integer.MAX_VALUE - likes) << 32) | filmId;
+    }
+}
@@ -0,0 +1,391 @@
+package ru.yandex.practicum.filmorate.storage.film;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.stereotype.Component;
+import ru.yandex.practicum.filmorate.storage.AfterCommit;
+import ru.yandex.practicum.filmorate.storage.ChangedKeys;
+import ru.yandex.practicum.filmorate.storage.SortedInts;
+
+import java.sql.PreparedStatement;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.IntUnaryOperator;
+import java.util.regex.Pattern;
+
+/**
+ * Обратный индекс по названию и описанию фильмов: слово - отсортированный массив id фильмов.
+ * <p>
+ * Словари упорядочены, поэтому каждое слово запроса ищется как префикс. Фильм должен содержать
+ * все слова запроса; совпадение в названии весит больше, чем в описании.
+ * <p>
+ * Префикс раскрывается не более чем в {@code filmorate.search.max-expansions} слов: само слово запроса
+ * и слова, встречающиеся в наибольшем числе фильмов. Префиксы, у которых часть продолжений отброшена,
+ * учитываются в метрике {@code filmorate.search.truncated}.
+ */
+@Slf4j
+@Component
+public class FilmSearchIndex implements MeterBinder {
+    private static final Pattern SEPARATORS = Pattern.compile("[^\\p{L}\\p{N}]+");
+    private static final int TITLE_WEIGHT = 2;
+    private static final int DESCRIPTION_WEIGHT = 1;
+    private static final int FETCH_SIZE = 10_000;
+    private static final int RELOAD_CHUNK_SIZE = 1000;
+    private final JdbcTemplate jdbcTemplate;
+    private final int maxExpansions;
+    private final LongAdder truncated = new LongAdder();
+    private final ReentrantLock rebuilding = new ReentrantLock();
+    private final ChangedKeys changedFilms = new ChangedKeys();
+    private volatile State state = new State(new ConcurrentSkipListMap<>(), new ConcurrentSkipListMap<>(),
+            new ConcurrentHashMap<>());
+
+    private record State(NavigableMap<String, int[]> titles, NavigableMap<String, int[]> descriptions,
+                         Map<Integer, Document> documents) {
+    }
+
+    private record Document(String[] title, String[] description) {
+    }
+
+    public FilmSearchIndex(JdbcTemplate jdbcTemplate,
+                           @Value("${filmorate.search.max-expansions:64}") int maxExpansions) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.maxExpansions = maxExpansions;
+    }
+
+    /**
+     * Строит индекс за один проход по films в порядке id: списки id при этом только дописываются в конец.
+     * Фильмы, изменённые во время прохода, перечитываются перед подменой индекса.
+     */
+    @PostConstruct
+    public void rebuild() {
+        rebuilding.lock();
+        try {
+            changedFilms.start();
+            Map<String, int[]> titles = new HashMap<>();
+            Map<String, int[]> descriptions = new HashMap<>();
+            Map<Integer, Document> documents = new ConcurrentHashMap<>();
+            jdbcTemplate.query(connection -> {
+                PreparedStatement ps = connection.prepareStatement("SELECT film_id, name, description FROM films ORDER BY film_id");
+                ps.setFetchSize(FETCH_SIZE);
+                return ps;
+            }, (RowCallbackHandler) rs -> {
+                int filmId = rs.getInt("film_id");
+                Document document = new Document(tokenize(rs.getString("name")), tokenize(rs.getString("description")));
+                documents.put(filmId, document);
+                append(titles, document.title(), filmId);
+                append(descriptions, document.description(), filmId);
+            });
+            State rebuilt = new State(trim(titles), trim(descriptions), documents);
+            AfterCommit.exclusively(jdbcTemplate, pinned -> {
+                List<Integer> changed = changedFilms.finish();
+                for (int from = 0; from < changed.size(); from += RELOAD_CHUNK_SIZE) {
+                    List<Integer> chunk = changed.subList(from, Math.min(from + RELOAD_CHUNK_SIZE, changed.size()));
+                    chunk.forEach(filmId -> unlink(rebuilt, filmId));
+                    pinned.query("SELECT film_id, name, description FROM films WHERE film_id IN (" +
+                                    String.join(", ", Collections.nCopies(chunk.size(), "?")) + ")",
+                            (RowCallbackHandler) rs -> link(rebuilt, rs.getInt("film_id"),
+                                    new Document(tokenize(rs.getString("name")), tokenize(rs.getString("description")))),
+                            chunk.toArray());
+                }
+                state = rebuilt;
+            });
+            log.info("Поисковый индекс построен: {} фильмов, {} слов", documents.size(), titles.size() + descriptions.size());
+        } finally {
+            changedFilms.finish();
+            rebuilding.unlock();
+        }
+    }
+
+    private static void append(Map<String, int[]> postings, String[] terms, int filmId) {
+        for (String term : terms) {
+            int[] ids = postings.get(term);
+            if (ids == null) {
+                ids = new int[]{0, 0, 0, 0};
+            } else if (ids[0] + 1 == ids.length) {
+                ids = Arrays.copyOf(ids, ids.length * 2);
+            }
+            // Нулевой элемент хранит длину списка до обрезки в trim
+            ids[++ids[0]] = filmId;
+            postings.put(term, ids);
+        }
+    }
+
+    private static NavigableMap<String, int[]> trim(Map<String, int[]> postings) {
+        NavigableMap<String, int[]> result = new ConcurrentSkipListMap<>();
+        postings.forEach((term, ids) -> result.put(term, Arrays.copyOfRange(ids, 1, ids[0] + 1)));
+        return result;
+    }
+
+    public void put(int filmId, String title, String description) {
+        Document document = new Document(tokenize(title), tokenize(description));
+        AfterCommit.run(() -> {
+            synchronized (this) {
+                changedFilms.add(filmId);
+                State current = state;
+                unlink(current, filmId);
+                link(current, filmId, document);
+            }
+        });
+    }
+
+    public void remove(int filmId) {
+        AfterCommit.run(() -> {
+            synchronized (this) {
+                changedFilms.add(filmId);
+                unlink(state, filmId);
+            }
+        });
+    }
+
+    private static void link(State state, int filmId, Document document) {
+        state.documents().put(filmId, document);
+        for (String term : document.title()) {
+            state.titles().compute(term, (t, ids) -> SortedInts.insert(ids, filmId));
+        }
+        for (String term : document.description()) {
+            state.descriptions().compute(term, (t, ids) -> SortedInts.insert(ids, filmId));
+        }
+    }
+
+    private static void unlink(State state, int filmId) {
+        Document document = state.documents().remove(filmId);
+        if (document == null) {
+            return;
+        }
+        for (String term : document.title()) {
+            state.titles().computeIfPresent(term, (t, ids) -> SortedInts.remove(ids, filmId));
+        }
+        for (String term : document.description()) {
+            state.descriptions().computeIfPresent(term, (t, ids) -> SortedInts.remove(ids, filmId));
+        }
+    }
+
+    /**
+     * Ищет фильмы, содержащие все слова запроса в выбранных полях.
+     * <p>
+     * Кандидаты перебираются слиянием отсортированных списков самого редкого слова, остальные слова
+     * проверяются двоичным поиском, который по каждому списку продвигается только вперёд. Так время
+     * зависит от самого редкого слова запроса, а память - только от {@code count}.
+     *
+     * @param popularity число лайков фильма, используется при равной релевантности
+     * @return id фильмов по убыванию релевантности, затем популярности
+     */
+    public List<Integer> search(String query, boolean byTitle, boolean byDescription, int count,
+                                IntUnaryOperator popularity) {
+        String[] terms = tokenize(query);
+        if (terms.length == 0 || count <= 0 || !(byTitle || byDescription)) {
+            return List.of();
+        }
+        State current = state;
+        List<int[][]> titleMatches = new ArrayList<>(terms.length);
+        List<int[][]> descriptionMatches = new ArrayList<>(terms.length);
+        int rarest = 0;
+        long rarestSize = Long.MAX_VALUE;
+        for (int i = 0; i < terms.length; i++) {
+            int[][] inTitle = byTitle ? expand(current.titles(), terms[i]) : new int[0][];
+            int[][] inDescription = byDescription ? expand(current.descriptions(), terms[i]) : new int[0][];
+            long size = Arrays.stream(inTitle).mapToLong(ids -> ids.length).sum()
+                    + Arrays.stream(inDescription).mapToLong(ids -> ids.length).sum();
+            if (size == 0) {
+                return List.of();
+            }
+            if (size < rarestSize) {
+                rarest = i;
+                rarestSize = size;
+            }
+            titleMatches.add(inTitle);
+            descriptionMatches.add(inDescription);
+        }
+
+        Postings[] inTitles = new Postings[terms.length];
+        Postings[] inDescriptions = new Postings[terms.length];
+        for (int i = 0; i < terms.length; i++) {
+            inTitles[i] = new Postings(titleMatches.get(i));
+            inDescriptions[i] = new Postings(descriptionMatches.get(i));
+        }
+        int[][] titleLists = titleMatches.get(rarest);
+        int[][] descriptionLists = descriptionMatches.get(rarest);
+        int[][] rarestLists = Arrays.copyOf(titleLists, titleLists.length + descriptionLists.length);
+        System.arraycopy(descriptionLists, 0, rarestLists, titleLists.length, descriptionLists.length);
+
+        // В куче остаются count лучших: первым извлекается худший из них
+        Comparator<long[]> ranking = Comparator.<long[]>comparingLong(hit -> hit[1])
+                .thenComparingLong(hit -> hit[2])
+                .thenComparingLong(hit -> -hit[0]);
+        PriorityQueue<long[]> best = new PriorityQueue<>(count + 1, ranking);
+        for (Union candidates = new Union(rarestLists); candidates.hasNext(); ) {
+            int filmId = candidates.next();
+            int score = 0;
+            for (int i = 0; i < terms.length; i++) {
+                int weight = (inTitles[i].contains(filmId) ? TITLE_WEIGHT : 0)
+                        + (inDescriptions[i].contains(filmId) ? DESCRIPTION_WEIGHT : 0);
+                if (weight == 0) {
+                    score = 0;
+                    break;
+                }
+                score += weight;
+            }
+            if (score == 0) {
+                continue;
+            }
+            long[] worst = best.size() == count ? best.peek() : null;
+            if (worst != null && score < worst[1]) {
+                continue;
+            }
+            int likes = popularity.applyAsInt(filmId);
+            // Кандидаты идут по возрастанию id, поэтому при равных очках и лайках новый фильм хуже уже отобранных
+            if (worst != null && score == worst[1] && likes <= worst[2]) {
+                continue;
+            }
+            best.add(new long[]{filmId, score, likes});
+            if (best.size() > count) {
+                best.poll();
+            }
+        }
+        List<Integer> ids = new ArrayList<>(best.size());
+        while (!best.isEmpty()) {
+            ids.add((int) best.poll()[0]);
+        }
+        Collections.reverse(ids);
+        return ids;
+    }
+
+    /**
+     * @return списки id слов, начинающихся с префикса: само слово и самые частые продолжения
+     */
+    private int[][] expand(NavigableMap<String, int[]> postings, String prefix) {
+        int[] exact = postings.get(prefix);
+        int limit = exact != null ? maxExpansions - 1 : maxExpansions;
+        // В куче остаются limit самых длинных списков: первым извлекается самый короткий
+        PriorityQueue<int[]> widest = new PriorityQueue<>(limit + 1, Comparator.comparingInt(ids -> ids.length));
+        int dropped = 0;
+        for (int[] ids : postings.subMap(prefix, false, prefix + Character.MAX_VALUE, false).values()) {
+            widest.add(ids);
+            if (widest.size() > limit) {
+                widest.poll();
+                dropped++;
+            }
+        }
+        if (dropped > 0) {
+            truncated.increment();
+            log.debug("Префикс «{}»: отброшено {} редких слов сверх {}", prefix, dropped, maxExpansions);
+        }
+        if (exact != null) {
+            widest.add(exact);
+        }
+        return widest.toArray(int[][]::new);
+    }
+
+    /**
+     * Списки id одного слова запроса. Проверяемые id должны не убывать: каждый список
+     * просматривается с позиции, на которой остановилась предыдущая проверка.
+     */
+    private static final class Postings {
+        private final int[][] lists;
+        private final int[] from;
+
+        Postings(int[][] lists) {
+            this.lists = lists;
+            this.from = new int[lists.length];
+        }
+
+        boolean contains(int filmId) {
+            for (int i = 0; i < lists.length; i++) {
+                int pos = Arrays.binarySearch(lists[i], from[i], lists[i].length, filmId);
+                if (pos >= 0) {
+                    from[i] = pos;
+                    return true;
+                }
+                from[i] = -pos - 1;
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Объединение отсортированных списков id по возрастанию и без повторов: куча хранит номера списков,
+     * упорядоченные по текущему элементу.
+     */
+    private static final class Union {
+        private final int[][] lists;
+        private final int[] positions;
+        private final int[] heap;
+        private int size;
+
+        Union(int[][] lists) {
+            this.lists = lists;
+            this.positions = new int[lists.length];
+            this.heap = new int[lists.length];
+            for (int i = 0; i < lists.length; i++) {
+                if (lists[i].length > 0) {
+                    heap[size++] = i;
+                }
+            }
+            for (int i = size / 2 - 1; i >= 0; i--) {
+                siftDown(i);
+            }
+        }
+
+        boolean hasNext() {
+            return size > 0;
+        }
+
+        int next() {
+            int filmId = head(heap[0]);
+            while (size > 0 && head(heap[0]) == filmId) {
+                int list = heap[0];
+                if (++positions[list] == lists[list].length) {
+                    heap[0] = heap[--size];
+                }
+                siftDown(0);
+            }
+            return filmId;
+        }
+
+        private int head(int list) {
+            return lists[list][positions[list]];
+        }
+
+        private void siftDown(int i) {
+            int list = heap[i];
+            while (2 * i + 1 < size) {
+                int child = 2 * i + 1;
+                if (child + 1 < size && head(heap[child + 1]) < head(heap[child])) {
+                    child++;
+                }
+                if (head(heap[child]) >= head(list)) {
+                    break;
+                }
+                heap[i] = heap[child];
+                i = child;
+            }
+            heap[i] = list;
+        }
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        FunctionCounter.builder("filmorate.search.truncated", truncated, LongAdder::sum)
+                .description("Префиксы запросов, раскрытые не во все продолжения из-за filmorate.search.max-expansions")
+                .register(registry);
+    }
+
+    private static String[] tokenize(String text) {
+        if (text == null || text.isBlank()) {
+            return new String[0];
+        }
+        return SEPARATORS.splitAsStream(text.toLowerCase(Locale.ROOT).replace('ё', 'е'))
+                .filter(term -> !term.isEmpty())
+                .distinct()
+                .toArray(String[]::new);
+    }
+}
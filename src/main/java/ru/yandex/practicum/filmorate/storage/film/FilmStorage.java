@@ -1,9 +1,14 @@
 package ru.yandex.practicum.filmorate.storage.film;
 
 import ru.yandex.practicum.filmorate.model.Film;
+import ru.yandex.practicum.filmorate.model.FilmSummary;
+import ru.yandex.practicum.filmorate.model.Like;
 
+import java.time.Duration;
 import java.util.Collection;
+import java.util.List;
 import java.util.Set;
+import java.util.function.Consumer;
 
 public interface FilmStorage {
     Film add(Film film);
@@ -14,12 +19,103 @@ public interface FilmStorage {
 
     Film findById(int id);
 
+    /**
+     * Версия меняется при каждой записи фильма, его жанров или лайков.
+     *
+     * @return версия фильма или {@code null}, если фильма нет
+     */
+    Long findVersion(int id);
+
+    /**
+     * @return номер последнего изменения, которое могло повлиять на выдачу популярных фильмов
+     */
+    long getPopularVersion();
+
     Collection<Film> findAll();
 
-    void addLike(int filmId, int userId);
+    List<Film> findPage(int afterId, int limit);
+
+    /**
+     * Загружает фильмы по списку id постоянным числом запросов при любой длине списка.
+     *
+     * @return найденные фильмы в порядке списка, отсутствующие id пропускаются
+     */
+    List<Film> findByIds(List<Integer> ids);
+
+    void streamAll(Consumer<Film> consumer);
+
+    List<Film> findPopular(int count);
+
+    /**
+     * @param genreId жанр или {@code null}, если фильтр не задан
+     * @param year    год выпуска или {@code null}, если фильтр не задан
+     */
+    List<Film> findPopular(int count, Integer genreId, Integer year);
+
+    /**
+     * Списки фильмов в облегчённом представлении: число лайков берётся из счётчика films.likes_count,
+     * сами лайки не читаются.
+     */
+    Collection<FilmSummary> findAllSummaries();
+
+    List<FilmSummary> findSummaryPage(int afterId, int limit);
+
+    List<FilmSummary> findSummariesByIds(List<Integer> ids);
+
+    /**
+     * @param genreId жанр или {@code null}, если фильтр не задан
+     * @param year    год выпуска или {@code null}, если фильтр не задан
+     */
+    List<FilmSummary> findPopularSummaries(int count, Integer genreId, Integer year);
 
-    void removeLike(int filmId, int userId);
+    /**
+     * @param window одно из окон {@link #getTrendingWindows()}
+     * @return фильмы с наибольшим числом лайков, поставленных за окно; фильмы без таких лайков не попадают
+     */
+    List<Film> findTrending(Duration window, int count);
+
+    List<Duration> getTrendingWindows();
+
+    /**
+     * @return фильмы, которые понравились пользователям с похожими лайками и ещё не лайкнуты самим пользователем
+     */
+    List<Film> findRecommended(int userId, int count);
+
+    /**
+     * @return фильмы, в выбранных полях которых есть все слова запроса (каждое - как префикс слова)
+     */
+    List<Film> search(String query, boolean byTitle, boolean byDescription, int count);
+
+    boolean exists(int id);
+
+    /**
+     * Ставит лайк одним INSERT, полагаясь на первичный и внешние ключи таблицы likes.
+     * В режиме отложенной записи лайк принимается в память и попадает в БД с очередным пакетом.
+     *
+     * @return {@code false}, если лайк уже был поставлен
+     * @throws org.springframework.dao.DataIntegrityViolationException если фильма или пользователя нет
+     */
+    boolean addLike(int filmId, int userId);
+
+    /**
+     * @return {@code false}, если лайка не было
+     */
+    boolean removeLike(int filmId, int userId);
 
     Set<Integer> getLikes(int filmId);
+
+    /**
+     * Пакетная вставка фильмов и их жанров без обновления производных данных.
+     */
+    void addAll(List<Film> films);
+
+    void addLikes(List<Like> likes);
+
+    void streamLikes(Consumer<Like> consumer);
+
+    /**
+     * Приводит в порядок последовательность id, счётчики лайков и индексы в памяти после пакетной загрузки.
+     */
+    void afterBulkLoad();
 }
 
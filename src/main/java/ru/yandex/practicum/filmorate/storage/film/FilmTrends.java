@@ -0,0 +1,295 @@
+package ru.yandex.practicum.filmorate.storage.film;
+
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.stereotype.Component;
+import ru.yandex.practicum.filmorate.storage.AfterCommit;
+import ru.yandex.practicum.filmorate.storage.ChangedKeys;
+
+import java.sql.Timestamp;
+import java.time.Clock;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Число лайков фильмов за скользящие окна ({@code filmorate.trending.windows}, целые часы).
+ * <p>
+ * Лайки раскладываются по часовым корзинам в кольце длиной в самое большое окно. Для каждого окна
+ * хранятся сумма лайков фильма по его корзинам и упорядоченное множество ключей (лайки, id фильма),
+ * как в {@link FilmRankings}, поэтому первые N фильмов читаются за O(N) при любом числе лайков.
+ * Когда начинается новый час, корзина, вышедшая из окна, вычитается из его сумм: каждый лайк
+ * прибавляется к окну и вычитается из него ровно один раз.
+ * <p>
+ * Окно в N часов - это текущий, ещё не законченный час и N - 1 предыдущих.
+ */
+@Slf4j
+@Component
+public class FilmTrends {
+    private static final long HOUR = TimeUnit.HOURS.toMillis(1);
+    private static final int RELOAD_CHUNK_SIZE = 1000;
+    private final JdbcTemplate jdbcTemplate;
+    private final ReentrantLock rebuilding = new ReentrantLock();
+    private final ChangedKeys changedFilms = new ChangedKeys();
+    private final Clock clock;
+    private final List<Duration> windows;
+    private final int[] hours;
+    private final int horizon;
+    private volatile State state;
+
+    /**
+     * Корзина часа {@code h} лежит в ячейке {@code h % horizon}; {@code bucketHours} хранит,
+     * какой час в ячейке сейчас.
+     */
+    private static final class State {
+        final long[] bucketHours;
+        final Map<Integer, Integer>[] buckets;
+        final Map<Integer, Integer>[] totals;
+        final NavigableSet<Long>[] rankings;
+        volatile long currentHour;
+
+        @SuppressWarnings("unchecked")
+        State(int horizon, int windows, long currentHour) {
+            bucketHours = new long[horizon];
+            buckets = new Map[horizon];
+            for (int i = 0; i < horizon; i++) {
+                bucketHours[i] = Long.MIN_VALUE;
+                buckets[i] = new HashMap<>();
+            }
+            totals = new Map[windows];
+            rankings = new NavigableSet[windows];
+            for (int i = 0; i < windows; i++) {
+                totals[i] = new HashMap<>();
+                rankings[i] = new ConcurrentSkipListSet<>();
+            }
+            this.currentHour = currentHour;
+        }
+    }
+
+    @Autowired
+    public FilmTrends(JdbcTemplate jdbcTemplate,
+                      @Value("${filmorate.trending.windows:1h,24h,7d}") List<Duration> windows) {
+        this(jdbcTemplate, windows, Clock.systemUTC());
+    }
+
+    public FilmTrends(JdbcTemplate jdbcTemplate, List<Duration> windows, Clock clock) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.clock = clock;
+        this.windows = windows.stream().distinct().sorted().toList();
+        for (Duration window : this.windows) {
+            if (window.toMillis() % HOUR != 0 || window.isZero() || window.isNegative()) {
+                throw new IllegalArgumentException("Окно популярности должно быть целым числом часов: " + window);
+            }
+        }
+        this.hours = this.windows.stream().mapToInt(window -> (int) window.toHours()).toArray();
+        this.horizon = hours[hours.length - 1];
+        this.state = new State(horizon, hours.length, clock.millis() / HOUR);
+    }
+
+    /**
+     * Заполняет окна лайками из таблицы likes, поставленными за самое большое окно. Таблица читается
+     * без блокировки окон; лайки фильмов, изменённых во время чтения, перечитываются перед подменой окон.
+     */
+    @PostConstruct
+    public void rebuild() {
+        rebuilding.lock();
+        try {
+            changedFilms.start();
+            long currentHour = clock.millis() / HOUR;
+            Timestamp since = new Timestamp((currentHour - horizon + 1) * HOUR);
+            State rebuilt = new State(horizon, hours.length, currentHour);
+            int[] count = {0};
+            jdbcTemplate.query("SELECT film_id, created_at FROM likes WHERE created_at >= ?", (RowCallbackHandler) rs -> {
+                change(rebuilt, rs.getInt("film_id"), rs.getTimestamp("created_at").getTime() / HOUR, 1);
+                count[0]++;
+            }, since);
+            AfterCommit.exclusively(jdbcTemplate, pinned -> {
+                // Новое состояние ещё не видно другим потокам, поэтому монитор нужен только для подмены
+                List<Integer> changed = changedFilms.finish();
+                for (int from = 0; from < changed.size(); from += RELOAD_CHUNK_SIZE) {
+                    List<Integer> chunk = changed.subList(from, Math.min(from + RELOAD_CHUNK_SIZE, changed.size()));
+                    chunk.forEach(filmId -> forget(rebuilt, filmId));
+                    List<Object> args = new ArrayList<>(chunk);
+                    args.add(since);
+                    pinned.query("SELECT film_id, created_at FROM likes WHERE film_id IN (" +
+                                    String.join(", ", Collections.nCopies(chunk.size(), "?")) + ") AND created_at >= ?",
+                            (RowCallbackHandler) rs -> change(rebuilt, rs.getInt("film_id"),
+                                    rs.getTimestamp("created_at").getTime() / HOUR, 1),
+                            args.toArray());
+                }
+                synchronized (this) {
+                    state = rebuilt;
+                }
+            });
+            log.info("Окна популярности построены: {} лайков за последние {} ч", count[0], horizon);
+        } finally {
+            changedFilms.finish();
+            rebuilding.unlock();
+        }
+    }
+
+    /**
+     * Время, с которым записываются новые лайки: по нему лайк потом находится в своей корзине.
+     */
+    public long now() {
+        return clock.millis();
+    }
+
+    public List<Duration> windows() {
+        return windows;
+    }
+
+    /**
+     * @param createdAt время лайка, записанное в likes.created_at
+     */
+    public void addLike(int filmId, long createdAt) {
+        AfterCommit.run(() -> apply(filmId, createdAt, 1));
+    }
+
+    public void removeLike(int filmId, long createdAt) {
+        AfterCommit.run(() -> apply(filmId, createdAt, -1));
+    }
+
+    public void removeFilm(int filmId) {
+        AfterCommit.run(() -> {
+            synchronized (this) {
+                changedFilms.add(filmId);
+                forget(state, filmId);
+            }
+        });
+    }
+
+    private void forget(State state, int filmId) {
+        for (Map<Integer, Integer> bucket : state.buckets) {
+            bucket.remove(filmId);
+        }
+        for (int i = 0; i < hours.length; i++) {
+            Integer total = state.totals[i].remove(filmId);
+            if (total != null) {
+                state.rankings[i].remove(filmKey(total, filmId));
+            }
+        }
+    }
+
+    /**
+     * @param window одно из {@link #windows()}
+     * @return id фильмов с лайками за окно: по убыванию числа лайков, при равенстве - по id
+     */
+    public List<Integer> top(Duration window, int count) {
+        int index = windows.indexOf(window);
+        if (index < 0) {
+            throw new IllegalArgumentException("Окно популярности не настроено: " + window);
+        }
+        State current = advance();
+        List<Integer> ids = new ArrayList<>(Math.min(count, 64));
+        for (Long key : current.rankings[index]) {
+            if (ids.size() == count) {
+                break;
+            }
+            ids.add((int) (long) key);
+        }
+        return ids;
+    }
+
+    private void apply(int filmId, long createdAt, int delta) {
+        advance();
+        synchronized (this) {
+            changedFilms.add(filmId);
+            State current = state;
+            change(current, filmId, Math.min(createdAt / HOUR, current.currentHour), delta);
+        }
+    }
+
+    /**
+     * Сдвигает текущий час до часов на {@link #clock}. Блокировка берётся только при смене часа.
+     */
+    private State advance() {
+        long nowHour = clock.millis() / HOUR;
+        State current = state;
+        if (current.currentHour >= nowHour) {
+            return current;
+        }
+        synchronized (this) {
+            current = state;
+            if (nowHour - current.currentHour >= horizon) {
+                current = new State(horizon, hours.length, nowHour);
+                state = current;
+                return current;
+            }
+            while (current.currentHour < nowHour) {
+                long hour = current.currentHour + 1;
+                for (int i = 0; i < hours.length; i++) {
+                    expire(current, i, hour - hours[i]);
+                }
+                current.currentHour = hour;
+            }
+            return current;
+        }
+    }
+
+    private void expire(State state, int window, long hour) {
+        int slot = slot(hour);
+        if (state.bucketHours[slot] != hour) {
+            return;
+        }
+        state.buckets[slot].forEach((filmId, likes) -> changeTotal(state, window, filmId, -likes));
+    }
+
+    /**
+     * Снятие лайка, которого нет в корзине (его час уже вышел из окон), ничего не меняет.
+     */
+    private void change(State state, int filmId, long hour, int delta) {
+        if (hour <= state.currentHour - horizon) {
+            return;
+        }
+        int slot = slot(hour);
+        if (state.bucketHours[slot] != hour) {
+            state.bucketHours[slot] = hour;
+            state.buckets[slot].clear();
+        }
+        Map<Integer, Integer> bucket = state.buckets[slot];
+        int likes = bucket.getOrDefault(filmId, 0);
+        if (likes + delta < 0) {
+            return;
+        }
+        if (likes + delta == 0) {
+            bucket.remove(filmId);
+        } else {
+            bucket.put(filmId, likes + delta);
+        }
+        for (int i = 0; i < hours.length; i++) {
+            if (hour > state.currentHour - hours[i]) {
+                changeTotal(state, i, filmId, delta);
+            }
+        }
+    }
+
+    private static void changeTotal(State state, int window, int filmId, int delta) {
+        Map<Integer, Integer> totals = state.totals[window];
+        int previous = totals.getOrDefault(filmId, 0);
+        int updated = previous + delta;
+        if (previous > 0) {
+            state.rankings[window].remove(filmKey(previous, filmId));
+        }
+        if (updated > 0) {
+            totals.put(filmId, updated);
+            state.rankings[window].add(filmKey(updated, filmId));
+        } else {
+            totals.remove(filmId);
+        }
+    }
+
+    private int slot(long hour) {
+        return (int) Math.floorMod(hour, (long) horizon);
+    }
+
+    private static long filmKey(int likes, int filmId) {
+        return ((long) (Integer.MAX_VALUE - likes) << 32) | filmId;
+    }
+}
@@ -0,0 +1,127 @@
+package ru.yandex.practicum.filmorate.storage.film;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Лайки, принятые в режиме отложенной записи и ещё не записанные в БД.
+ * <p>
+ * Пары (фильм, пользователь) разнесены по полосам со своими блокировками, поэтому лайки разных
+ * пар не конкурируют. В полосе два слоя: {@code pending} - принятые изменения, {@code inflight} -
+ * изменения, которые сейчас записываются. Состояние лайка читается сверху вниз: pending, inflight,
+ * затем граф лайков, повторяющий БД.
+ */
+final class LikeBuffer {
+    private static final int STRIPES = 64;
+    private final LikesGraph likesGraph;
+    private final Stripe[] stripes = new Stripe[STRIPES];
+    private final LongAdder size = new LongAdder();
+
+    private static final class Stripe {
+        final Map<Long, Boolean> pending = new HashMap<>();
+        final Map<Long, Boolean> inflight = new HashMap<>();
+    }
+
+    LikeBuffer(LikesGraph likesGraph) {
+        this.likesGraph = likesGraph;
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new Stripe();
+        }
+    }
+
+    /**
+     * Принимает лайк или его снятие. Изменение, возвращающее пару к записанному состоянию,
+     * не записывается вовсе, а отменяет ожидающее.
+     *
+     * @return {@code false}, если лайк уже в нужном состоянии
+     */
+    boolean offer(int filmId, int userId, boolean liked) {
+        long key = key(filmId, userId);
+        Stripe stripe = stripe(key);
+        synchronized (stripe) {
+            Boolean inflight = stripe.inflight.get(key);
+            boolean stored = inflight != null ? inflight : likesGraph.contains(filmId, userId);
+            Boolean pending = stripe.pending.get(key);
+            if ((pending != null ? pending : stored) == liked) {
+                return false;
+            }
+            if (liked == stored) {
+                stripe.pending.remove(key);
+                size.decrement();
+            } else {
+                stripe.pending.put(key, liked);
+                size.increment();
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Переводит все принятые изменения в записываемые.
+     *
+     * @return изменения по ключу {@link #key}: {@code true} - поставить лайк, {@code false} - снять
+     */
+    Map<Long, Boolean> drain() {
+        Map<Long, Boolean> batch = new HashMap<>();
+        for (Stripe stripe : stripes) {
+            synchronized (stripe) {
+                if (!stripe.pending.isEmpty()) {
+                    stripe.inflight.putAll(stripe.pending);
+                    batch.putAll(stripe.pending);
+                    size.add(-stripe.pending.size());
+                    stripe.pending.clear();
+                }
+            }
+        }
+        return batch;
+    }
+
+    /**
+     * Снимает записанные изменения. Вызывается после того, как они попали в БД и в граф лайков.
+     */
+    void complete(Map<Long, Boolean> batch) {
+        batch.keySet().forEach(key -> {
+            Stripe stripe = stripe(key);
+            synchronized (stripe) {
+                stripe.inflight.remove(key);
+            }
+        });
+    }
+
+    /**
+     * Возвращает незаписанные изменения в ожидающие, если поверх них не принято более новых.
+     */
+    void restore(Map<Long, Boolean> batch) {
+        batch.forEach((key, liked) -> {
+            Stripe stripe = stripe(key);
+            synchronized (stripe) {
+                stripe.inflight.remove(key);
+                if (stripe.pending.putIfAbsent(key, liked) == null) {
+                    size.increment();
+                }
+            }
+        });
+    }
+
+    long size() {
+        return size.sum();
+    }
+
+    static long key(int filmId, int userId) {
+        return ((long) filmId << 32) | (userId & 0xFFFFFFFFL);
+    }
+
+    static int filmId(long key) {
+        return (int) (key >>> 32);
+    }
+
+    static int userId(long key) {
+        return (int) key;
+    }
+
+    private Stripe stripe(long key) {
+        // Старшие биты произведения Фибоначчи перемешивают и id фильма, и id пользователя
+        return stripes[(Long.hashCode(key) * 0x9E3779B9) >>> 26];
+    }
+}
@@ -0,0 +1,231 @@
+package ru.yandex.practicum.filmorate.storage.film;
+
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.stereotype.Component;
+import ru.yandex.practicum.filmorate.storage.AfterCommit;
+import ru.yandex.practicum.filmorate.storage.ChangedKeys;
+import ru.yandex.practicum.filmorate.storage.SortedInts;
+
+import java.sql.PreparedStatement;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Граф лайков «пользователь — фильм» в памяти: для каждого пользователя и каждого фильма
+ * хранится отсортированный массив id другой стороны. Массивы не изменяются на месте,
+ * а заменяются копией, поэтому чтение идёт без блокировок.
+ */
+@Slf4j
+@Component
+public class LikesGraph {
+    private static final int[] EMPTY = SortedInts.EMPTY;
+    private static final int FETCH_SIZE = 10_000;
+    private static final int RELOAD_CHUNK_SIZE = 1000;
+    private static final String FILMS_BY_USER = "SELECT user_id, film_id FROM likes%s ORDER BY user_id, film_id";
+    private static final String USERS_BY_FILM = "SELECT film_id, user_id FROM likes%s ORDER BY film_id, user_id";
+    private final JdbcTemplate jdbcTemplate;
+    private final ReentrantLock rebuilding = new ReentrantLock();
+    private final ChangedKeys changedUsers = new ChangedKeys();
+    private final ChangedKeys changedFilms = new ChangedKeys();
+    private final int neighbours;
+    private final int maxCoLikes;
+    private volatile Graph graph = new Graph(new ConcurrentHashMap<>(), new ConcurrentHashMap<>());
+
+    private record Graph(Map<Integer, int[]> filmsByUser, Map<Integer, int[]> usersByFilm) {
+    }
+
+    public LikesGraph(JdbcTemplate jdbcTemplate,
+                      @Value("${filmorate.recommendations.neighbours:50}") int neighbours,
+                      @Value("${filmorate.recommendations.max-co-likes:100000}") int maxCoLikes) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.neighbours = neighbours;
+        this.maxCoLikes = maxCoLikes;
+    }
+
+    /**
+     * Заново строит граф по таблице likes двумя проходами по индексам (user_id, film_id) и (film_id, user_id).
+     * Лайки, закоммиченные во время проходов, дочитываются по отмеченным id перед подменой графа.
+     */
+    @PostConstruct
+    public void rebuild() {
+        rebuilding.lock();
+        try {
+            changedUsers.start();
+            changedFilms.start();
+            Map<Integer, int[]> filmsByUser = load(jdbcTemplate, FILMS_BY_USER, "", List.of());
+            Map<Integer, int[]> usersByFilm = load(jdbcTemplate, USERS_BY_FILM, "", List.of());
+            AfterCommit.exclusively(jdbcTemplate, pinned -> {
+                reload(pinned, filmsByUser, FILMS_BY_USER, "user_id", changedUsers.finish());
+                reload(pinned, usersByFilm, USERS_BY_FILM, "film_id", changedFilms.finish());
+                graph = new Graph(filmsByUser, usersByFilm);
+            });
+            log.info("Граф лайков построен: {} пользователей, {} фильмов", filmsByUser.size(), usersByFilm.size());
+        } finally {
+            changedUsers.finish();
+            changedFilms.finish();
+            rebuilding.unlock();
+        }
+    }
+
+    private static void reload(JdbcTemplate jdbcTemplate, Map<Integer, int[]> target, String select, String column,
+                               List<Integer> ids) {
+        for (int from = 0; from < ids.size(); from += RELOAD_CHUNK_SIZE) {
+            List<Integer> chunk = ids.subList(from, Math.min(from + RELOAD_CHUNK_SIZE, ids.size()));
+            chunk.forEach(target::remove);
+            String filter = " WHERE " + column + " IN (" + String.join(", ", Collections.nCopies(chunk.size(), "?")) + ")";
+            target.putAll(load(jdbcTemplate, select, filter, chunk));
+        }
+    }
+
+    private static Map<Integer, int[]> load(JdbcTemplate jdbcTemplate, String select, String filter, List<Integer> ids) {
+        Map<Integer, int[]> result = new ConcurrentHashMap<>();
+        int[][] current = {EMPTY};
+        int[] key = {0};
+        int[] size = {0};
+        jdbcTemplate.query(connection -> {
+            PreparedStatement ps = connection.prepareStatement(select.formatted(filter));
+            for (int i = 0; i < ids.size(); i++) {
+                ps.setInt(i + 1, ids.get(i));
+            }
+            ps.setFetchSize(FETCH_SIZE);
+            return ps;
+        }, (RowCallbackHandler) rs -> {
+            int owner = rs.getInt(1);
+            if (size[0] > 0 && owner != key[0]) {
+                result.put(key[0], Arrays.copyOf(current[0], size[0]));
+                size[0] = 0;
+            }
+            key[0] = owner;
+            if (size[0] == current[0].length) {
+                current[0] = Arrays.copyOf(current[0], Math.max(16, size[0] * 2));
+            }
+            current[0][size[0]++] = rs.getInt(2);
+        });
+        if (size[0] > 0) {
+            result.put(key[0], Arrays.copyOf(current[0], size[0]));
+        }
+        return result;
+    }
+
+    public boolean contains(int filmId, int userId) {
+        return Arrays.binarySearch(graph.usersByFilm().getOrDefault(filmId, EMPTY), userId) >= 0;
+    }
+
+    public void addLike(int filmId, int userId) {
+        AfterCommit.run(() -> {
+            changed(filmId, userId);
+            Graph g = graph;
+            g.filmsByUser().compute(userId, (id, films) -> SortedInts.insert(films, filmId));
+            g.usersByFilm().compute(filmId, (id, users) -> SortedInts.insert(users, userId));
+        });
+    }
+
+    public void removeLike(int filmId, int userId) {
+        AfterCommit.run(() -> {
+            changed(filmId, userId);
+            Graph g = graph;
+            g.filmsByUser().computeIfPresent(userId, (id, films) -> SortedInts.remove(films, filmId));
+            g.usersByFilm().computeIfPresent(filmId, (id, users) -> SortedInts.remove(users, userId));
+        });
+    }
+
+    public void removeFilm(int filmId) {
+        AfterCommit.run(() -> {
+            Graph g = graph;
+            int[] users = g.usersByFilm().remove(filmId);
+            changedFilms.add(filmId);
+            for (int userId : users != null ? users : EMPTY) {
+                changedUsers.add(userId);
+                g.filmsByUser().computeIfPresent(userId, (id, films) -> SortedInts.remove(films, filmId));
+            }
+        });
+    }
+
+    public void removeUser(int userId) {
+        AfterCommit.run(() -> {
+            Graph g = graph;
+            int[] films = g.filmsByUser().remove(userId);
+            changedUsers.add(userId);
+            for (int filmId : films != null ? films : EMPTY) {
+                changedFilms.add(filmId);
+                g.usersByFilm().computeIfPresent(filmId, (id, users) -> SortedInts.remove(users, userId));
+            }
+        });
+    }
+
+    private void changed(int filmId, int userId) {
+        changedFilms.add(filmId);
+        changedUsers.add(userId);
+    }
+
+    /**
+     * Подбирает фильмы, которые понравились пользователям с похожими лайками.
+     * <p>
+     * Соседи ищутся по пересечению лайков, начиная с самых редких фильмов пользователя: они лучше
+     * характеризуют вкус и дешевле обходятся. Просмотр ограничен {@code max-co-likes} парами,
+     * поэтому время ответа не растёт вместе с популярностью фильмов. Кандидаты ранжируются
+     * по сумме пересечений соседей, которым они понравились.
+     *
+     * @return id фильмов по убыванию релевантности
+     */
+    public List<Integer> recommend(int userId, int count) {
+        Graph g = graph;
+        int[] liked = g.filmsByUser().getOrDefault(userId, EMPTY);
+        if (liked.length == 0 || count <= 0) {
+            return List.of();
+        }
+
+        int[][] likers = new int[liked.length][];
+        for (int i = 0; i < liked.length; i++) {
+            likers[i] = g.usersByFilm().getOrDefault(liked[i], EMPTY);
+        }
+        Arrays.sort(likers, Comparator.comparingInt(users -> users.length));
+
+        int[] coLikers = new int[Math.min(maxCoLikes, Arrays.stream(likers).mapToInt(users -> users.length).sum())];
+        int size = 0;
+        for (int[] users : likers) {
+            for (int i = 0; i < users.length && size < coLikers.length; i++) {
+                if (users[i] != userId) {
+                    coLikers[size++] = users[i];
+                }
+            }
+        }
+        Arrays.sort(coLikers, 0, size);
+
+        // Пересечение и id соседа упакованы в long, чтобы отсортировать пары без боксинга
+        long[] overlaps = new long[size];
+        int distinct = 0;
+        for (int i = 0; i < size; ) {
+            int j = i;
+            while (j < size && coLikers[j] == coLikers[i]) {
+                j++;
+            }
+            overlaps[distinct++] = ((long) (j - i) << 32) | (Integer.MAX_VALUE - coLikers[i]);
+            i = j;
+        }
+        Arrays.sort(overlaps, 0, distinct);
+
+        Map<Integer, Integer> scores = new HashMap<>();
+        for (int n = distinct - 1; n >= Math.max(0, distinct - neighbours); n--) {
+            int weight = (int) (overlaps[n] >>> 32);
+            int neighbour = Integer.MAX_VALUE - (int) overlaps[n];
+            for (int filmId : g.filmsByUser().getOrDefault(neighbour, EMPTY)) {
+                if (Arrays.binarySearch(liked, filmId) < 0) {
+                    scores.merge(filmId, weight, Integer::sum);
+                }
+            }
+        }
+
+        return scores.entrySet().stream()
+                .sorted(Map.Entry.<Integer, Integer>comparingByValue().reversed()
+                        .thenComparing(Map.Entry.comparingByKey()))
+                .limit(count)
+                .map(Map.Entry::getKey)
+                .toList();
+    }
+}
@@ -0,0 +1,265 @@
+package ru.yandex.practicum.filmorate.storage.film;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.ParameterizedPreparedStatementSetter;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Режим отложенной записи лайков ({@code filmorate.likes.write-behind.enabled}).
+ * <p>
+ * Лайк принимается в {@link LikeBuffer}, проверка повтора идёт по памяти. Фоновый поток раз в
+ * {@code filmorate.likes.write-behind.lag} записывает накопленное пакетом в одной транзакции:
+ * счётчик likes_count каждого фильма меняется одним UPDATE на пакет, а не на каждый лайк,
+ * поэтому популярный фильм перестаёт быть точкой конкуренции. Популярность и лайки фильма
+ * при чтении отстают от принятых лайков не больше чем на этот интервал.
+ * <p>
+ * Если ожидающих изменений больше {@code filmorate.likes.write-behind.max-pending}, принимающий поток
+ * будит фоновый, не дожидаясь интервала, а сам не пишет и соединение не занимает. Записи идемпотентны,
+ * поэтому пакет, не записанный из-за ошибки, просто повторяется со следующим.
+ * <p>
+ * Временем лайка в likes.created_at и в окнах популярности считается время записи пакета.
+ */
+@Slf4j
+@Component
+public class WriteBehindLikes implements MeterBinder {
+    private static final String INSERT_LIKE = "INSERT INTO likes (film_id, user_id, created_at) " +
+            "SELECT f.film_id, u.user_id, CAST(? AS TIMESTAMP) FROM films f, users u WHERE f.film_id = ? AND u.user_id = ? " +
+            "AND NOT EXISTS (SELECT 1 FROM likes l WHERE l.film_id = f.film_id AND l.user_id = u.user_id)";
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final LikesGraph likesGraph;
+    private final FilmRankings filmRankings;
+    private final FilmCache filmCache;
+    private final FilmTrends filmTrends;
+    private final LikeBuffer buffer;
+    private final boolean enabled;
+    private final long lagNanos;
+    private final int maxPending;
+    private final int batchSize;
+    // ReentrantLock, а не synchronized: запись пакета ждёт БД и не должна закреплять виртуальный поток за несущим
+    private final ReentrantLock flushing = new ReentrantLock();
+    private final AtomicBoolean signalled = new AtomicBoolean();
+    private ScheduledExecutorService writer;
+
+    public WriteBehindLikes(JdbcTemplate jdbcTemplate, PlatformTransactionManager transactionManager,
+                            LikesGraph likesGraph, FilmRankings filmRankings, FilmCache filmCache, FilmTrends filmTrends,
+                            @Value("${filmorate.likes.write-behind.enabled:false}") boolean enabled,
+                            @Value("${filmorate.likes.write-behind.lag:100ms}") Duration lag,
+                            @Value("${filmorate.likes.write-behind.max-pending:100000}") int maxPending,
+                            @Value("${filmorate.jdbc.batch-size:500}") int batchSize) {
+        this.jdbcTemplate = jdbcTemplate;
+        // Своя транзакция: запись пакета из транзакции вызывающего не должна зависеть от её исхода
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.transactionTemplate.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+        this.likesGraph = likesGraph;
+        this.filmRankings = filmRankings;
+        this.filmCache = filmCache;
+        this.filmTrends = filmTrends;
+        this.buffer = new LikeBuffer(likesGraph);
+        this.enabled = enabled;
+        this.lagNanos = lag.toNanos();
+        this.maxPending = maxPending;
+        this.batchSize = batchSize;
+    }
+
+    @PostConstruct
+    void start() {
+        if (enabled) {
+            writer = Executors.newSingleThreadScheduledExecutor(Thread.ofPlatform().name("likes-writer").daemon().factory());
+            writer.scheduleWithFixedDelay(this::flushQuietly, lagNanos, lagNanos, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    @PreDestroy
+    void stop() throws InterruptedException {
+        if (writer != null) {
+            writer.shutdown();
+            writer.awaitTermination(10, TimeUnit.SECONDS);
+            flush();
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * @return {@code false}, если лайк уже поставлен
+     */
+    public boolean addLike(int filmId, int userId) {
+        return offer(filmId, userId, true);
+    }
+
+    /**
+     * @return {@code false}, если лайка нет
+     */
+    public boolean removeLike(int filmId, int userId) {
+        return offer(filmId, userId, false);
+    }
+
+    private boolean offer(int filmId, int userId, boolean liked) {
+        boolean accepted = buffer.offer(filmId, userId, liked);
+        if (accepted && buffer.size() >= maxPending && signalled.compareAndSet(false, true)) {
+            try {
+                writer.execute(() -> {
+                    signalled.set(false);
+                    flushQuietly();
+                });
+            } catch (RejectedExecutionException e) {
+                // Приложение останавливается: остаток запишет stop()
+                signalled.set(false);
+            }
+        }
+        return accepted;
+    }
+
+    /**
+     * Записывает все принятые лайки. Без режима отложенной записи буфер пуст и метод ничего не делает.
+     */
+    public void flush() {
+        flushing.lock();
+        try {
+            Map<Long, Boolean> batch = buffer.drain();
+            if (batch.isEmpty()) {
+                return;
+            }
+            try {
+                transactionTemplate.executeWithoutResult(status -> apply(batch));
+            } catch (RuntimeException e) {
+                buffer.restore(batch);
+                throw e;
+            }
+            buffer.complete(batch);
+        } finally {
+            flushing.unlock();
+        }
+    }
+
+    private void flushQuietly() {
+        try {
+            flush();
+        } catch (RuntimeException e) {
+            log.warn("Не удалось записать отложенные лайки, повтор через {} мс", TimeUnit.NANOSECONDS.toMillis(lagNanos), e);
+        }
+    }
+
+    /**
+     * Лайки удалённых фильмов и пользователей пропускаются, уже записанные изменения не повторяются.
+     * Граф лайков, рейтинги, окна популярности и кэш фильмов получают только изменения,
+     * которые действительно попали в БД.
+     */
+    private void apply(Map<Long, Boolean> batch) {
+        List<Long> added = new ArrayList<>();
+        List<Long> removed = new ArrayList<>();
+        batch.forEach((key, liked) -> (liked ? added : removed).add(key));
+        long now = filmTrends.now();
+        Map<Long, Long> removedAt = likeTimes(removed);
+        List<Long> inserted = write(INSERT_LIKE, added, (ps, key) -> {
+            ps.setTimestamp(1, new Timestamp(now));
+            ps.setInt(2, LikeBuffer.filmId(key));
+            ps.setInt(3, LikeBuffer.userId(key));
+        });
+        List<Long> deleted = write("DELETE FROM likes WHERE film_id = ? AND user_id = ?", removed, (ps, key) -> {
+            ps.setInt(1, LikeBuffer.filmId(key));
+            ps.setInt(2, LikeBuffer.userId(key));
+        });
+
+        Map<Integer, Integer> deltas = new HashMap<>();
+        for (long key : inserted) {
+            int filmId = LikeBuffer.filmId(key);
+            deltas.merge(filmId, 1, Integer::sum);
+            likesGraph.addLike(filmId, LikeBuffer.userId(key));
+            filmTrends.addLike(filmId, now);
+        }
+        for (long key : deleted) {
+            int filmId = LikeBuffer.filmId(key);
+            deltas.merge(filmId, -1, Integer::sum);
+            likesGraph.removeLike(filmId, LikeBuffer.userId(key));
+            filmTrends.removeLike(filmId, removedAt.get(key));
+        }
+
+        // Лайк и снятие лайка разных пользователей не меняют счётчик, но меняют набор лайков фильма,
+        // поэтому версия фильма, рейтинги и кэш обновляются и при нулевой сумме
+        jdbcTemplate.batchUpdate("UPDATE films SET likes_count = likes_count + ?, " +
+                "version = NEXT VALUE FOR entity_version WHERE film_id = ?", deltas.entrySet(), batchSize, (ps, entry) -> {
+            ps.setInt(1, entry.getValue());
+            ps.setInt(2, entry.getKey());
+        });
+        deltas.forEach(filmRankings::changeLikes);
+        filmCache.invalidateAll(List.copyOf(deltas.keySet()));
+        log.debug("Записано отложенных лайков: {}, снято: {}", inserted.size(), deleted.size());
+    }
+
+    /**
+     * @return ключи, строки которых действительно изменились
+     */
+    private List<Long> write(String sql, List<Long> keys, ParameterizedPreparedStatementSetter<Long> setter) {
+        int[][] counts = jdbcTemplate.batchUpdate(sql, keys, batchSize, setter);
+        List<Long> written = new ArrayList<>(keys.size());
+        int i = 0;
+        for (int[] chunk : counts) {
+            for (int count : chunk) {
+                long key = keys.get(i++);
+                if (count > 0) {
+                    written.add(key);
+                }
+            }
+        }
+        return written;
+    }
+
+    /**
+     * Время снимаемых лайков читается до удаления, по пачке пользователей на фильм: запрос идёт по первичному ключу.
+     */
+    private Map<Long, Long> likeTimes(List<Long> keys) {
+        Map<Integer, List<Integer>> usersByFilm = new HashMap<>();
+        keys.forEach(key -> usersByFilm.computeIfAbsent(LikeBuffer.filmId(key), id -> new ArrayList<>()).add(LikeBuffer.userId(key)));
+        Map<Long, Long> times = new HashMap<>(keys.size() * 2);
+        usersByFilm.forEach((filmId, userIds) -> {
+            for (int from = 0; from < userIds.size(); from += batchSize) {
+                List<Integer> chunk = userIds.subList(from, Math.min(from + batchSize, userIds.size()));
+                List<Object> args = new ArrayList<>(chunk.size() + 1);
+                args.add(filmId);
+                args.addAll(chunk);
+                jdbcTemplate.query("SELECT user_id, created_at FROM likes WHERE film_id = ? AND user_id IN (" +
+                                String.join(", ", Collections.nCopies(chunk.size(), "?")) + ")",
+                        (RowCallbackHandler) rs -> times.put(LikeBuffer.key(filmId, rs.getInt("user_id")),
+                                rs.getTimestamp("created_at").getTime()),
+                        args.toArray());
+            }
+        });
+        return times;
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        Gauge.builder("filmorate.likes.pending", buffer, LikeBuffer::size)
+                .description("Принятые, но ещё не записанные в БД лайки")
+                .register(registry);
+    }
+}
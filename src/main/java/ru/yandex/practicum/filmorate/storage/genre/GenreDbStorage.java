@@ -1,5 +1,6 @@
 package ru.yandex.practicum.filmorate.storage.genre;
 
+import jakarta.annotation.PostConstruct;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.stereotype.Repository;
@@ -9,10 +10,17 @@ import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.atomic.AtomicLong;
 
+/**
+ * Жанры читаются из БД при старте приложения и хранятся в неизменяемом снимке с доступом по индексу id,
+ * так что ни один запрос не обращается за ними к БД. После {@link #invalidate()} снимок перечитывается при первом обращении.
+ */
 @Repository
 public class GenreDbStorage implements GenreStorage {
     private final JdbcTemplate jdbcTemplate;
+    private final AtomicLong loads = new AtomicLong();
+    private volatile Snapshot snapshot;
 
     @Autowired
     public GenreDbStorage(JdbcTemplate jdbcTemplate) {
@@ -21,17 +29,66 @@ public class GenreDbStorage implements GenreStorage {
 
     @Override
     public List<Genre> getAllGenres() {
-        String sql = "SELECT * FROM genre ORDER BY id";
-        return jdbcTemplate.query(sql, this::mapRowToGenre);
+        return snapshot().genres().stream()
+                .map(this::copyOf)
+                .toList();
     }
 
     @Override
     public Optional<Genre> getGenreById(int id) {
-        String sql = "SELECT * FROM genre WHERE id = ?";
-        return jdbcTemplate.query(sql, this::mapRowToGenre, id).stream().findFirst();
+        Genre[] byId = snapshot().byId();
+        if (id < 0 || id >= byId.length || byId[id] == null) {
+            return Optional.empty();
+        }
+        return Optional.of(copyOf(byId[id]));
+    }
+
+    @Override
+    public long getVersion() {
+        return snapshot().version();
+    }
+
+    @PostConstruct
+    void preload() {
+        snapshot = load();
+    }
+
+    @Override
+    public void invalidate() {
+        snapshot = null;
+    }
+
+    private Snapshot snapshot() {
+        Snapshot current = snapshot;
+        if (current == null) {
+            synchronized (this) {
+                current = snapshot;
+                if (current == null) {
+                    current = load();
+                    snapshot = current;
+                }
+            }
+        }
+        return current;
+    }
+
+    private Snapshot load() {
+        String sql = "SELECT * FROM genre ORDER BY id";
+        List<Genre> genres = List.copyOf(jdbcTemplate.query(sql, this::mapRowToGenre));
+        int maxId = genres.isEmpty() ? -1 : genres.get(genres.size() - 1).getId();
+        Genre[] byId = new Genre[maxId + 1];
+        genres.forEach(genre -> byId[genre.getId()] = genre);
+        return new Snapshot(genres, byId, loads.incrementAndGet());
+    }
+
+    private Genre copyOf(Genre genre) {
+        return new Genre(genre.getId(), genre.getName());
     }
 
     private Genre mapRowToGenre(ResultSet rs, int rowNum) throws SQLException {
         return new Genre(rs.getInt("id"), rs.getString("name"));
     }
-}
\ No newline at end of file
+
+    private record Snapshot(List<Genre> genres, Genre[] byId, long version) {
+    }
+}
@@ -1,5 +1,6 @@
 package ru.yandex.practicum.filmorate.storage.mpa;
 
+import jakarta.annotation.PostConstruct;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.stereotype.Repository;
@@ -9,10 +10,17 @@ import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.atomic.AtomicLong;
 
+/**
+ * Рейтинги MPA читаются из БД при старте приложения и хранятся в неизменяемом снимке с доступом по индексу id,
+ * так что ни один запрос не обращается за ними к БД. После {@link #invalidate()} снимок перечитывается при первом обращении.
+ */
 @Repository
 public class MpaDbStorage implements MpaStorage {
     private final JdbcTemplate jdbcTemplate;
+    private final AtomicLong loads = new AtomicLong();
+    private volatile Snapshot snapshot;
 
     @Autowired
     public MpaDbStorage(JdbcTemplate jdbcTemplate) {
@@ -21,14 +29,60 @@ public class MpaDbStorage implements MpaStorage {
 
     @Override
     public List<Mpa> getAllMpaRatings() {
-        String sql = "SELECT * FROM mpa";
-        return jdbcTemplate.query(sql, this::mapRowToMpa);
+        return snapshot().ratings().stream()
+                .map(this::copyOf)
+                .toList();
     }
 
     @Override
     public Optional<Mpa> getMpaById(int id) {
-        String sql = "SELECT * FROM mpa WHERE id = ?";
-        return jdbcTemplate.query(sql, this::mapRowToMpa, id).stream().findFirst();
+        Mpa[] byId = snapshot().byId();
+        if (id < 0 || id >= byId.length || byId[id] == null) {
+            return Optional.empty();
+        }
+        return Optional.of(copyOf(byId[id]));
+    }
+
+    @Override
+    public long getVersion() {
+        return snapshot().version();
+    }
+
+    @PostConstruct
+    void preload() {
+        snapshot = load();
+    }
+
+    @Override
+    public void invalidate() {
+        snapshot = null;
+    }
+
+    private Snapshot snapshot() {
+        Snapshot current = snapshot;
+        if (current == null) {
+            synchronized (this) {
+                current = snapshot;
+                if (current == null) {
+                    current = load();
+                    snapshot = current;
+                }
+            }
+        }
+        return current;
+    }
+
+    private Snapshot load() {
+        String sql = "SELECT * FROM mpa ORDER BY id";
+        List<Mpa> ratings = List.copyOf(jdbcTemplate.query(sql, this::mapRowToMpa));
+        int maxId = ratings.isEmpty() ? -1 : ratings.get(ratings.size() - 1).getId();
+        Mpa[] byId = new Mpa[maxId + 1];
+        ratings.forEach(mpa -> byId[mpa.getId()] = mpa);
+        return new Snapshot(ratings, byId, loads.incrementAndGet());
+    }
+
+    private Mpa copyOf(Mpa mpa) {
+        return new Mpa(mpa.getName(), mpa.getId());
     }
 
     private Mpa mapRowToMpa(ResultSet rs, int rowNum) throws SQLException {
@@ -37,4 +91,7 @@ public class MpaDbStorage implements MpaStorage {
         mpa.setName(rs.getString("name"));
         return mpa;
     }
-}
\ No newline at end of file
+
+    private record Snapshot(List<Mpa> ratings, Mpa[] byId, long version) {
+    }
+}
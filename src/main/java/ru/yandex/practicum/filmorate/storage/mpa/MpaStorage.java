@@ -9,4 +9,14 @@ public interface MpaStorage {
     List<Mpa> getAllMpaRatings();
 
     Optional<Mpa> getMpaById(int id);
+
+    /**
+     * @return номер снимка справочника: меняется при каждом перечитывании из БД
+     */
+    long getVersion();
+
+    /**
+     * Сбрасывает закэшированный справочник, следующее обращение перечитает его из БД.
+     */
+    void invalidate();
 }
\ No newline at end of file
@@ -0,0 +1,199 @@
+package ru.yandex.practicum.filmorate.storage.user;
+
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.stereotype.Component;
+import ru.yandex.practicum.filmorate.storage.AfterCommit;
+import ru.yandex.practicum.filmorate.storage.ChangedKeys;
+import ru.yandex.practicum.filmorate.storage.SortedInts;
+
+import java.sql.PreparedStatement;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Граф дружбы в памяти: для каждого пользователя хранятся отсортированные массивы id его друзей
+ * и тех, кто добавил его в друзья. Массивы заменяются копией, поэтому чтение идёт без блокировок.
+ */
+@Slf4j
+@Component
+public class FriendsGraph {
+    private static final int[] EMPTY = SortedInts.EMPTY;
+    private static final int FETCH_SIZE = 10_000;
+    private static final int RELOAD_CHUNK_SIZE = 1000;
+    private static final String FRIENDS_BY_USER = "SELECT user_id, friend_id FROM friendship%s ORDER BY user_id, friend_id";
+    private static final String FOLLOWERS_BY_USER = "SELECT friend_id, user_id FROM friendship%s ORDER BY friend_id, user_id";
+    private final JdbcTemplate jdbcTemplate;
+    private final ReentrantLock rebuilding = new ReentrantLock();
+    private final ChangedKeys changedUsers = new ChangedKeys();
+    private final int maxPaths;
+    private volatile Graph graph = new Graph(new ConcurrentHashMap<>(), new ConcurrentHashMap<>());
+
+    private record Graph(Map<Integer, int[]> friendsByUser, Map<Integer, int[]> followersByUser) {
+    }
+
+    public FriendsGraph(JdbcTemplate jdbcTemplate,
+                        @Value("${filmorate.friend-suggestions.max-paths:100000}") int maxPaths) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.maxPaths = maxPaths;
+    }
+
+    /**
+     * Заново строит граф по таблице friendship двумя проходами по первичному ключу и индексу friend_id.
+     * Дружба, закоммиченная во время проходов, дочитывается по отмеченным пользователям перед подменой графа.
+     */
+    @PostConstruct
+    public void rebuild() {
+        rebuilding.lock();
+        try {
+            changedUsers.start();
+            Map<Integer, int[]> friendsByUser = load(jdbcTemplate, FRIENDS_BY_USER, "", List.of());
+            Map<Integer, int[]> followersByUser = load(jdbcTemplate, FOLLOWERS_BY_USER, "", List.of());
+            AfterCommit.exclusively(jdbcTemplate, pinned -> {
+                List<Integer> changed = changedUsers.finish();
+                reload(pinned, friendsByUser, FRIENDS_BY_USER, "user_id", changed);
+                reload(pinned, followersByUser, FOLLOWERS_BY_USER, "friend_id", changed);
+                graph = new Graph(friendsByUser, followersByUser);
+            });
+            log.info("Граф дружбы построен: {} пользователей с друзьями", friendsByUser.size());
+        } finally {
+            changedUsers.finish();
+            rebuilding.unlock();
+        }
+    }
+
+    private static void reload(JdbcTemplate jdbcTemplate, Map<Integer, int[]> target, String select, String column,
+                               List<Integer> ids) {
+        for (int from = 0; from < ids.size(); from += RELOAD_CHUNK_SIZE) {
+            List<Integer> chunk = ids.subList(from, Math.min(from + RELOAD_CHUNK_SIZE, ids.size()));
+            chunk.forEach(target::remove);
+            String filter = " WHERE " + column + " IN (" + String.join(", ", Collections.nCopies(chunk.size(), "?")) + ")";
+            target.putAll(load(jdbcTemplate, select, filter, chunk));
+        }
+    }
+
+    private static Map<Integer, int[]> load(JdbcTemplate jdbcTemplate, String select, String filter, List<Integer> ids) {
+        Map<Integer, int[]> result = new ConcurrentHashMap<>();
+        int[][] current = {EMPTY};
+        int[] key = {0};
+        int[] size = {0};
+        jdbcTemplate.query(connection -> {
+            PreparedStatement ps = connection.prepareStatement(select.formatted(filter));
+            for (int i = 0; i < ids.size(); i++) {
+                ps.setInt(i + 1, ids.get(i));
+            }
+            ps.setFetchSize(FETCH_SIZE);
+            return ps;
+        }, (RowCallbackHandler) rs -> {
+            int owner = rs.getInt(1);
+            if (size[0] > 0 && owner != key[0]) {
+                result.put(key[0], Arrays.copyOf(current[0], size[0]));
+                size[0] = 0;
+            }
+            key[0] = owner;
+            if (size[0] == current[0].length) {
+                current[0] = Arrays.copyOf(current[0], Math.max(16, size[0] * 2));
+            }
+            current[0][size[0]++] = rs.getInt(2);
+        });
+        if (size[0] > 0) {
+            result.put(key[0], Arrays.copyOf(current[0], size[0]));
+        }
+        return result;
+    }
+
+    public void addFriend(int userId, int friendId) {
+        AfterCommit.run(() -> {
+            changedUsers.add(userId);
+            changedUsers.add(friendId);
+            Graph g = graph;
+            g.friendsByUser().compute(userId, (id, friends) -> SortedInts.insert(friends, friendId));
+            g.followersByUser().compute(friendId, (id, followers) -> SortedInts.insert(followers, userId));
+        });
+    }
+
+    public void removeFriend(int userId, int friendId) {
+        AfterCommit.run(() -> {
+            changedUsers.add(userId);
+            changedUsers.add(friendId);
+            Graph g = graph;
+            g.friendsByUser().computeIfPresent(userId, (id, friends) -> SortedInts.remove(friends, friendId));
+            g.followersByUser().computeIfPresent(friendId, (id, followers) -> SortedInts.remove(followers, userId));
+        });
+    }
+
+    public void removeUser(int userId) {
+        AfterCommit.run(() -> {
+            Graph g = graph;
+            int[] friends = g.friendsByUser().remove(userId);
+            changedUsers.add(userId);
+            for (int friendId : friends != null ? friends : EMPTY) {
+                changedUsers.add(friendId);
+                g.followersByUser().computeIfPresent(friendId, (id, followers) -> SortedInts.remove(followers, userId));
+            }
+            int[] followers = g.followersByUser().remove(userId);
+            for (int followerId : followers != null ? followers : EMPTY) {
+                changedUsers.add(followerId);
+                g.friendsByUser().computeIfPresent(followerId, (id, list) -> SortedInts.remove(list, userId));
+            }
+        });
+    }
+
+    /**
+     * Подбирает пользователей с наибольшим числом общих друзей, ещё не добавленных в друзья.
+     * <p>
+     * Общие друзья считаются так же, как в списке общих друзей: это те, кого в друзья добавили оба.
+     * Поэтому кандидаты - остальные пользователи, добавившие в друзья кого-то из друзей пользователя.
+     * Друзья обходятся от наименее популярных, а просмотр ограничен {@code max-paths} парами,
+     * так что время ответа не растёт вместе с популярностью друзей.
+     *
+     * @return id пользователей по убыванию числа общих друзей, при равенстве - по возрастанию id
+     */
+    public List<Integer> suggest(int userId, int count) {
+        Graph g = graph;
+        int[] friends = g.friendsByUser().getOrDefault(userId, EMPTY);
+        if (friends.length == 0 || count <= 0) {
+            return List.of();
+        }
+
+        int[][] followers = new int[friends.length][];
+        for (int i = 0; i < friends.length; i++) {
+            followers[i] = g.followersByUser().getOrDefault(friends[i], EMPTY);
+        }
+        Arrays.sort(followers, Comparator.comparingInt(users -> users.length));
+
+        int[] candidates = new int[(int) Math.min(maxPaths, Arrays.stream(followers).mapToLong(users -> users.length).sum())];
+        int size = 0;
+        for (int[] users : followers) {
+            for (int i = 0; i < users.length && size < candidates.length; i++) {
+                if (users[i] != userId && Arrays.binarySearch(friends, users[i]) < 0) {
+                    candidates[size++] = users[i];
+                }
+            }
+        }
+        Arrays.sort(candidates, 0, size);
+
+        // Число общих друзей и id кандидата упакованы в long, чтобы отсортировать пары без боксинга
+        long[] mutual = new long[size];
+        int distinct = 0;
+        for (int i = 0; i < size; ) {
+            int j = i;
+            while (j < size && candidates[j] == candidates[i]) {
+                j++;
+            }
+            mutual[distinct++] = ((long) (j - i) << 32) | (Integer.MAX_VALUE - candidates[i]);
+            i = j;
+        }
+        Arrays.sort(mutual, 0, distinct);
+
+        List<Integer> ids = new ArrayList<>(Math.min(count, distinct));
+        for (int n = distinct - 1; n >= 0 && ids.size() < count; n--) {
+            ids.add(Integer.MAX_VALUE - (int) mutual[n]);
+        }
+        return ids;
+    }
+}
@@ -0,0 +1,30 @@
+package ru.yandex.practicum.filmorate.storage.user;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import ru.yandex.practicum.filmorate.model.User;
+import ru.yandex.practicum.filmorate.storage.EntityCache;
+
+/**
+ * Кэш пользователей для {@link UserDbStorage#findById}. Вес пользователя растёт с числом друзей.
+ */
+@Component
+public class UserCache extends EntityCache<User> {
+
+    public UserCache(@Value("${filmorate.cache.users.max-size:10000}") int maxSize,
+                     @Value("${filmorate.cache.users.max-weight:1000000}") long maxWeight) {
+        super("users", maxSize, maxWeight, UserCache::copyOf, user -> 1 + user.getFriends().size());
+    }
+
+    private static User copyOf(User user) {
+        User copy = User.builder()
+                .id(user.getId())
+                .email(user.getEmail())
+                .login(user.getLogin())
+                .name(user.getName())
+                .birthday(user.getBirthday())
+                .build();
+        copy.getFriends().addAll(user.getFriends());
+        return copy;
+    }
+}
@@ -1,35 +1,59 @@
 package ru.yandex.practicum.filmorate.storage.user;
 
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.BatchPreparedStatementSetter;
 import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
 import org.springframework.jdbc.support.GeneratedKeyHolder;
 import org.springframework.jdbc.support.KeyHolder;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+import ru.yandex.practicum.filmorate.model.Friendship;
 import ru.yandex.practicum.filmorate.model.User;
+import ru.yandex.practicum.filmorate.storage.film.FilmCache;
+import ru.yandex.practicum.filmorate.storage.film.FilmRankings;
+import ru.yandex.practicum.filmorate.storage.film.FilmTrends;
+import ru.yandex.practicum.filmorate.storage.film.LikesGraph;
 
 import java.sql.*;
-import java.util.Collection;
-import java.util.List;
-import java.util.Objects;
+import java.sql.Date;
+import java.util.*;
+import java.util.function.Consumer;
 
 @Repository
 public class UserDbStorage implements UserStorage {
+    private static final int FRIENDS_CHUNK_SIZE = 1000;
+    private static final String INSERT_USER = "INSERT INTO users (email, login, name, birthday) VALUES (?, ?, ?, ?)";
+    private static final String NEXT_VERSION = "version = NEXT VALUE FOR entity_version";
     private final JdbcTemplate jdbcTemplate;
+    private final int batchSize;
+    private final LikesGraph likesGraph;
+    private final FilmRankings filmRankings;
+    private final FriendsGraph friendsGraph;
+    private final UserCache userCache;
+    private final FilmCache filmCache;
+    private final FilmTrends filmTrends;
 
-    public UserDbStorage(JdbcTemplate jdbcTemplate) {
+    public UserDbStorage(JdbcTemplate jdbcTemplate, @Value("${filmorate.jdbc.batch-size:500}") int batchSize,
+                         LikesGraph likesGraph, FilmRankings filmRankings, FriendsGraph friendsGraph,
+                         UserCache userCache, FilmCache filmCache, FilmTrends filmTrends) {
         this.jdbcTemplate = jdbcTemplate;
+        this.batchSize = batchSize;
+        this.likesGraph = likesGraph;
+        this.filmRankings = filmRankings;
+        this.friendsGraph = friendsGraph;
+        this.userCache = userCache;
+        this.filmCache = filmCache;
+        this.filmTrends = filmTrends;
     }
 
     @Override
     public User add(User user) {
-        String sql = "INSERT INTO users (email, login, name, birthday) VALUES (?, ?, ?, ?)";
         KeyHolder keyHolder = new GeneratedKeyHolder();
 
         jdbcTemplate.update(connection -> {
-            PreparedStatement ps = connection.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS);
-            ps.setString(1, user.getEmail());
-            ps.setString(2, user.getLogin());
-            ps.setString(3, user.getName());
-            ps.setDate(4, Date.valueOf(user.getBirthday()));
+            PreparedStatement ps = connection.prepareStatement(INSERT_USER, new String[]{"user_id"});
+            setUserColumns(ps, user, 1);
             return ps;
         }, keyHolder);
 
@@ -37,53 +61,279 @@ public class UserDbStorage implements UserStorage {
         return user;
     }
 
+    private static void setUserColumns(PreparedStatement ps, User user, int from) throws SQLException {
+        ps.setString(from, user.getEmail());
+        ps.setString(from + 1, user.getLogin());
+        ps.setString(from + 2, user.getName());
+        ps.setDate(from + 3, Date.valueOf(user.getBirthday()));
+    }
+
+    /**
+     * Пакетная вставка для загрузки выгрузок: пользователи с id сохраняют его, остальные получают id из последовательности.
+     * Друзья пользователей не записываются - дружба загружается отдельно, а граф дружбы перестраивается
+     * в {@link #afterBulkLoad()}.
+     */
+    @Override
+    public void addAll(List<User> users) {
+        List<User> withId = users.stream().filter(user -> user.getId() != null).toList();
+        List<User> withoutId = users.stream().filter(user -> user.getId() == null).toList();
+        jdbcTemplate.batchUpdate("INSERT INTO users (user_id, email, login, name, birthday) VALUES (?, ?, ?, ?, ?)",
+                withId, batchSize, (ps, user) -> {
+                    ps.setInt(1, user.getId());
+                    setUserColumns(ps, user, 2);
+                });
+        if (withoutId.isEmpty()) {
+            return;
+        }
+        KeyHolder keyHolder = new GeneratedKeyHolder();
+        jdbcTemplate.batchUpdate(connection -> connection.prepareStatement(INSERT_USER, new String[]{"user_id"}),
+                new BatchPreparedStatementSetter() {
+                    @Override
+                    public void setValues(PreparedStatement ps, int i) throws SQLException {
+                        setUserColumns(ps, withoutId.get(i), 1);
+                    }
+
+                    @Override
+                    public int getBatchSize() {
+                        return withoutId.size();
+                    }
+                }, keyHolder);
+        List<Map<String, Object>> keys = keyHolder.getKeyList();
+        for (int i = 0; i < withoutId.size(); i++) {
+            withoutId.get(i).setId(((Number) keys.get(i).values().iterator().next()).intValue());
+        }
+    }
+
+    /**
+     * Повторная загрузка той же дружбы не считается ошибкой.
+     */
+    @Override
+    public void addFriendships(List<Friendship> friendships) {
+        jdbcTemplate.batchUpdate("MERGE INTO friendship (user_id, friend_id) KEY (user_id, friend_id) VALUES (?, ?)",
+                friendships, batchSize, (ps, friendship) -> {
+                    ps.setInt(1, friendship.getUserId());
+                    ps.setInt(2, friendship.getFriendId());
+                });
+        List<Integer> userIds = friendships.stream().map(Friendship::getUserId).distinct().toList();
+        jdbcTemplate.batchUpdate("UPDATE users SET " + NEXT_VERSION + " WHERE user_id = ?", userIds, batchSize,
+                (ps, userId) -> ps.setInt(1, userId));
+    }
+
+    /**
+     * Читает дружбу страницами по ключу (user_id, friend_id): каждая страница - короткий запрос по первичному ключу.
+     */
+    @Override
+    public void streamFriendships(Consumer<Friendship> consumer) {
+        String sql = "SELECT user_id, friend_id FROM friendship WHERE (user_id, friend_id) > (?, ?) " +
+                "ORDER BY user_id, friend_id LIMIT ?";
+        Friendship last = new Friendship(Integer.MIN_VALUE, Integer.MIN_VALUE);
+        List<Friendship> page;
+        do {
+            page = jdbcTemplate.query(sql, (rs, rowNum) -> new Friendship(rs.getInt("user_id"), rs.getInt("friend_id")),
+                    last.getUserId(), last.getFriendId(), FRIENDS_CHUNK_SIZE);
+            page.forEach(consumer);
+            if (!page.isEmpty()) {
+                last = page.get(page.size() - 1);
+            }
+        } while (page.size() == FRIENDS_CHUNK_SIZE);
+    }
+
+    /**
+     * Сдвигает последовательность id за загруженные явно id, перестраивает граф дружбы и сбрасывает кэш пользователей.
+     */
+    @Override
+    public void afterBulkLoad() {
+        userCache.clear();
+        Integer nextId = jdbcTemplate.queryForObject("SELECT COALESCE(MAX(user_id), 0) + 1 FROM users", Integer.class);
+        jdbcTemplate.execute("ALTER TABLE users ALTER COLUMN user_id RESTART WITH " + nextId);
+        friendsGraph.rebuild();
+    }
+
     @Override
     public User update(User user) {
-        String sql = "UPDATE users SET email = ?, login = ?, name = ?, birthday = ? WHERE user_id = ?";
+        String sql = "UPDATE users SET email = ?, login = ?, name = ?, birthday = ?, " + NEXT_VERSION + " WHERE user_id = ?";
         jdbcTemplate.update(sql,
                 user.getEmail(),
                 user.getLogin(),
                 user.getName(),
                 user.getBirthday(),
                 user.getId());
+        userCache.invalidate(user.getId());
         return findById(user.getId());
     }
 
     @Override
+    @Transactional
     public void delete(int id) {
+        // Лайки и дружба пользователя удалятся каскадно, поэтому счётчики и версии затронутых строк меняем заранее
+        Map<Integer, Long> likedFilms = new HashMap<>();
+        jdbcTemplate.query("SELECT film_id, created_at FROM likes WHERE user_id = ?", (RowCallbackHandler) rs ->
+                likedFilms.put(rs.getInt("film_id"), rs.getTimestamp("created_at").getTime()), id);
+        List<Integer> followers = jdbcTemplate.queryForList("SELECT user_id FROM friendship WHERE friend_id = ?", Integer.class, id);
+        jdbcTemplate.update("UPDATE films SET likes_count = likes_count - 1, " + NEXT_VERSION +
+                " WHERE film_id IN (SELECT film_id FROM likes WHERE user_id = ?)", id);
+        jdbcTemplate.update("UPDATE users SET " + NEXT_VERSION +
+                " WHERE user_id IN (SELECT user_id FROM friendship WHERE friend_id = ?)", id);
         jdbcTemplate.update("DELETE FROM users WHERE user_id = ?", id);
+        jdbcTemplate.update("DELETE FROM events WHERE user_id = ?", id);
+        userCache.invalidate(id);
+        userCache.invalidateAll(followers);
+        filmCache.invalidateAll(List.copyOf(likedFilms.keySet()));
+        likesGraph.removeUser(id);
+        friendsGraph.removeUser(id);
+        likedFilms.forEach((filmId, createdAt) -> {
+            filmRankings.changeLikes(filmId, -1);
+            filmTrends.removeLike(filmId, createdAt);
+        });
     }
 
     @Override
     public User findById(int id) {
+        return userCache.get(id, this::loadById);
+    }
+
+    private User loadById(int id) {
         String sql = "SELECT * FROM users WHERE user_id = ?";
         List<User> users = jdbcTemplate.query(sql, this::mapRowToUser, id);
         if (users.isEmpty()) {
             return null;
         }
-        User user = users.get(0);
-        loadFriends(user);
-        return user;
+        loadFriends(users);
+        return users.get(0);
+    }
+
+    @Override
+    public Long findVersion(int id) {
+        List<Long> versions = jdbcTemplate.queryForList("SELECT version FROM users WHERE user_id = ?", Long.class, id);
+        return versions.isEmpty() ? null : versions.get(0);
+    }
+
+    @Override
+    public boolean exists(int id) {
+        String sql = "SELECT EXISTS (SELECT 1 FROM users WHERE user_id = ?)";
+        return Boolean.TRUE.equals(jdbcTemplate.queryForObject(sql, Boolean.class, id));
     }
 
     @Override
     public Collection<User> findAll() {
         String sql = "SELECT * FROM users";
         List<User> users = jdbcTemplate.query(sql, this::mapRowToUser);
-        users.forEach(this::loadFriends);
+        Map<Integer, User> usersById = indexById(users);
+        if (!usersById.isEmpty()) {
+            loadFriends(usersById, "");
+        }
         return users;
     }
 
     @Override
+    public List<User> findPage(int afterId, int limit) {
+        String sql = "SELECT * FROM users WHERE user_id > ? ORDER BY user_id LIMIT ?";
+        List<User> users = jdbcTemplate.query(sql, this::mapRowToUser, afterId, limit);
+        loadFriends(users);
+        return users;
+    }
+
+    /**
+     * Пользователи берутся из кэша, промахи читаются вместе с друзьями двумя запросами
+     * на пачку по {@link #FRIENDS_CHUNK_SIZE} id.
+     */
+    @Override
+    public List<User> findByIds(List<Integer> ids) {
+        Map<Integer, User> usersById = userCache.getAll(ids, this::findAllById, User::getId);
+        return ids.stream().map(usersById::get).filter(Objects::nonNull).toList();
+    }
+
+    /**
+     * Читает пользователей страницами по ключу ({@link #findPage}) по {@link #FRIENDS_CHUNK_SIZE}, так что в памяти
+     * одновременно находится не больше одной страницы. Курсор с fetchSize этого не даёт: H2 без
+     * LAZY_QUERY_EXECUTION строит весь результат запроса в памяти. Соединение занято только на время страницы.
+     */
+    @Override
+    public void streamAll(Consumer<User> consumer) {
+        int afterId = Integer.MIN_VALUE;
+        List<User> page;
+        do {
+            page = findPage(afterId, FRIENDS_CHUNK_SIZE);
+            page.forEach(consumer);
+            if (!page.isEmpty()) {
+                afterId = page.get(page.size() - 1).getId();
+            }
+        } while (page.size() == FRIENDS_CHUNK_SIZE);
+    }
+
+    @Override
+    @Transactional
     public void addFriend(int userId, int friendId) {
         String sql = "INSERT INTO friendship (user_id, friend_id) VALUES (?, ?)";
         jdbcTemplate.update(sql, userId, friendId);
+        jdbcTemplate.update("UPDATE users SET " + NEXT_VERSION + " WHERE user_id = ?", userId);
+        userCache.invalidate(userId);
+        friendsGraph.addFriend(userId, friendId);
     }
 
     @Override
-    public void removeFriend(int userId, int friendId) {
+    @Transactional
+    public boolean removeFriend(int userId, int friendId) {
         String sql = "DELETE FROM friendship WHERE user_id = ? AND friend_id = ?";
-        jdbcTemplate.update(sql, userId, friendId);
+        if (jdbcTemplate.update(sql, userId, friendId) == 0) {
+            return false;
+        }
+        jdbcTemplate.update("UPDATE users SET " + NEXT_VERSION + " WHERE user_id = ?", userId);
+        userCache.invalidate(userId);
+        friendsGraph.removeFriend(userId, friendId);
+        return true;
+    }
+
+    @Override
+    public List<User> getFriends(int userId) {
+        String sql = "SELECT u.* FROM users u JOIN friendship f ON f.friend_id = u.user_id " +
+                "WHERE f.user_id = ? ORDER BY u.user_id";
+        List<User> friends = jdbcTemplate.query(sql, this::mapRowToUser, userId);
+        loadFriends(friends);
+        return friends;
+    }
+
+    @Override
+    public List<User> getCommonFriends(int userId, int otherUserId) {
+        String sql = "SELECT u.* FROM users u " +
+                "JOIN friendship f1 ON f1.friend_id = u.user_id AND f1.user_id = ? " +
+                "JOIN friendship f2 ON f2.friend_id = u.user_id AND f2.user_id = ? " +
+                "ORDER BY u.user_id";
+        List<User> friends = jdbcTemplate.query(sql, this::mapRowToUser, userId, otherUserId);
+        loadFriends(friends);
+        return friends;
+    }
+
+    /**
+     * Кандидаты считаются по графу дружбы в памяти, из БД читаются только сами пользователи.
+     */
+    @Override
+    public List<User> findFriendSuggestions(int userId, int count) {
+        return findAllById(friendsGraph.suggest(userId, count));
+    }
+
+    /**
+     * Загружает пользователей по списку id одним запросом на пачку и возвращает их в порядке списка.
+     */
+    private List<User> findAllById(List<Integer> ids) {
+        Map<Integer, User> usersById = new HashMap<>(ids.size() * 2);
+        for (int from = 0; from < ids.size(); from += FRIENDS_CHUNK_SIZE) {
+            Object[] chunk = ids.subList(from, Math.min(from + FRIENDS_CHUNK_SIZE, ids.size())).toArray();
+            String sql = "SELECT * FROM users WHERE user_id IN (" + String.join(", ", Collections.nCopies(chunk.length, "?")) + ")";
+            jdbcTemplate.query(sql, (RowCallbackHandler) rs -> {
+                User user = mapRowToUser(rs, rs.getRow());
+                usersById.put(user.getId(), user);
+            }, chunk);
+        }
+        List<User> users = new ArrayList<>(usersById.size());
+        for (Integer id : ids) {
+            User user = usersById.get(id);
+            if (user != null) {
+                users.add(user);
+            }
+        }
+        loadFriends(users);
+        return users;
     }
 
     private User mapRowToUser(ResultSet rs, int rowNum) throws SQLException {
@@ -96,9 +346,29 @@ public class UserDbStorage implements UserStorage {
                 .build();
     }
 
-    private void loadFriends(User user) {
-        String sql = "SELECT friend_id FROM friendship WHERE user_id = ?";
-        List<Integer> friends = jdbcTemplate.queryForList(sql, Integer.class, user.getId());
-        user.getFriends().addAll(friends);
+    private void loadFriends(List<User> users) {
+        Map<Integer, User> usersById = indexById(users);
+        List<Integer> ids = new ArrayList<>(usersById.keySet());
+        for (int from = 0; from < ids.size(); from += FRIENDS_CHUNK_SIZE) {
+            Object[] chunk = ids.subList(from, Math.min(from + FRIENDS_CHUNK_SIZE, ids.size())).toArray();
+            String in = String.join(", ", Collections.nCopies(chunk.length, "?"));
+            loadFriends(usersById, "WHERE user_id IN (" + in + ")", chunk);
+        }
+    }
+
+    private Map<Integer, User> indexById(List<User> users) {
+        Map<Integer, User> usersById = new HashMap<>(users.size() * 2);
+        users.forEach(user -> usersById.put(user.getId(), user));
+        return usersById;
+    }
+
+    private void loadFriends(Map<Integer, User> usersById, String where, Object... args) {
+        String sql = "SELECT user_id, friend_id FROM friendship " + where;
+        jdbcTemplate.query(sql, (RowCallbackHandler) rs -> {
+            User user = usersById.get(rs.getInt("user_id"));
+            if (user != null) {
+                user.getFriends().add(rs.getInt("friend_id"));
+            }
+        }, args);
     }
-}
\ No newline at end of file
+}
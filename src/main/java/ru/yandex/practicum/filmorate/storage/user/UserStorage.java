@@ -1,8 +1,12 @@
 package ru.yandex.practicum.filmorate.storage.user;
 
+import ru.yandex.practicum.filmorate.model.Friendship;
 import ru.yandex.practicum.filmorate.model.User;
 
 import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+import java.util.function.Consumer;
 
 public interface UserStorage {
     User add(User user);
@@ -13,9 +17,62 @@ public interface UserStorage {
 
     User findById(int id);
 
+    /**
+     * Поиск без исключений: отсутствие пользователя - обычный результат, а не ошибка.
+     */
+    default Optional<User> find(int id) {
+        return Optional.ofNullable(findById(id));
+    }
+
+    /**
+     * Версия меняется при каждой записи пользователя или его списка друзей.
+     *
+     * @return версия пользователя или {@code null}, если пользователя нет
+     */
+    Long findVersion(int id);
+
+    boolean exists(int id);
+
     Collection<User> findAll();
 
+    List<User> findPage(int afterId, int limit);
+
+    /**
+     * Загружает пользователей по списку id постоянным числом запросов при любой длине списка.
+     *
+     * @return найденные пользователи в порядке списка, отсутствующие id пропускаются
+     */
+    List<User> findByIds(List<Integer> ids);
+
+    void streamAll(Consumer<User> consumer);
+
     void addFriend(int userId, int friendId);
 
-    void removeFriend(int userId, int friendId);
+    /**
+     * @return {@code false}, если дружбы не было
+     */
+    boolean removeFriend(int userId, int friendId);
+
+    List<User> getFriends(int userId);
+
+    List<User> getCommonFriends(int userId, int otherUserId);
+
+    /**
+     * @return пользователи с наибольшим числом общих друзей, которых пользователь ещё не добавил в друзья
+     */
+    List<User> findFriendSuggestions(int userId, int count);
+
+    /**
+     * Пакетная вставка пользователей без их друзей.
+     */
+    void addAll(List<User> users);
+
+    void addFriendships(List<Friendship> friendships);
+
+    void streamFriendships(Consumer<Friendship> consumer);
+
+    /**
+     * Приводит в порядок последовательность id после пакетной загрузки.
+     */
+    void afterBulkLoad();
 }
\ No newline at end of file
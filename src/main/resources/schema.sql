@@ -10,15 +10,22 @@ CREATE TABLE IF NOT EXISTS genre
     name VARCHAR(50) NOT NULL UNIQUE
 );
 
+-- Версии строк films и users берутся из общей последовательности и меняются при каждой записи,
+-- поэтому пара (id, версия) не повторяется и после удаления и повторной вставки с тем же id.
+CREATE SEQUENCE IF NOT EXISTS entity_version;
+
 CREATE TABLE IF NOT EXISTS users
 (
     user_id  INTEGER GENERATED BY DEFAULT AS IDENTITY PRIMARY KEY,
     email    VARCHAR(255) NOT NULL UNIQUE,
     login    VARCHAR(50)  NOT NULL UNIQUE,
     name     VARCHAR(100),
-    birthday DATE         NOT NULL
+    birthday DATE         NOT NULL,
+    version  BIGINT       NOT NULL DEFAULT NEXT VALUE FOR entity_version
 );
 
+ALTER TABLE users ADD COLUMN IF NOT EXISTS version BIGINT NOT NULL DEFAULT NEXT VALUE FOR entity_version;
+
 CREATE TABLE IF NOT EXISTS films
 (
     film_id      INTEGER GENERATED BY DEFAULT AS IDENTITY PRIMARY KEY,
@@ -26,9 +33,17 @@ CREATE TABLE IF NOT EXISTS films
     description  VARCHAR(200),
     release_date DATE         NOT NULL,
     duration     INTEGER      NOT NULL,
-    mpa_id       INTEGER REFERENCES mpa (id)
+    mpa_id       INTEGER REFERENCES mpa (id),
+    likes_count  INTEGER      NOT NULL DEFAULT 0,
+    version      BIGINT       NOT NULL DEFAULT NEXT VALUE FOR entity_version
 );
 
+ALTER TABLE films ADD COLUMN IF NOT EXISTS likes_count INTEGER NOT NULL DEFAULT 0;
+
+ALTER TABLE films ADD COLUMN IF NOT EXISTS version BIGINT NOT NULL DEFAULT NEXT VALUE FOR entity_version;
+
+CREATE INDEX IF NOT EXISTS idx_films_popularity ON films (likes_count DESC, film_id);
+
 CREATE TABLE IF NOT EXISTS friendship
 (
     user_id   INTEGER NOT NULL REFERENCES users (user_id) ON DELETE CASCADE,
@@ -45,7 +60,35 @@ CREATE TABLE IF NOT EXISTS film_genre
 
 CREATE TABLE IF NOT EXISTS likes
 (
-    film_id INTEGER NOT NULL REFERENCES films (film_id) ON DELETE CASCADE,
-    user_id INTEGER NOT NULL REFERENCES users (user_id) ON DELETE CASCADE,
+    film_id    INTEGER   NOT NULL REFERENCES films (film_id) ON DELETE CASCADE,
+    user_id    INTEGER   NOT NULL REFERENCES users (user_id) ON DELETE CASCADE,
+    created_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP,
     PRIMARY KEY (film_id, user_id)
-);
\ No newline at end of file
+);
+
+-- Время лайков, поставленных до появления столбца, неизвестно: они считаются давними и не попадают в окна популярности.
+ALTER TABLE likes ADD COLUMN IF NOT EXISTS created_at TIMESTAMP NOT NULL DEFAULT TIMESTAMP '1970-01-01 00:00:00';
+
+ALTER TABLE likes ALTER COLUMN created_at SET DEFAULT CURRENT_TIMESTAMP;
+
+-- Обратные индексы: лайки пользователя, входящие заявки в друзья и фильмы жанра.
+-- Нужны и для каскадного удаления по внешним ключам, а не только для выборок.
+CREATE INDEX IF NOT EXISTS idx_likes_user ON likes (user_id, film_id);
+
+CREATE INDEX IF NOT EXISTS idx_friendship_friend ON friendship (friend_id, user_id);
+
+CREATE INDEX IF NOT EXISTS idx_film_genre_genre ON film_genre (genre_id, film_id);
+
+-- Журнал ленты только дописывается фоновым потоком. Внешних ключей нет: событие может прийти
+-- в журнал уже после удаления своего фильма и не должно отклонять весь пакет.
+CREATE TABLE IF NOT EXISTS events
+(
+    event_id        BIGINT GENERATED BY DEFAULT AS IDENTITY PRIMARY KEY,
+    user_id         INTEGER     NOT NULL,
+    event_type      VARCHAR(10) NOT NULL,
+    operation       VARCHAR(10) NOT NULL,
+    entity_id       INTEGER     NOT NULL,
+    event_timestamp BIGINT      NOT NULL
+);
+
+CREATE INDEX IF NOT EXISTS idx_events_user ON events (user_id, event_id);
@@ -0,0 +1,150 @@
+package ru.yandex.practicum.filmorate;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
+import org.springframework.boot.test.autoconfigure.jdbc.JdbcTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.TestPropertySource;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+import org.springframework.transaction.CannotCreateTransactionException;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import ru.yandex.practicum.filmorate.config.BoundedDataSource;
+import ru.yandex.practicum.filmorate.config.JdbcConcurrencyConfig;
+import ru.yandex.practicum.filmorate.controller.UserController;
+import ru.yandex.practicum.filmorate.exception.GlobalExceptionHandler;
+import ru.yandex.practicum.filmorate.model.User;
+import ru.yandex.practicum.filmorate.service.FeedService;
+import ru.yandex.practicum.filmorate.service.UserService;
+import ru.yandex.practicum.filmorate.storage.event.EventDbStorage;
+import ru.yandex.practicum.filmorate.storage.film.FilmCache;
+import ru.yandex.practicum.filmorate.storage.film.FilmDbStorage;
+import ru.yandex.practicum.filmorate.storage.film.FilmRankings;
+import ru.yandex.practicum.filmorate.storage.film.FilmSearchIndex;
+import ru.yandex.practicum.filmorate.storage.film.FilmTrends;
+import ru.yandex.practicum.filmorate.storage.film.LikesGraph;
+import ru.yandex.practicum.filmorate.storage.film.WriteBehindLikes;
+import ru.yandex.practicum.filmorate.storage.user.FriendsGraph;
+import ru.yandex.practicum.filmorate.storage.user.UserCache;
+import ru.yandex.practicum.filmorate.storage.user.UserDbStorage;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.put;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+/**
+ * Ограничитель с одним разрешением: пока тест держит соединение, любая транзакция ждёт и получает отказ,
+ * а путь, которому нужны два соединения сразу, не проходит вовсе.
+ */
+@JdbcTest
+@AutoConfigureTestDatabase
+@Import({JdbcConcurrencyConfig.class, UserService.class, FeedService.class, EventDbStorage.class,
+        FilmDbStorage.class, UserDbStorage.class, LikesGraph.class, FilmRankings.class, FilmSearchIndex.class,
+        WriteBehindLikes.class, FriendsGraph.class, FilmCache.class, FilmTrends.class, UserCache.class})
+@TestPropertySource(properties = {"filmorate.jdbc.max-concurrency=1", "filmorate.jdbc.acquire-timeout=100ms"})
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+class BoundedDataSourceTest {
+
+    @Autowired
+    private DataSource dataSource;
+    @Autowired
+    private UserService userService;
+    @Autowired
+    private UserDbStorage userStorage;
+    @Autowired
+    private FilmDbStorage filmStorage;
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+    private MockMvc mockMvc;
+
+    @BeforeEach
+    void setUp() {
+        jdbcTemplate.update("DELETE FROM likes");
+        jdbcTemplate.update("DELETE FROM friendship");
+        jdbcTemplate.update("DELETE FROM film_genre");
+        jdbcTemplate.update("DELETE FROM films");
+        jdbcTemplate.update("DELETE FROM users");
+        jdbcTemplate.update("MERGE INTO mpa (id, name) KEY (id) VALUES (1, 'G')");
+        mockMvc = MockMvcBuilders.standaloneSetup(new UserController(userService, new ObjectMapper()))
+                .setControllerAdvice(new GlobalExceptionHandler())
+                .build();
+    }
+
+    @Test
+    void testTransactionalWriteIsRejectedWith503WhenBulkheadIsFull() throws Exception {
+        User user = addUser("user");
+        User friend = addUser("friend");
+        // Прогрев кэша пользователей: под нагрузкой до БД доходит только транзакционная запись дружбы
+        userService.getUserOrThrow(user.getId());
+        userService.getUserOrThrow(friend.getId());
+        BoundedDataSource bounded = assertInstanceOf(BoundedDataSource.class, dataSource);
+
+        try (Connection ignored = dataSource.getConnection()) {
+            assertEquals(1, bounded.getActive());
+            assertThrows(CannotCreateTransactionException.class,
+                    () -> userStorage.addFriend(user.getId(), friend.getId()));
+            mockMvc.perform(put("/users/{id}/friends/{friendId}", user.getId(), friend.getId()))
+                    .andExpect(status().isServiceUnavailable())
+                    .andExpect(jsonPath("$.message").value("Сервис перегружен, повторите запрос позже"));
+        }
+
+        assertEquals(0, bounded.getActive());
+        mockMvc.perform(put("/users/{id}/friends/{friendId}", user.getId(), friend.getId()))
+                .andExpect(status().isOk());
+        assertEquals(1, userStorage.getFriends(user.getId()).size());
+    }
+
+    @Test
+    void testStreamingExportHoldsOneConnection() {
+        // Больше одной страницы: следующая читается по ключу последней строки предыдущей
+        int rows = 1001;
+        List<Object[]> users = new ArrayList<>();
+        List<Object[]> films = new ArrayList<>();
+        for (int i = 0; i < rows; i++) {
+            users.add(new Object[]{"user" + i + "@mail.ru", "user" + i});
+            films.add(new Object[]{"Фильм " + i});
+        }
+        jdbcTemplate.batchUpdate("INSERT INTO users (email, login, birthday) VALUES (?, ?, DATE '1990-01-01')", users);
+        jdbcTemplate.batchUpdate("INSERT INTO films (name, release_date, duration, mpa_id) " +
+                "VALUES (?, DATE '2000-01-01', 90, 1)", films);
+
+        // Все пользователи лайкают один фильм и дружат с первым: страницы различаются только вторым столбцом ключа
+        List<Integer> userIds = jdbcTemplate.queryForList("SELECT user_id FROM users ORDER BY user_id", Integer.class);
+        int filmId = jdbcTemplate.queryForObject("SELECT MIN(film_id) FROM films", Integer.class);
+        jdbcTemplate.batchUpdate("INSERT INTO likes (film_id, user_id) VALUES (?, ?)", userIds, rows,
+                (ps, userId) -> {
+                    ps.setInt(1, filmId);
+                    ps.setInt(2, userId);
+                });
+        jdbcTemplate.batchUpdate("INSERT INTO friendship (user_id, friend_id) VALUES (?, ?)", userIds, rows,
+                (ps, userId) -> {
+                    boolean first = userId.equals(userIds.get(0));
+                    ps.setInt(1, first ? userIds.get(1) : userId);
+                    ps.setInt(2, first ? userIds.get(2) : userIds.get(0));
+                });
+
+        int[] streamed = {0, 0, 0, 0};
+        userStorage.streamAll(user -> streamed[0]++);
+        filmStorage.streamAll(film -> streamed[1]++);
+        filmStorage.streamLikes(like -> streamed[2]++);
+        userStorage.streamFriendships(friendship -> streamed[3]++);
+        assertArrayEquals(new int[]{rows, rows, rows, rows}, streamed);
+    }
+
+    private User addUser(String login) {
+        return userStorage.add(User.builder().email(login + "@mail.ru").login(login)
+                .birthday(LocalDate.of(1990, 1, 1)).build());
+    }
+}
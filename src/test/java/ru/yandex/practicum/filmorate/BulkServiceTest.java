@@ -0,0 +1,157 @@
+package ru.yandex.practicum.filmorate;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.ImportAutoConfiguration;
+import org.springframework.boot.autoconfigure.jackson.JacksonAutoConfiguration;
+import org.springframework.boot.autoconfigure.validation.ValidationAutoConfiguration;
+import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
+import org.springframework.boot.test.autoconfigure.jdbc.JdbcTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.TestPropertySource;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import ru.yandex.practicum.filmorate.model.BulkReport;
+import ru.yandex.practicum.filmorate.model.Film;
+import ru.yandex.practicum.filmorate.model.Genre;
+import ru.yandex.practicum.filmorate.model.Like;
+import ru.yandex.practicum.filmorate.model.Mpa;
+import ru.yandex.practicum.filmorate.service.BulkService;
+import ru.yandex.practicum.filmorate.storage.film.FilmCache;
+import ru.yandex.practicum.filmorate.storage.film.FilmDbStorage;
+import ru.yandex.practicum.filmorate.storage.film.FilmRankings;
+import ru.yandex.practicum.filmorate.storage.film.FilmSearchIndex;
+import ru.yandex.practicum.filmorate.storage.film.FilmTrends;
+import ru.yandex.practicum.filmorate.storage.film.LikesGraph;
+import ru.yandex.practicum.filmorate.storage.film.WriteBehindLikes;
+import ru.yandex.practicum.filmorate.storage.genre.GenreDbStorage;
+import ru.yandex.practicum.filmorate.storage.mpa.MpaDbStorage;
+import ru.yandex.practicum.filmorate.storage.user.FriendsGraph;
+import ru.yandex.practicum.filmorate.storage.user.UserCache;
+import ru.yandex.practicum.filmorate.storage.user.UserDbStorage;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Пачки пишутся в собственных транзакциях, поэтому тест работает без общей транзакции и чистит таблицы сам.
+ */
+@JdbcTest
+@AutoConfigureTestDatabase
+@ImportAutoConfiguration({JacksonAutoConfiguration.class, ValidationAutoConfiguration.class})
+@Import({BulkService.class, FilmDbStorage.class, UserDbStorage.class, LikesGraph.class, FilmRankings.class,
+        FilmSearchIndex.class, WriteBehindLikes.class, FriendsGraph.class, FilmCache.class, FilmTrends.class,
+        UserCache.class, GenreDbStorage.class, MpaDbStorage.class})
+@TestPropertySource(properties = "filmorate.bulk.chunk-size=2")
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+class BulkServiceTest {
+
+    @Autowired
+    private BulkService bulkService;
+    @Autowired
+    private FilmDbStorage filmStorage;
+    @Autowired
+    private GenreDbStorage genreStorage;
+    @Autowired
+    private MpaDbStorage mpaStorage;
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @BeforeEach
+    void setUp() {
+        jdbcTemplate.update("DELETE FROM likes");
+        jdbcTemplate.update("DELETE FROM friendship");
+        jdbcTemplate.update("DELETE FROM film_genre");
+        jdbcTemplate.update("DELETE FROM films");
+        jdbcTemplate.update("DELETE FROM users");
+        jdbcTemplate.update("MERGE INTO mpa (id, name) KEY (id) VALUES (1, 'G')");
+        jdbcTemplate.update("MERGE INTO genre (id, name) KEY (id) VALUES (1, 'Комедия')");
+        genreStorage.invalidate();
+        mpaStorage.invalidate();
+    }
+
+    @Test
+    void testImportReportsRejectedLinesPerChunk() throws IOException {
+        BulkReport report = bulkService.importFilms(ndjson(
+                "{\"id\":100,\"name\":\"Первый\",\"releaseDate\":\"2000-01-01\",\"duration\":90,\"mpa\":{\"id\":1},\"genres\":[{\"id\":1}]}",
+                "{\"name\":\"Без рейтинга\",\"releaseDate\":\"2000-01-01\",\"duration\":90,\"mpa\":{\"id\":99}}",
+                "",
+                "{\"name\":",
+                "{\"name\":\"Второй\",\"releaseDate\":\"2001-01-01\",\"duration\":100,\"mpa\":{\"id\":1}}"));
+
+        assertEquals(2, report.getImported());
+        assertEquals(2, report.getRejected());
+        assertEquals(2, report.getFailedChunks().size());
+        assertEquals(1, report.getFailedChunks().get(0).getFirstLine());
+        assertEquals(2, report.getFailedChunks().get(0).getLastLine());
+        assertTrue(report.getFailedChunks().get(0).getErrors().get(0).startsWith("Строка 2: "));
+        assertTrue(report.getFailedChunks().get(1).getErrors().get(0).startsWith("Строка 4: некорректный JSON"));
+
+        Film first = filmStorage.findById(100);
+        assertEquals(Set.of(new Genre(1, "Комедия")), first.getGenres());
+        Film added = filmStorage.add(Film.builder().name("После загрузки").releaseDate(LocalDate.of(2002, 1, 1))
+                .duration(90).mpa(new Mpa("G", 1)).build());
+        assertTrue(added.getId() > 100);
+        assertEquals(List.of(100), filmStorage.search("первый", true, false, 10).stream().map(Film::getId).toList());
+    }
+
+    @Test
+    void testFailedChunkIsRolledBackAndOthersAreKept() throws IOException {
+        bulkService.importUsers(ndjson(
+                "{\"id\":1,\"email\":\"first@mail.ru\",\"login\":\"first\",\"birthday\":\"1990-01-01\"}",
+                "{\"id\":2,\"email\":\"second@mail.ru\",\"login\":\"second\",\"birthday\":\"1990-01-01\"}"));
+        bulkService.importFilms(ndjson(
+                "{\"id\":1,\"name\":\"Фильм\",\"releaseDate\":\"2000-01-01\",\"duration\":90,\"mpa\":{\"id\":1}}"));
+
+        BulkReport report = bulkService.importLikes(ndjson(
+                "{\"filmId\":1,\"userId\":1}",
+                "{\"filmId\":1,\"userId\":2}",
+                "{\"filmId\":1,\"userId\":1}",
+                "{\"filmId\":1,\"userId\":3}"));
+
+        assertEquals(2, report.getImported());
+        assertEquals(2, report.getRejected());
+        assertEquals(3, report.getFailedChunks().get(0).getFirstLine());
+        List<Like> exported = new ArrayList<>();
+        bulkService.exportLikes(exported::add);
+        assertEquals(List.of(new Like(1, 1), new Like(1, 2)), exported);
+        assertEquals(2, jdbcTemplate.queryForObject("SELECT likes_count FROM films WHERE film_id = 1", Integer.class));
+        assertEquals(1, filmStorage.findPopular(1, null, 2000).size());
+    }
+
+    @Test
+    void testChunksWrittenBeforeReadErrorReachIndexes() {
+        InputStream broken = new SequenceInputStream(ndjson(
+                "{\"id\":300,\"name\":\"Оборванный\",\"releaseDate\":\"2000-01-01\",\"duration\":90,\"mpa\":{\"id\":1}}",
+                "{\"id\":301,\"name\":\"Недочитанный\",\"releaseDate\":\"2000-01-01\",\"duration\":90,\"mpa\":{\"id\":1}}\n"),
+                new InputStream() {
+                    @Override
+                    public int read() throws IOException {
+                        throw new IOException("Соединение разорвано");
+                    }
+                });
+
+        assertThrows(IOException.class, () -> bulkService.importFilms(broken));
+
+        assertEquals(2, jdbcTemplate.queryForObject("SELECT COUNT(*) FROM films", Integer.class));
+        assertEquals(List.of(300), filmStorage.search("оборванный", true, false, 10).stream().map(Film::getId).toList());
+        Film added = filmStorage.add(Film.builder().name("После загрузки").releaseDate(LocalDate.of(2002, 1, 1))
+                .duration(90).mpa(new Mpa("G", 1)).build());
+        assertTrue(added.getId() > 301);
+    }
+
+    private static InputStream ndjson(String... lines) {
+        return new ByteArrayInputStream(String.join("\n", lines).getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,163 @@
+package ru.yandex.practicum.filmorate;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
+import org.springframework.boot.test.autoconfigure.jdbc.JdbcTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import ru.yandex.practicum.filmorate.model.Film;
+import ru.yandex.practicum.filmorate.model.Mpa;
+import ru.yandex.practicum.filmorate.model.User;
+import ru.yandex.practicum.filmorate.storage.EntityCache;
+import ru.yandex.practicum.filmorate.storage.film.FilmCache;
+import ru.yandex.practicum.filmorate.storage.film.FilmDbStorage;
+import ru.yandex.practicum.filmorate.storage.film.FilmRankings;
+import ru.yandex.practicum.filmorate.storage.film.FilmSearchIndex;
+import ru.yandex.practicum.filmorate.storage.film.FilmTrends;
+import ru.yandex.practicum.filmorate.storage.film.LikesGraph;
+import ru.yandex.practicum.filmorate.storage.film.WriteBehindLikes;
+import ru.yandex.practicum.filmorate.storage.user.FriendsGraph;
+import ru.yandex.practicum.filmorate.storage.user.UserCache;
+import ru.yandex.practicum.filmorate.storage.user.UserDbStorage;
+
+import java.time.LocalDate;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.UnaryOperator;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Внутри транзакции кэш не используется, поэтому тест работает без общей транзакции и чистит таблицы и кэши сам.
+ */
+@JdbcTest
+@AutoConfigureTestDatabase
+@Import({FilmDbStorage.class, UserDbStorage.class, LikesGraph.class, FilmRankings.class, FilmSearchIndex.class,
+        WriteBehindLikes.class, FriendsGraph.class, FilmCache.class, FilmTrends.class, UserCache.class,
+        SimpleMeterRegistry.class})
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+class EntityCacheTest {
+
+    @Autowired
+    private FilmDbStorage filmStorage;
+    @Autowired
+    private UserDbStorage userStorage;
+    @Autowired
+    private FilmCache filmCache;
+    @Autowired
+    private UserCache userCache;
+    @Autowired
+    private MeterRegistry registry;
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @BeforeEach
+    void setUp() {
+        jdbcTemplate.update("DELETE FROM likes");
+        jdbcTemplate.update("DELETE FROM friendship");
+        jdbcTemplate.update("DELETE FROM film_genre");
+        jdbcTemplate.update("DELETE FROM films");
+        jdbcTemplate.update("DELETE FROM users");
+        jdbcTemplate.update("MERGE INTO mpa (id, name) KEY (id) VALUES (1, 'G')");
+        filmCache.clear();
+        userCache.clear();
+    }
+
+    @Test
+    void testReadsAreServedFromCopiesUntilWrite() {
+        Film film = filmStorage.add(Film.builder().name("Фильм").releaseDate(LocalDate.of(2000, 1, 1))
+                .duration(90).mpa(new Mpa("G", 1)).build());
+        User user = addUser("fan");
+        filmCache.bindTo(registry);
+        double hits = gets("hit");
+        double misses = gets("miss");
+
+        Film first = filmStorage.findById(film.getId());
+        first.getLikes().add(user.getId());
+        first.getMpa().setName("Изменён");
+        Film second = filmStorage.findById(film.getId());
+        assertTrue(second.getLikes().isEmpty());
+        assertEquals("G", second.getMpa().getName());
+        assertEquals(hits + 1, gets("hit"));
+        assertEquals(misses + 1, gets("miss"));
+
+        filmStorage.addLike(film.getId(), user.getId());
+        assertEquals(Set.of(user.getId()), filmStorage.findById(film.getId()).getLikes());
+        Film renamed = filmStorage.findById(film.getId());
+        renamed.setName("Новое название");
+        filmStorage.update(renamed);
+        assertEquals("Новое название", filmStorage.findById(film.getId()).getName());
+        assertEquals(1, registry.get("cache.size").tags("cache", "films").gauge().value());
+        assertEquals(2, registry.get("cache.weight").tags("cache", "films").gauge().value());
+    }
+
+    @Test
+    void testUserWritesInvalidateEveryAffectedEntity() {
+        User first = addUser("first");
+        User second = addUser("second");
+        Film film = filmStorage.add(Film.builder().name("Фильм").releaseDate(LocalDate.of(2000, 1, 1))
+                .duration(90).mpa(new Mpa("G", 1)).build());
+        filmStorage.addLike(film.getId(), second.getId());
+        assertTrue(userStorage.findById(first.getId()).getFriends().isEmpty());
+
+        userStorage.addFriend(first.getId(), second.getId());
+        assertEquals(Set.of(second.getId()), userStorage.findById(first.getId()).getFriends());
+        assertEquals(Set.of(second.getId()), filmStorage.findById(film.getId()).getLikes());
+
+        userStorage.delete(second.getId());
+        assertTrue(userStorage.findById(first.getId()).getFriends().isEmpty());
+        assertTrue(filmStorage.findById(film.getId()).getLikes().isEmpty());
+        assertNull(userStorage.findById(second.getId()));
+
+        first.setName("Переименован");
+        userStorage.update(first);
+        assertEquals("Переименован", userStorage.findById(first.getId()).getName());
+    }
+
+    @Test
+    void testEvictsLeastRecentlyReadAndSkipsLoadsOverlappingInvalidation() {
+        // 16 полос: id 0, 16, 32 и 48 попадают в одну полосу с лимитом в 2 записи и вес 5
+        EntityCache<String> cache = new EntityCache<>("test", 32, 80, UnaryOperator.identity(), String::length);
+        cache.get(0, id -> "a");
+        cache.get(16, id -> "b");
+        cache.get(0, id -> fail("id 0 должен быть в кэше"));
+        cache.get(32, id -> "c");
+        assertEquals(2, cache.size());
+        assertEquals("a", cache.get(0, id -> "загружен заново"));
+        assertEquals("b2", cache.get(16, id -> "b2"));
+
+        cache.get(48, id -> "dddd");
+        assertEquals(1, cache.size());
+        assertEquals(4, cache.weight());
+
+        cache.get(64, id -> {
+            cache.invalidate(id);
+            return "устаревшее значение";
+        });
+        assertEquals("новое значение", cache.get(64, id -> "новое значение"));
+
+        cache.get(1, id -> "1");
+        Map<Integer, String> found = cache.getAll(List.of(1, 17, 33), ids -> {
+            assertEquals(List.of(17, 33), ids);
+            return List.of("17");
+        }, Integer::parseInt);
+        assertEquals(Map.of(1, "1", 17, "17"), found);
+        assertEquals("17", cache.get(17, id -> fail("id 17 должен быть в кэше")));
+    }
+
+    private double gets(String result) {
+        return registry.get("cache.gets").tags("cache", "films", "result", result).functionCounter().count();
+    }
+
+    private User addUser(String login) {
+        return userStorage.add(User.builder().email(login + "@mail.ru").login(login)
+                .birthday(LocalDate.of(1990, 1, 1)).build());
+    }
+}
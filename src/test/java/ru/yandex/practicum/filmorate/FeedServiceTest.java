@@ -0,0 +1,85 @@
+package ru.yandex.practicum.filmorate;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
+import org.springframework.boot.test.autoconfigure.jdbc.JdbcTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.TestPropertySource;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import ru.yandex.practicum.filmorate.model.Event;
+import ru.yandex.practicum.filmorate.service.FeedService;
+import ru.yandex.practicum.filmorate.storage.event.EventDbStorage;
+
+import java.util.List;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * События пишет фоновый поток в своих транзакциях, поэтому тест работает без общей транзакции.
+ */
+@JdbcTest
+@AutoConfigureTestDatabase
+@Import({FeedService.class, EventDbStorage.class})
+@TestPropertySource(properties = {"filmorate.feed.flush-interval=1h", "filmorate.feed.batch-size=2",
+        "filmorate.feed.buffer-size=4", "filmorate.feed.max-block=0ms"})
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+class FeedServiceTest {
+
+    @Autowired
+    private FeedService feedService;
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @BeforeEach
+    void setUp() {
+        jdbcTemplate.update("DELETE FROM events");
+    }
+
+    @Test
+    void testEventsAreFlushedInOrderAndPagedByKey() {
+        feedService.record(1, Event.EventType.LIKE, Event.Operation.ADD, 10);
+        feedService.record(2, Event.EventType.FRIEND, Event.Operation.ADD, 1);
+        feedService.record(1, Event.EventType.LIKE, Event.Operation.REMOVE, 10);
+        feedService.record(1, Event.EventType.FRIEND, Event.Operation.ADD, 2);
+
+        feedService.flush();
+
+        List<Event> first = feedService.getFeed(1, 0, 2);
+        assertEquals(List.of(Event.Operation.ADD, Event.Operation.REMOVE),
+                first.stream().map(Event::getOperation).toList());
+        List<Event> second = feedService.getFeed(1, first.get(1).getEventId(), 2);
+        assertEquals(1, second.size());
+        assertEquals(Event.EventType.FRIEND, second.get(0).getEventType());
+        assertEquals(2, second.get(0).getEntityId());
+        assertEquals(1, feedService.getFeed(2, 0, 10).size());
+    }
+
+    @Test
+    void testFullBufferDropsEventsAndWrapsAround() {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        feedService.bindTo(registry);
+        // Буфер на 4 события, фоновый поток до конца теста не пишет, а запись не ждёт места
+        for (int entityId = 1; entityId <= 5; entityId++) {
+            feedService.record(1, Event.EventType.LIKE, Event.Operation.ADD, entityId);
+        }
+        assertEquals(1.0, registry.get("filmorate.feed.dropped").functionCounter().count());
+        assertEquals(4.0, registry.get("filmorate.feed.buffered").gauge().value());
+        assertEquals(4, feedService.flush());
+
+        // Следующие события занимают те же ячейки по второму кругу
+        for (int entityId = 6; entityId <= 9; entityId++) {
+            feedService.record(1, Event.EventType.LIKE, Event.Operation.ADD, entityId);
+        }
+        assertEquals(1.0, registry.get("filmorate.feed.dropped").functionCounter().count());
+        assertEquals(4, feedService.flush());
+
+        assertEquals(IntStream.of(1, 2, 3, 4, 6, 7, 8, 9).boxed().toList(),
+                feedService.getFeed(1, 0, 10).stream().map(Event::getEntityId).toList());
+    }
+}
@@ -6,23 +6,43 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
 import org.springframework.boot.test.autoconfigure.jdbc.JdbcTest;
 import org.springframework.context.annotation.Import;
+import org.springframework.dao.DataIntegrityViolationException;
 import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
 import ru.yandex.practicum.filmorate.model.Film;
+import ru.yandex.practicum.filmorate.model.FilmSummary;
 import ru.yandex.practicum.filmorate.model.Genre;
 import ru.yandex.practicum.filmorate.model.Mpa;
 import ru.yandex.practicum.filmorate.model.User;
+import ru.yandex.practicum.filmorate.storage.film.FilmCache;
 import ru.yandex.practicum.filmorate.storage.film.FilmDbStorage;
+import ru.yandex.practicum.filmorate.storage.film.FilmRankings;
+import ru.yandex.practicum.filmorate.storage.film.FilmSearchIndex;
+import ru.yandex.practicum.filmorate.storage.film.FilmTrends;
+import ru.yandex.practicum.filmorate.storage.film.LikesGraph;
+import ru.yandex.practicum.filmorate.storage.film.WriteBehindLikes;
+import ru.yandex.practicum.filmorate.storage.user.FriendsGraph;
+import ru.yandex.practicum.filmorate.storage.user.UserCache;
 import ru.yandex.practicum.filmorate.storage.user.UserDbStorage;
 
 import java.time.LocalDate;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.function.Function;
+import java.util.stream.Collectors;
 
 import static org.junit.jupiter.api.Assertions.*;
 
 @JdbcTest
 @AutoConfigureTestDatabase
-@Import({FilmDbStorage.class, UserDbStorage.class})
+@Import({FilmDbStorage.class, UserDbStorage.class, LikesGraph.class, FilmRankings.class, FilmSearchIndex.class,
+        WriteBehindLikes.class, FriendsGraph.class, FilmCache.class, FilmTrends.class, UserCache.class})
 class FilmDbStorageTest {
 
     @Autowired
@@ -30,6 +50,10 @@ class FilmDbStorageTest {
     @Autowired
     private UserDbStorage userStorage;
     @Autowired
+    private LikesGraph likesGraph;
+    @Autowired
+    private FilmSearchIndex filmSearchIndex;
+    @Autowired
     private JdbcTemplate jdbcTemplate;
 
     private Film testFilm;
@@ -45,6 +69,9 @@ class FilmDbStorageTest {
 
         jdbcTemplate.update("INSERT INTO mpa (id, name) VALUES (1, 'G')");
         jdbcTemplate.update("INSERT INTO genre (id, name) VALUES (1, 'Комедия')");
+        likesGraph.rebuild();
+        filmStorage.rebuildPopularity();
+        filmSearchIndex.rebuild();
 
         testFilm = Film.builder()
                 .name("Test Film")
@@ -93,4 +120,369 @@ class FilmDbStorageTest {
         filmStorage.removeLike(addedFilm.getId(), addedUser.getId());
         assertFalse(filmStorage.findById(addedFilm.getId()).getLikes().contains(addedUser.getId()));
     }
-}
\ No newline at end of file
+
+    @Test
+    void testLikeConflictsAreDetectedByConstraints() {
+        User addedUser = userStorage.add(User.builder()
+                .email("user@mail.ru")
+                .login("user")
+                .birthday(LocalDate.of(1990, 1, 1))
+                .build());
+        Film addedFilm = filmStorage.add(testFilm);
+
+        assertTrue(filmStorage.addLike(addedFilm.getId(), addedUser.getId()));
+        assertFalse(filmStorage.addLike(addedFilm.getId(), addedUser.getId()));
+        assertThrows(DataIntegrityViolationException.class,
+                () -> filmStorage.addLike(addedFilm.getId(), addedUser.getId() + 1));
+        assertEquals(Set.of(addedUser.getId()), filmStorage.getLikes(addedFilm.getId()));
+
+        assertTrue(filmStorage.removeLike(addedFilm.getId(), addedUser.getId()));
+        assertFalse(filmStorage.removeLike(addedFilm.getId(), addedUser.getId()));
+        assertEquals(0, jdbcTemplate.queryForObject("SELECT likes_count FROM films WHERE film_id = ?",
+                Integer.class, addedFilm.getId()));
+    }
+
+    @Test
+    void testFindAllHydratesEveryFilm() {
+        User addedUser = userStorage.add(User.builder()
+                .email("user@mail.ru")
+                .login("user")
+                .birthday(LocalDate.of(1990, 1, 1))
+                .build());
+        Film first = filmStorage.add(testFilm);
+        Film second = filmStorage.add(copyOf(testFilm, Set.of()));
+        filmStorage.addLike(first.getId(), addedUser.getId());
+
+        Map<Integer, Film> films = filmStorage.findAll().stream()
+                .collect(Collectors.toMap(Film::getId, Function.identity()));
+
+        assertEquals(Set.of(new Genre(1, "Комедия")), films.get(first.getId()).getGenres());
+        assertEquals(Set.of(addedUser.getId()), films.get(first.getId()).getLikes());
+        assertTrue(films.get(second.getId()).getGenres().isEmpty());
+        assertTrue(films.get(second.getId()).getLikes().isEmpty());
+    }
+
+    @Test
+    void testFindAllQueryCountDoesNotDependOnCatalogSize() {
+        for (int i = 0; i < 3; i++) {
+            filmStorage.add(copyOf(testFilm, testFilm.getGenres()));
+        }
+        long smallCatalog = countStatements(() -> filmStorage.findAll());
+
+        for (int i = 0; i < 30; i++) {
+            filmStorage.add(copyOf(testFilm, testFilm.getGenres()));
+        }
+        long largeCatalog = countStatements(() -> filmStorage.findAll());
+
+        assertEquals(3, smallCatalog);
+        assertEquals(smallCatalog, largeCatalog);
+    }
+
+    @Test
+    void testFindPopularOrdersByLikeCount() {
+        User first = userStorage.add(User.builder()
+                .email("first@mail.ru").login("first").birthday(LocalDate.of(1990, 1, 1)).build());
+        User second = userStorage.add(User.builder()
+                .email("second@mail.ru").login("second").birthday(LocalDate.of(1990, 1, 1)).build());
+        Film unpopular = filmStorage.add(copyOf(testFilm, Set.of()));
+        Film popular = filmStorage.add(copyOf(testFilm, Set.of()));
+        Film liked = filmStorage.add(copyOf(testFilm, Set.of()));
+        filmStorage.addLike(popular.getId(), first.getId());
+        filmStorage.addLike(popular.getId(), second.getId());
+        filmStorage.addLike(liked.getId(), first.getId());
+
+        assertEquals(List.of(popular.getId(), liked.getId()),
+                filmStorage.findPopular(2).stream().map(Film::getId).toList());
+
+        userStorage.delete(first.getId());
+        filmStorage.removeLike(popular.getId(), second.getId());
+        assertEquals(0, filmStorage.rebuildPopularity());
+        assertEquals(unpopular.getId(), filmStorage.findPopular(1).get(0).getId());
+    }
+
+    @Test
+    void testRebuildPopularityFixesDriftedCounters() {
+        Film addedFilm = filmStorage.add(testFilm);
+        jdbcTemplate.update("UPDATE films SET likes_count = 42 WHERE film_id = ?", addedFilm.getId());
+
+        assertEquals(1, filmStorage.rebuildPopularity());
+        assertEquals(0, jdbcTemplate.queryForObject("SELECT likes_count FROM films WHERE film_id = ?",
+                Integer.class, addedFilm.getId()));
+    }
+
+    @Test
+    void testFindPageAndStreamAll() {
+        List<Integer> ids = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            ids.add(filmStorage.add(copyOf(testFilm, testFilm.getGenres())).getId());
+        }
+
+        List<Film> page = filmStorage.findPage(ids.get(1), 2);
+        assertEquals(ids.subList(2, 4), page.stream().map(Film::getId).toList());
+        assertEquals(testFilm.getGenres(), page.get(0).getGenres());
+        assertTrue(filmStorage.findPage(ids.get(4), 10).isEmpty());
+
+        List<Film> streamed = new ArrayList<>();
+        filmStorage.streamAll(streamed::add);
+        assertEquals(ids, streamed.stream().map(Film::getId).toList());
+        assertEquals(testFilm.getGenres(), streamed.get(4).getGenres());
+    }
+
+    @Test
+    @Transactional(propagation = Propagation.NOT_SUPPORTED)
+    void testSummariesCountLikesWithoutLoadingThem() {
+        User user = userStorage.add(User.builder().email("fan@mail.ru").login("fan")
+                .birthday(LocalDate.of(1990, 1, 1)).build());
+        Film plain = filmStorage.add(copyOf(testFilm, Set.of()));
+        Film liked = filmStorage.add(copyOf(testFilm, testFilm.getGenres()));
+        filmStorage.addLike(liked.getId(), user.getId());
+
+        List<FilmSummary> popular = filmStorage.findPopularSummaries(2, null, null);
+        assertEquals(List.of(liked.getId(), plain.getId()), popular.stream().map(FilmSummary::getId).toList());
+        assertEquals(1, popular.get(0).getLikesCount());
+        assertEquals(testFilm.getGenres(), popular.get(0).getGenres());
+        assertEquals("G", popular.get(0).getMpa().getName());
+        assertEquals(List.of(liked.getId()), filmStorage.findPopularSummaries(10, 1, 2000).stream()
+                .map(FilmSummary::getId).toList());
+        assertEquals(List.of(liked.getId()), filmStorage.findSummaryPage(plain.getId(), 10).stream()
+                .map(FilmSummary::getId).toList());
+
+        for (int i = 0; i < 30; i++) {
+            filmStorage.add(copyOf(testFilm, testFilm.getGenres()));
+        }
+        assertEquals(2, countStatements(() -> filmStorage.findAllSummaries()));
+        assertEquals(32, filmStorage.findAllSummaries().size());
+    }
+
+    @Test
+    void testFindByIdsKeepsRequestOrderInConstantQueries() {
+        User user = userStorage.add(User.builder().email("fan@mail.ru").login("fan")
+                .birthday(LocalDate.of(1990, 1, 1)).build());
+        List<Integer> ids = new ArrayList<>();
+        for (int i = 0; i < 300; i++) {
+            ids.add(filmStorage.add(copyOf(testFilm, testFilm.getGenres())).getId());
+        }
+        filmStorage.addLike(ids.get(0), user.getId());
+        Collections.reverse(ids);
+        List<Integer> requested = new ArrayList<>(ids);
+        requested.add(1, -1);
+
+        assertEquals(3, countStatements(() -> filmStorage.findByIds(requested)));
+        List<Film> films = filmStorage.findByIds(requested);
+        assertEquals(ids, films.stream().map(Film::getId).toList());
+        assertEquals(Set.of(user.getId()), films.get(films.size() - 1).getLikes());
+        assertEquals(testFilm.getGenres(), films.get(0).getGenres());
+        assertEquals(2, countStatements(() -> filmStorage.findSummariesByIds(requested)));
+        assertEquals(1, filmStorage.findSummariesByIds(requested).get(films.size() - 1).getLikesCount());
+        assertTrue(filmStorage.findByIds(List.of()).isEmpty());
+    }
+
+    @Test
+    void testUpdateWritesOnlyChangedRows() {
+        Film addedFilm = filmStorage.add(testFilm);
+        Set<Integer> likes = new HashSet<>();
+        for (int i = 0; i < 51; i++) {
+            User user = userStorage.add(User.builder()
+                    .email("user" + i + "@mail.ru").login("user" + i).birthday(LocalDate.of(1990, 1, 1)).build());
+            filmStorage.addLike(addedFilm.getId(), user.getId());
+            likes.add(user.getId());
+        }
+        Integer removed = likes.iterator().next();
+        likes.remove(removed);
+        User newcomer = userStorage.add(User.builder()
+                .email("new@mail.ru").login("new").birthday(LocalDate.of(1990, 1, 1)).build());
+        likes.add(newcomer.getId());
+        addedFilm.setLikes(likes);
+
+        // Прежняя реализация удаляла и вставляла заново жанр и все 51 лайк: 59 запросов на одно обновление
+        long statements = countStatements(() -> filmStorage.update(addedFilm));
+
+        assertEquals(9, statements);
+        Film updated = filmStorage.findById(addedFilm.getId());
+        assertEquals(likes, updated.getLikes());
+        assertEquals(testFilm.getGenres(), updated.getGenres());
+        assertEquals(51, jdbcTemplate.queryForObject("SELECT likes_count FROM films WHERE film_id = ?",
+                Integer.class, addedFilm.getId()));
+    }
+
+    @Test
+    @Transactional(propagation = Propagation.NOT_SUPPORTED)
+    void testVersionsChangeOnEveryFilmWrite() {
+        User user = userStorage.add(User.builder().email("fan@mail.ru").login("fan")
+                .birthday(LocalDate.of(1990, 1, 1)).build());
+        long popular = filmStorage.getPopularVersion();
+        Film film = filmStorage.add(testFilm);
+        long created = filmStorage.findVersion(film.getId());
+        assertNotEquals(popular, filmStorage.getPopularVersion());
+        assertEquals(created, filmStorage.findVersion(film.getId()));
+
+        popular = filmStorage.getPopularVersion();
+        filmStorage.addLike(film.getId(), user.getId());
+        long liked = filmStorage.findVersion(film.getId());
+        assertNotEquals(created, liked);
+        assertNotEquals(popular, filmStorage.getPopularVersion());
+
+        film.setLikes(Set.of(user.getId()));
+        film.setName("Новое название");
+        filmStorage.update(film);
+        long updated = filmStorage.findVersion(film.getId());
+        assertNotEquals(liked, updated);
+
+        userStorage.delete(user.getId());
+        assertNotEquals(updated, filmStorage.findVersion(film.getId()));
+
+        filmStorage.delete(film.getId());
+        assertNull(filmStorage.findVersion(film.getId()));
+    }
+
+    @Test
+    @Transactional(propagation = Propagation.NOT_SUPPORTED)
+    void testRecommendationsFollowUsersWithOverlappingLikes() {
+        List<Integer> users = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            users.add(userStorage.add(User.builder()
+                    .email("user" + i + "@mail.ru").login("user" + i).birthday(LocalDate.of(1990, 1, 1)).build()).getId());
+        }
+        List<Integer> films = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            films.add(filmStorage.add(copyOf(testFilm, Set.of())).getId());
+        }
+        int me = users.get(0);
+        int close = users.get(1);
+        int distant = users.get(2);
+        filmStorage.addLike(films.get(0), me);
+        filmStorage.addLike(films.get(1), me);
+        filmStorage.addLike(films.get(0), close);
+        filmStorage.addLike(films.get(1), close);
+        filmStorage.addLike(films.get(2), close);
+        filmStorage.addLike(films.get(0), distant);
+        filmStorage.addLike(films.get(3), distant);
+
+        assertEquals(List.of(films.get(2), films.get(3)), recommendedIds(me));
+
+        filmStorage.addLike(films.get(2), me);
+        assertEquals(List.of(films.get(3)), recommendedIds(me));
+
+        userStorage.delete(close);
+        filmStorage.removeLike(films.get(3), distant);
+        assertTrue(recommendedIds(me).isEmpty());
+
+        likesGraph.rebuild();
+        filmStorage.addLike(films.get(1), distant);
+        assertEquals(List.of(films.get(2)), recommendedIds(distant));
+    }
+
+    @Test
+    @Transactional(propagation = Propagation.NOT_SUPPORTED)
+    void testFindPopularByGenreAndYearFollowsLikeWrites() {
+        jdbcTemplate.update("INSERT INTO genre (id, name) VALUES (2, 'Драма')");
+        Genre comedy = new Genre(1, "Комедия");
+        Genre drama = new Genre(2, "Драма");
+        Film comedy2019 = filmStorage.add(copyOf(testFilm, Set.of(comedy)));
+        comedy2019.setReleaseDate(LocalDate.of(2019, 5, 1));
+        filmStorage.update(comedy2019);
+        Film drama2019 = filmStorage.add(copyOf(testFilm, Set.of(drama)));
+        drama2019.setReleaseDate(LocalDate.of(2019, 6, 1));
+        filmStorage.update(drama2019);
+        Film comedy2000 = filmStorage.add(copyOf(testFilm, Set.of(comedy, drama)));
+        User first = userStorage.add(User.builder()
+                .email("first@mail.ru").login("first").birthday(LocalDate.of(1990, 1, 1)).build());
+        User second = userStorage.add(User.builder()
+                .email("second@mail.ru").login("second").birthday(LocalDate.of(1990, 1, 1)).build());
+        filmStorage.addLike(comedy2000.getId(), first.getId());
+        filmStorage.addLike(comedy2000.getId(), second.getId());
+        filmStorage.addLike(drama2019.getId(), first.getId());
+
+        assertEquals(List.of(comedy2000.getId(), comedy2019.getId()), popularIds(1, null));
+        assertEquals(List.of(drama2019.getId(), comedy2019.getId()), popularIds(null, 2019));
+        assertEquals(List.of(comedy2019.getId()), popularIds(1, 2019));
+        assertTrue(popularIds(2, 1999).isEmpty());
+
+        filmStorage.addLike(comedy2019.getId(), first.getId());
+        filmStorage.addLike(comedy2019.getId(), second.getId());
+        userStorage.delete(first.getId());
+        assertEquals(List.of(comedy2019.getId(), drama2019.getId()), popularIds(null, 2019));
+        assertEquals(List.of(comedy2019.getId(), comedy2000.getId()), popularIds(1, null));
+
+        drama2019.setGenres(Set.of(comedy));
+        filmStorage.update(drama2019);
+        filmStorage.delete(comedy2000.getId());
+        assertEquals(List.of(comedy2019.getId(), drama2019.getId()), popularIds(1, 2019));
+        assertTrue(popularIds(2, null).isEmpty());
+
+        filmStorage.rebuildPopularity();
+        assertEquals(List.of(comedy2019.getId(), drama2019.getId()), popularIds(1, 2019));
+    }
+
+    @Test
+    @Transactional(propagation = Propagation.NOT_SUPPORTED)
+    void testSearchRanksByRelevanceThenLikes() {
+        Film mars = filmStorage.add(titled("Красная планета", "Экспедиция на Марс"));
+        Film apes = filmStorage.add(titled("Планета обезьян", "Астронавты на красной планете"));
+        Film solaris = filmStorage.add(titled("Солярис", "Станция над океаном планеты"));
+        User user = userStorage.add(User.builder()
+                .email("user@mail.ru").login("user").birthday(LocalDate.of(1990, 1, 1)).build());
+        filmStorage.addLike(apes.getId(), user.getId());
+        filmStorage.addLike(solaris.getId(), user.getId());
+
+        assertEquals(List.of(apes.getId(), mars.getId(), solaris.getId()), searchIds("план", "title,description"));
+        assertEquals(List.of(apes.getId(), mars.getId()), searchIds("план", "title"));
+        // Релевантность у обоих равна 4, выше фильм с лайком
+        assertEquals(List.of(apes.getId(), mars.getId()), searchIds("КРАСН план", "title,description"));
+        assertEquals(List.of(solaris.getId()), searchIds("океан", "description"));
+        assertTrue(searchIds("океан", "title").isEmpty());
+
+        solaris.setName("Солярис: планета-океан");
+        filmStorage.update(solaris);
+        filmStorage.delete(mars.getId());
+        assertEquals(List.of(solaris.getId()), searchIds("океан", "title"));
+        assertEquals(List.of(apes.getId()), searchIds("красн", "title,description"));
+
+        filmSearchIndex.rebuild();
+        assertEquals(List.of(apes.getId(), solaris.getId()), searchIds("планета", "title"));
+    }
+
+    private List<Integer> searchIds(String query, String by) {
+        return filmStorage.search(query, by.contains("title"), by.contains("description"), 10).stream()
+                .map(Film::getId)
+                .toList();
+    }
+
+    private Film titled(String name, String description) {
+        Film film = copyOf(testFilm, Set.of());
+        film.setName(name);
+        film.setDescription(description);
+        return film;
+    }
+
+    private List<Integer> popularIds(Integer genreId, Integer year) {
+        return filmStorage.findPopular(10, genreId, year).stream().map(Film::getId).toList();
+    }
+
+    private List<Integer> recommendedIds(int userId) {
+        return filmStorage.findRecommended(userId, 10).stream().map(Film::getId).toList();
+    }
+
+    private Film copyOf(Film film, Set<Genre> genres) {
+        return Film.builder()
+                .name(film.getName())
+                .description(film.getDescription())
+                .releaseDate(film.getReleaseDate())
+                .duration(film.getDuration())
+                .mpa(film.getMpa())
+                .genres(genres)
+                .build();
+    }
+
+    private long countStatements(Runnable action) {
+        jdbcTemplate.execute("SET QUERY_STATISTICS TRUE");
+        try {
+            action.run();
+            return jdbcTemplate.queryForObject("SELECT COALESCE(SUM(execution_count), 0) " +
+                    "FROM information_schema.query_statistics " +
+                    "WHERE sql_statement NOT LIKE 'SET %' AND sql_statement NOT LIKE 'CALL %'", Long.class);
+        } finally {
+            jdbcTemplate.execute("SET QUERY_STATISTICS FALSE");
+        }
+    }
+}
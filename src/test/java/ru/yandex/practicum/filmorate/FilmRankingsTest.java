@@ -0,0 +1,50 @@
+package ru.yandex.practicum.filmorate;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import ru.yandex.practicum.filmorate.storage.film.FilmRankings;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Вне транзакции изменения рейтингов применяются сразу, поэтому рейтинги проверяются без БД.
+ */
+class FilmRankingsTest {
+    private static final int FILMS = 8;
+
+    @Test
+    void testTopNeitherSkipsNorRepeatsFilmsWhileLikesChange() throws Exception {
+        FilmRankings rankings = new FilmRankings(new JdbcTemplate());
+        for (int filmId = 1; filmId <= FILMS; filmId++) {
+            rankings.put(filmId, 2000, List.of(1));
+            rankings.changeLikes(filmId, filmId);
+        }
+        AtomicBoolean running = new AtomicBoolean(true);
+        // Лайки переставляют фильмы через весь срез в обе стороны
+        CompletableFuture<Void> writer = CompletableFuture.runAsync(() -> {
+            while (running.get()) {
+                for (int filmId = 1; filmId <= FILMS; filmId++) {
+                    rankings.changeLikes(filmId, FILMS * 2);
+                    rankings.changeLikes(filmId, -FILMS * 2);
+                }
+            }
+        });
+        try {
+            for (int i = 0; i < 20_000; i++) {
+                List<Integer> top = rankings.top(FILMS, 1, 2000);
+                assertEquals(FILMS, top.size());
+                assertEquals(FILMS, new HashSet<>(top).size());
+            }
+        } finally {
+            running.set(false);
+            writer.get(10, TimeUnit.SECONDS);
+        }
+        assertEquals(List.of(8, 7, 6, 5, 4, 3, 2, 1), rankings.top(FILMS, null, 2000));
+    }
+}
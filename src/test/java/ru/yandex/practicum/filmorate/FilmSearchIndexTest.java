@@ -0,0 +1,58 @@
+package ru.yandex.practicum.filmorate;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import ru.yandex.practicum.filmorate.storage.film.FilmSearchIndex;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Вне транзакции изменения индекса применяются сразу, поэтому поиск проверяется без БД.
+ */
+class FilmSearchIndexTest {
+
+    @Test
+    void testPrefixKeepsExactWordAndMostFrequentExpansions() {
+        FilmSearchIndex index = new FilmSearchIndex(new JdbcTemplate(), 2);
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        index.bindTo(registry);
+        index.put(1, "Кот", null);
+        index.put(2, "Котенок", null);
+        index.put(3, "Котлета", null);
+        index.put(4, "Котлета по-киевски", null);
+        index.put(5, "Котик", null);
+        index.put(6, "Котик и котлета", null);
+
+        // Из трёх продолжений остаётся самое частое: «котлета» встречается в трёх фильмах
+        assertEquals(List.of(1, 3, 4, 6), index.search("кот", true, false, 10, filmId -> 0).stream().sorted().toList());
+        assertEquals(1.0, registry.get("filmorate.search.truncated").functionCounter().count());
+
+        assertEquals(List.of(5, 6), index.search("коти", true, false, 10, filmId -> 0).stream().sorted().toList());
+        assertEquals(1.0, registry.get("filmorate.search.truncated").functionCounter().count());
+    }
+
+    @Test
+    void testResultsAreRankedByScoreThenLikesThenId() {
+        FilmSearchIndex index = new FilmSearchIndex(new JdbcTemplate(), 64);
+        index.put(1, "Красная планета", "Красный закат планеты");
+        index.put(2, "Планетарий", "Красный");
+        index.put(3, "Красный", null);
+        index.put(4, "Планета красных", "Планета");
+        index.put(5, "Другое", "Красная планета");
+        index.put(6, "Красная планета", "Планета");
+        Map<Integer, Integer> likes = Map.of(4, 5, 6, 5);
+
+        // Фильм 1 встречается в нескольких списках самого редкого слова, но возвращается один раз
+        assertEquals(List.of(1, 4, 6, 2, 5), index.search("красн план", true, true, 10,
+                filmId -> likes.getOrDefault(filmId, 0)));
+        // При равных очках и лайках выше фильм с меньшим id
+        assertEquals(List.of(1, 4), index.search("красн план", true, true, 2,
+                filmId -> likes.getOrDefault(filmId, 0)));
+        assertEquals(List.of(1, 6, 4), index.search("план красн", true, true, 3,
+                filmId -> filmId == 6 ? 9 : likes.getOrDefault(filmId, 0)));
+    }
+}
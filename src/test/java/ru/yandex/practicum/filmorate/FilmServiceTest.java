@@ -0,0 +1,91 @@
+package ru.yandex.practicum.filmorate;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
+import org.springframework.boot.test.autoconfigure.jdbc.JdbcTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import ru.yandex.practicum.filmorate.exception.NotFoundException;
+import ru.yandex.practicum.filmorate.exception.ValidationException;
+import ru.yandex.practicum.filmorate.model.Film;
+import ru.yandex.practicum.filmorate.model.Mpa;
+import ru.yandex.practicum.filmorate.model.User;
+import ru.yandex.practicum.filmorate.service.FeedService;
+import ru.yandex.practicum.filmorate.service.FilmService;
+import ru.yandex.practicum.filmorate.storage.event.EventDbStorage;
+import ru.yandex.practicum.filmorate.storage.film.FilmCache;
+import ru.yandex.practicum.filmorate.storage.film.FilmDbStorage;
+import ru.yandex.practicum.filmorate.storage.film.FilmRankings;
+import ru.yandex.practicum.filmorate.storage.film.FilmSearchIndex;
+import ru.yandex.practicum.filmorate.storage.film.FilmTrends;
+import ru.yandex.practicum.filmorate.storage.film.LikesGraph;
+import ru.yandex.practicum.filmorate.storage.film.WriteBehindLikes;
+import ru.yandex.practicum.filmorate.storage.genre.GenreDbStorage;
+import ru.yandex.practicum.filmorate.storage.mpa.MpaDbStorage;
+import ru.yandex.practicum.filmorate.storage.user.FriendsGraph;
+import ru.yandex.practicum.filmorate.storage.user.UserCache;
+import ru.yandex.practicum.filmorate.storage.user.UserDbStorage;
+
+import java.time.LocalDate;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Ошибка записи лайка откатывает его транзакцию, поэтому тест работает без общей транзакции и чистит таблицы сам.
+ */
+@JdbcTest
+@AutoConfigureTestDatabase
+@Import({FilmService.class, FeedService.class, EventDbStorage.class, FilmDbStorage.class, UserDbStorage.class,
+        LikesGraph.class, FilmRankings.class, FilmSearchIndex.class, WriteBehindLikes.class, FriendsGraph.class,
+        FilmCache.class, FilmTrends.class, UserCache.class, GenreDbStorage.class, MpaDbStorage.class})
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+class FilmServiceTest {
+
+    @Autowired
+    private FilmService filmService;
+    @Autowired
+    private FilmDbStorage filmStorage;
+    @Autowired
+    private UserDbStorage userStorage;
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @BeforeEach
+    void setUp() {
+        jdbcTemplate.update("DELETE FROM likes");
+        jdbcTemplate.update("DELETE FROM friendship");
+        jdbcTemplate.update("DELETE FROM film_genre");
+        jdbcTemplate.update("DELETE FROM films");
+        jdbcTemplate.update("DELETE FROM users");
+        jdbcTemplate.update("MERGE INTO mpa (id, name) KEY (id) VALUES (1, 'G')");
+    }
+
+    @Test
+    void testLikeOfMissingFilmOrUserIsNotFound() throws Exception {
+        Film film = filmStorage.add(Film.builder().name("Фильм").releaseDate(LocalDate.of(2000, 1, 1))
+                .duration(90).mpa(new Mpa("G", 1)).build());
+        User user = userStorage.add(User.builder().email("user@mail.ru").login("user")
+                .birthday(LocalDate.of(1990, 1, 1)).build());
+        int missingFilm = film.getId() + 1;
+        int missingUser = user.getId() + 1;
+
+        assertEquals("Фильм не найден", assertThrows(NotFoundException.class,
+                () -> filmService.addLike(missingFilm, user.getId())).getMessage());
+        assertEquals("Пользователь не найден", assertThrows(NotFoundException.class,
+                () -> filmService.addLike(film.getId(), missingUser)).getMessage());
+        assertEquals("Фильм не найден", assertThrows(NotFoundException.class,
+                () -> filmService.removeLike(missingFilm, user.getId())).getMessage());
+        assertEquals("Пользователь не найден", assertThrows(NotFoundException.class,
+                () -> filmService.removeLike(film.getId(), missingUser)).getMessage());
+
+        assertThrows(ValidationException.class, () -> filmService.removeLike(film.getId(), user.getId()));
+        filmService.addLike(film.getId(), user.getId());
+        assertThrows(ValidationException.class, () -> filmService.addLike(film.getId(), user.getId()));
+        filmService.removeLike(film.getId(), user.getId());
+        assertEquals(0, jdbcTemplate.queryForObject("SELECT COUNT(*) FROM likes", Integer.class));
+    }
+}
@@ -0,0 +1,184 @@
+package ru.yandex.practicum.filmorate;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
+import org.springframework.boot.test.autoconfigure.jdbc.JdbcTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import ru.yandex.practicum.filmorate.model.Film;
+import ru.yandex.practicum.filmorate.model.Mpa;
+import ru.yandex.practicum.filmorate.model.User;
+import ru.yandex.practicum.filmorate.storage.film.FilmCache;
+import ru.yandex.practicum.filmorate.storage.film.FilmDbStorage;
+import ru.yandex.practicum.filmorate.storage.film.FilmRankings;
+import ru.yandex.practicum.filmorate.storage.film.FilmSearchIndex;
+import ru.yandex.practicum.filmorate.storage.film.FilmTrends;
+import ru.yandex.practicum.filmorate.storage.film.LikesGraph;
+import ru.yandex.practicum.filmorate.storage.film.WriteBehindLikes;
+import ru.yandex.practicum.filmorate.storage.user.FriendsGraph;
+import ru.yandex.practicum.filmorate.storage.user.UserCache;
+import ru.yandex.practicum.filmorate.storage.user.UserDbStorage;
+
+import java.sql.Timestamp;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Окна популярности меняются после коммита, поэтому тест работает без общей транзакции и чистит таблицы сам.
+ */
+@JdbcTest
+@AutoConfigureTestDatabase
+@Import({FilmDbStorage.class, UserDbStorage.class, LikesGraph.class, FilmRankings.class, FilmSearchIndex.class,
+        WriteBehindLikes.class, FriendsGraph.class, FilmCache.class, FilmTrends.class, UserCache.class})
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+class FilmTrendsTest {
+    private static final long HOUR = TimeUnit.HOURS.toMillis(1);
+    private static final Duration DAY = Duration.ofHours(24);
+
+    @Autowired
+    private FilmDbStorage filmStorage;
+    @Autowired
+    private UserDbStorage userStorage;
+    @Autowired
+    private FilmTrends filmTrends;
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @BeforeEach
+    void setUp() {
+        jdbcTemplate.update("DELETE FROM likes");
+        jdbcTemplate.update("DELETE FROM friendship");
+        jdbcTemplate.update("DELETE FROM film_genre");
+        jdbcTemplate.update("DELETE FROM films");
+        jdbcTemplate.update("DELETE FROM users");
+        jdbcTemplate.update("MERGE INTO mpa (id, name) KEY (id) VALUES (1, 'G')");
+        filmTrends.rebuild();
+    }
+
+    @Test
+    void testWindowsCountLikesByHourAndExpireThem() {
+        Film first = addFilm("Первый");
+        Film second = addFilm("Второй");
+        Film old = addFilm("Давний");
+        User u1 = addUser("u1");
+        User u2 = addUser("u2");
+        User u3 = addUser("u3");
+        TestClock clock = new TestClock(1000 * HOUR + HOUR / 2);
+        long now = clock.millis();
+        insertLike(first, u1, now);
+        insertLike(first, u2, now);
+        insertLike(second, u1, now - 3 * HOUR);
+        insertLike(second, u2, now - 3 * HOUR);
+        insertLike(second, u3, now - 3 * HOUR);
+        insertLike(old, u1, now - 30 * HOUR);
+        FilmTrends trends = new FilmTrends(jdbcTemplate, List.of(Duration.ofHours(1), DAY), clock);
+        trends.rebuild();
+
+        assertEquals(List.of(first.getId()), trends.top(Duration.ofHours(1), 10));
+        assertEquals(List.of(second.getId(), first.getId()), trends.top(DAY, 10));
+        assertEquals(List.of(second.getId()), trends.top(DAY, 1));
+
+        trends.removeLike(second.getId(), now - 3 * HOUR);
+        trends.removeLike(old.getId(), now - 30 * HOUR);
+        assertEquals(List.of(first.getId(), second.getId()), trends.top(DAY, 10));
+
+        clock.advance(HOUR);
+        assertTrue(trends.top(Duration.ofHours(1), 10).isEmpty());
+        trends.addLike(old.getId(), clock.millis());
+        assertEquals(List.of(old.getId()), trends.top(Duration.ofHours(1), 10));
+
+        clock.advance(22 * HOUR);
+        assertEquals(List.of(first.getId(), old.getId()), trends.top(DAY, 10));
+        clock.advance(HOUR);
+        assertEquals(List.of(old.getId()), trends.top(DAY, 10));
+        clock.advance(DAY.toMillis());
+        assertTrue(trends.top(DAY, 10).isEmpty());
+    }
+
+    @Test
+    void testStorageWritesReachTrendingWindows() {
+        Film first = addFilm("Первый");
+        Film second = addFilm("Второй");
+        User u1 = addUser("u1");
+        User u2 = addUser("u2");
+        filmStorage.addLike(first.getId(), u1.getId());
+        filmStorage.addLike(second.getId(), u1.getId());
+        filmStorage.addLike(second.getId(), u2.getId());
+        assertEquals(List.of(second.getId(), first.getId()),
+                filmStorage.findTrending(DAY, 10).stream().map(Film::getId).toList());
+
+        assertTrue(filmStorage.removeLike(second.getId(), u1.getId()));
+        assertFalse(filmStorage.removeLike(second.getId(), u1.getId()));
+        Film updated = filmStorage.findById(first.getId());
+        updated.setLikes(Set.of(u1.getId(), u2.getId()));
+        filmStorage.update(updated);
+        assertEquals(List.of(first.getId(), second.getId()),
+                filmStorage.findTrending(DAY, 10).stream().map(Film::getId).toList());
+
+        userStorage.delete(u2.getId());
+        filmStorage.delete(first.getId());
+        assertTrue(filmStorage.findTrending(DAY, 10).isEmpty());
+        filmTrends.rebuild();
+        assertTrue(filmStorage.findTrending(DAY, 10).isEmpty());
+    }
+
+    private void insertLike(Film film, User user, long createdAt) {
+        jdbcTemplate.update("INSERT INTO likes (film_id, user_id, created_at) VALUES (?, ?, ?)",
+                film.getId(), user.getId(), new Timestamp(createdAt));
+    }
+
+    private Film addFilm(String name) {
+        return filmStorage.add(Film.builder().name(name).releaseDate(LocalDate.of(2000, 1, 1))
+                .duration(90).mpa(new Mpa("G", 1)).build());
+    }
+
+    private User addUser(String login) {
+        return userStorage.add(User.builder().email(login + "@mail.ru").login(login)
+                .birthday(LocalDate.of(1990, 1, 1)).build());
+    }
+
+    private static final class TestClock extends Clock {
+        private long millis;
+
+        TestClock(long millis) {
+            this.millis = millis;
+        }
+
+        void advance(long delta) {
+            millis += delta;
+        }
+
+        @Override
+        public long millis() {
+            return millis;
+        }
+
+        @Override
+        public Instant instant() {
+            return Instant.ofEpochMilli(millis);
+        }
+
+        @Override
+        public ZoneId getZone() {
+            return ZoneOffset.UTC;
+        }
+
+        @Override
+        public Clock withZone(ZoneId zone) {
+            return this;
+        }
+    }
+}
@@ -30,6 +30,7 @@ class GenreDbStorageTest {
     void setUp() {
         jdbcTemplate.update("DELETE FROM genre");
         jdbcTemplate.update("INSERT INTO genre (id, name) VALUES (1, 'Комедия'), (2, 'Драма'), (3, 'Мультфильм')");
+        genreStorage.invalidate();
     }
 
     @Test
@@ -51,4 +52,15 @@ class GenreDbStorageTest {
         Optional<Genre> genreOptional = genreStorage.getGenreById(999);
         assertTrue(genreOptional.isEmpty());
     }
-}
\ No newline at end of file
+
+    @Test
+    void testGenresAreCachedUntilInvalidated() {
+        genreStorage.getAllGenres();
+        jdbcTemplate.update("INSERT INTO genre (id, name) VALUES (4, 'Триллер')");
+        assertTrue(genreStorage.getGenreById(4).isEmpty());
+
+        genreStorage.invalidate();
+        assertEquals("Триллер", genreStorage.getGenreById(4).orElseThrow().getName());
+        assertEquals(4, genreStorage.getAllGenres().size());
+    }
+}
@@ -0,0 +1,212 @@
+package ru.yandex.practicum.filmorate;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
+import org.springframework.boot.test.autoconfigure.jdbc.JdbcTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.PreparedStatementCreator;
+import org.springframework.jdbc.core.PreparedStatementSetter;
+import org.springframework.jdbc.core.ResultSetExtractor;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
+import ru.yandex.practicum.filmorate.storage.AfterCommit;
+import ru.yandex.practicum.filmorate.storage.film.FilmRankings;
+import ru.yandex.practicum.filmorate.storage.film.FilmSearchIndex;
+import ru.yandex.practicum.filmorate.storage.film.FilmTrends;
+import ru.yandex.practicum.filmorate.storage.film.LikesGraph;
+import ru.yandex.practicum.filmorate.storage.user.FriendsGraph;
+
+import javax.sql.DataSource;
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Изменения, закоммиченные во время перестройки индексов в памяти, не теряются и не учитываются дважды.
+ * Индексы создаются вручную поверх JdbcTemplate, который выполняет изменение посреди полного чтения таблицы.
+ */
+@JdbcTest
+@AutoConfigureTestDatabase
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+class IndexRebuildTest {
+    private static final Duration DAY = Duration.ofHours(24);
+
+    @Autowired
+    private DataSource dataSource;
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+    private DuringScan scanning;
+
+    @BeforeEach
+    void setUp() {
+        jdbcTemplate.update("DELETE FROM likes");
+        jdbcTemplate.update("DELETE FROM friendship");
+        jdbcTemplate.update("DELETE FROM film_genre");
+        jdbcTemplate.update("DELETE FROM films");
+        jdbcTemplate.update("DELETE FROM users");
+        jdbcTemplate.update("MERGE INTO mpa (id, name) KEY (id) VALUES (1, 'G')");
+        for (int id = 1; id <= 3; id++) {
+            jdbcTemplate.update("INSERT INTO users (user_id, email, login, birthday) VALUES (?, ?, ?, DATE '1990-01-01')",
+                    id, "user" + id + "@mail.ru", "user" + id);
+        }
+        for (int id = 1; id <= 2; id++) {
+            jdbcTemplate.update("INSERT INTO films (film_id, name, release_date, duration, mpa_id) " +
+                    "VALUES (?, ?, DATE '2000-01-01', 90, 1)", id, "Фильм " + id);
+        }
+        like(1, 1);
+        scanning = new DuringScan(dataSource);
+    }
+
+    @Test
+    void testLikeCommittedDuringScanSurvivesGraphRebuild() {
+        LikesGraph graph = new LikesGraph(scanning, 50, 100_000);
+        scanning.during(0, () -> {
+            like(2, 2);
+            graph.addLike(2, 2);
+        });
+        graph.rebuild();
+        assertTrue(graph.contains(1, 1));
+        assertTrue(graph.contains(2, 2));
+    }
+
+    @Test
+    void testLikesCommittedDuringScanSurviveRankingsAndTrendsRebuild() {
+        FilmRankings rankings = new FilmRankings(scanning);
+        // Второй запрос перестройки читает счётчики лайков
+        scanning.during(1, () -> {
+            like(2, 2);
+            like(2, 3);
+            rankings.changeLikes(2, 2);
+        });
+        rankings.rebuild();
+        assertEquals(2, rankings.likes(2));
+        assertEquals(List.of(2, 1), rankings.top(10, null, 2000));
+
+        jdbcTemplate.update("DELETE FROM likes WHERE film_id = 2");
+        FilmTrends trends = new FilmTrends(scanning, List.of(DAY));
+        scanning.during(0, () -> {
+            like(2, 2);
+            like(2, 3);
+            trends.addLike(2, trends.now());
+            trends.addLike(2, trends.now());
+        });
+        trends.rebuild();
+        assertEquals(List.of(2, 1), trends.top(DAY, 10));
+    }
+
+    @Test
+    void testFriendshipsAndTitlesCommittedDuringScanSurviveRebuild() {
+        jdbcTemplate.update("INSERT INTO friendship (user_id, friend_id) VALUES (3, 2)");
+        FriendsGraph graph = new FriendsGraph(scanning, 100_000);
+        scanning.during(0, () -> {
+            jdbcTemplate.update("INSERT INTO friendship (user_id, friend_id) VALUES (1, 2)");
+            graph.addFriend(1, 2);
+        });
+        graph.rebuild();
+        assertEquals(List.of(3), graph.suggest(1, 10));
+
+        FilmSearchIndex index = new FilmSearchIndex(scanning, 64);
+        scanning.during(0, () -> {
+            jdbcTemplate.update("UPDATE films SET name = 'Новое название' WHERE film_id = 2");
+            index.put(2, "Новое название", null);
+        });
+        index.rebuild();
+        assertEquals(List.of(2), index.search("новое", true, false, 10, filmId -> 0));
+        assertEquals(List.of(1), index.search("фильм", true, false, 10, filmId -> 0));
+    }
+
+    @Test
+    void testRebuildWaitsForCommittedLikeAndCountsItOnce() throws Exception {
+        FilmTrends trends = new FilmTrends(jdbcTemplate, List.of(DAY));
+        trends.rebuild();
+        TransactionTemplate transactionTemplate = new TransactionTemplate(transactionManager);
+        CountDownLatch committed = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        try {
+            CompletableFuture<Void> writer = CompletableFuture.runAsync(() -> transactionTemplate.executeWithoutResult(status -> {
+                like(2, 2);
+                // Транзакция останавливается между коммитом и применением лайка к окнам
+                AfterCommit.run(() -> {
+                    committed.countDown();
+                    awaitQuietly(release);
+                });
+                trends.addLike(2, trends.now());
+            }));
+            assertTrue(committed.await(10, TimeUnit.SECONDS));
+
+            CompletableFuture<Void> rebuild = CompletableFuture.runAsync(trends::rebuild);
+            assertThrows(TimeoutException.class, () -> rebuild.get(300, TimeUnit.MILLISECONDS));
+            release.countDown();
+            writer.get(10, TimeUnit.SECONDS);
+            rebuild.get(10, TimeUnit.SECONDS);
+        } finally {
+            release.countDown();
+        }
+        // По одному лайку у обоих фильмов: при двойном учёте фильм 2 оказался бы первым
+        assertEquals(List.of(1, 2), trends.top(DAY, 10));
+    }
+
+    private void like(int filmId, int userId) {
+        jdbcTemplate.update("INSERT INTO likes (film_id, user_id, created_at) VALUES (?, ?, ?)",
+                filmId, userId, new Timestamp(System.currentTimeMillis()));
+        jdbcTemplate.update("UPDATE films SET likes_count = likes_count + 1 WHERE film_id = ?", filmId);
+    }
+
+    private static void awaitQuietly(CountDownLatch latch) {
+        try {
+            latch.await(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Выполняет действие, как только начинается чтение результата запроса с заданным номером.
+     */
+    private static final class DuringScan extends JdbcTemplate {
+        private int target = -1;
+        private int queries;
+        private Runnable action;
+
+        DuringScan(DataSource dataSource) {
+            super(dataSource);
+        }
+
+        void during(int query, Runnable action) {
+            this.target = query;
+            this.queries = 0;
+            this.action = action;
+        }
+
+        @Override
+        public <T> T query(String sql, ResultSetExtractor<T> rse) {
+            return super.query(sql, intercept(rse));
+        }
+
+        @Override
+        public <T> T query(PreparedStatementCreator psc, PreparedStatementSetter pss, ResultSetExtractor<T> rse) {
+            return super.query(psc, pss, intercept(rse));
+        }
+
+        private <T> ResultSetExtractor<T> intercept(ResultSetExtractor<T> rse) {
+            return rs -> {
+                if (queries++ == target) {
+                    action.run();
+                }
+                return rse.extractData(rs);
+            };
+        }
+    }
+}
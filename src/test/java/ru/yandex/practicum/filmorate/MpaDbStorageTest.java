@@ -30,6 +30,7 @@ class MpaDbStorageTest {
     void setUp() {
         jdbcTemplate.update("DELETE FROM mpa");
         jdbcTemplate.update("INSERT INTO mpa (id, name) VALUES (1, 'G'), (2, 'PG'), (3, 'PG-13')");
+        mpaStorage.invalidate();
     }
 
     @Test
@@ -51,4 +52,15 @@ class MpaDbStorageTest {
         Optional<Mpa> mpaOptional = mpaStorage.getMpaById(999);
         assertTrue(mpaOptional.isEmpty());
     }
-}
\ No newline at end of file
+
+    @Test
+    void testMpaRatingsAreCachedUntilInvalidated() {
+        mpaStorage.getMpaById(1).orElseThrow().setName("changed");
+        jdbcTemplate.update("INSERT INTO mpa (id, name) VALUES (4, 'R')");
+        assertEquals("G", mpaStorage.getMpaById(1).orElseThrow().getName());
+        assertTrue(mpaStorage.getMpaById(4).isEmpty());
+
+        mpaStorage.invalidate();
+        assertEquals("R", mpaStorage.getMpaById(4).orElseThrow().getName());
+    }
+}
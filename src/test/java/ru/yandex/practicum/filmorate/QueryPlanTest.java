@@ -0,0 +1,181 @@
+package ru.yandex.practicum.filmorate;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
+import org.springframework.boot.test.autoconfigure.jdbc.JdbcTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.jdbc.core.JdbcTemplate;
+import ru.yandex.practicum.filmorate.model.Film;
+import ru.yandex.practicum.filmorate.model.Genre;
+import ru.yandex.practicum.filmorate.model.Mpa;
+import ru.yandex.practicum.filmorate.model.User;
+import ru.yandex.practicum.filmorate.storage.film.FilmCache;
+import ru.yandex.practicum.filmorate.storage.film.FilmDbStorage;
+import ru.yandex.practicum.filmorate.storage.film.FilmRankings;
+import ru.yandex.practicum.filmorate.storage.film.FilmSearchIndex;
+import ru.yandex.practicum.filmorate.storage.film.FilmTrends;
+import ru.yandex.practicum.filmorate.storage.film.LikesGraph;
+import ru.yandex.practicum.filmorate.storage.film.WriteBehindLikes;
+import ru.yandex.practicum.filmorate.storage.user.FriendsGraph;
+import ru.yandex.practicum.filmorate.storage.user.UserCache;
+import ru.yandex.practicum.filmorate.storage.user.UserDbStorage;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Выполняет операции хранилищ, собирает выполненные запросы из статистики H2
+ * и проверяет через EXPLAIN, что ни один из них не читает таблицу полным сканированием.
+ * Полная выгрузка списком (findAll) и пересчёт счётчиков сюда намеренно не входят.
+ */
+@JdbcTest
+@AutoConfigureTestDatabase
+@Import({FilmDbStorage.class, UserDbStorage.class, LikesGraph.class, FilmRankings.class, FilmSearchIndex.class,
+        WriteBehindLikes.class, FriendsGraph.class, FilmCache.class, FilmTrends.class, UserCache.class})
+class QueryPlanTest {
+
+    @Autowired
+    private FilmDbStorage filmStorage;
+    @Autowired
+    private UserDbStorage userStorage;
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    private Film film;
+    private User user;
+    private User friend;
+
+    @BeforeEach
+    void setUp() {
+        jdbcTemplate.update("DELETE FROM likes");
+        jdbcTemplate.update("DELETE FROM friendship");
+        jdbcTemplate.update("DELETE FROM film_genre");
+        jdbcTemplate.update("DELETE FROM films");
+        jdbcTemplate.update("DELETE FROM users");
+
+        user = userStorage.add(User.builder()
+                .email("user@mail.ru").login("user").birthday(LocalDate.of(1990, 1, 1)).build());
+        friend = userStorage.add(User.builder()
+                .email("friend@mail.ru").login("friend").birthday(LocalDate.of(1990, 1, 1)).build());
+        film = filmStorage.add(Film.builder()
+                .name("Film")
+                .description("Description")
+                .releaseDate(LocalDate.of(2000, 1, 1))
+                .duration(120)
+                .mpa(new Mpa("G", 1))
+                .genres(Set.of(new Genre(1, "Комедия")))
+                .build());
+    }
+
+    @Test
+    void testFilmReadsUseIndexes() {
+        assertNoTableScans(() -> {
+            filmStorage.findById(film.getId());
+            filmStorage.findPage(0, 10);
+            filmStorage.findPopular(10);
+            filmStorage.findByIds(List.of(film.getId()));
+            filmStorage.exists(film.getId());
+            filmStorage.getLikes(film.getId());
+        });
+    }
+
+    @Test
+    void testExportPagesUseIndexes() {
+        userStorage.addFriend(user.getId(), friend.getId());
+        filmStorage.addLike(film.getId(), user.getId());
+        assertNoTableScans(() -> {
+            filmStorage.streamAll(streamed -> {
+            });
+            filmStorage.streamLikes(like -> {
+            });
+            userStorage.streamAll(streamed -> {
+            });
+            userStorage.streamFriendships(friendship -> {
+            });
+        });
+    }
+
+    @Test
+    void testPopularFilmsAreReadInIndexOrder() {
+        // На нескольких строках оптимизатору всё равно, с какой таблицы начинать, поэтому каталог побольше
+        List<Object[]> films = new ArrayList<>();
+        for (int i = 0; i < 2000; i++) {
+            films.add(new Object[]{"Film " + i, 1 + i % 5});
+        }
+        jdbcTemplate.batchUpdate("INSERT INTO films (name, release_date, duration, mpa_id) " +
+                "VALUES (?, DATE '2000-01-01', 100, ?)", films);
+        jdbcTemplate.execute("ANALYZE");
+
+        String sql = executedStatements(() -> filmStorage.findPopular(10)).stream()
+                .filter(statement -> statement.contains("likes_count DESC"))
+                .findFirst()
+                .orElseThrow();
+        String plan = explain(sql);
+        assertTrue(plan.contains("IDX_FILMS_POPULARITY") && plan.contains("index sorted"), plan);
+    }
+
+    @Test
+    void testFilmWritesUseIndexes() {
+        assertNoTableScans(() -> {
+            filmStorage.addLike(film.getId(), user.getId());
+            film.setLikes(Set.of(friend.getId()));
+            film.setGenres(Set.of(new Genre(2, "Драма")));
+            filmStorage.update(film);
+            filmStorage.removeLike(film.getId(), friend.getId());
+            filmStorage.delete(film.getId());
+        });
+    }
+
+    @Test
+    void testUserQueriesUseIndexes() {
+        assertNoTableScans(() -> {
+            userStorage.addFriend(user.getId(), friend.getId());
+            userStorage.addFriend(friend.getId(), user.getId());
+            userStorage.findById(user.getId());
+            userStorage.findPage(0, 10);
+            userStorage.findByIds(List.of(friend.getId(), user.getId()));
+            userStorage.exists(user.getId());
+            userStorage.getFriends(user.getId());
+            userStorage.getCommonFriends(user.getId(), friend.getId());
+            userStorage.update(user);
+            userStorage.removeFriend(user.getId(), friend.getId());
+            filmStorage.addLike(film.getId(), friend.getId());
+            userStorage.delete(friend.getId());
+        });
+    }
+
+    private void assertNoTableScans(Runnable action) {
+        List<String> statements = executedStatements(action);
+        assertFalse(statements.isEmpty());
+        Map<String, String> scans = statements.stream()
+                .collect(Collectors.toMap(sql -> sql, this::explain))
+                .entrySet().stream()
+                .filter(entry -> entry.getValue().contains(".tableScan"))
+                .collect(Collectors.toMap(Map.Entry::getKey, Map.Entry::getValue));
+        assertTrue(scans.isEmpty(), () -> "Запросы без индекса:\n" + String.join("\n\n", scans.values()));
+    }
+
+    private List<String> executedStatements(Runnable action) {
+        jdbcTemplate.execute("SET QUERY_STATISTICS TRUE");
+        try {
+            action.run();
+            return jdbcTemplate.queryForList("SELECT sql_statement FROM information_schema.query_statistics " +
+                    "WHERE sql_statement NOT LIKE 'SET %' AND sql_statement NOT LIKE 'CALL %'", String.class);
+        } finally {
+            jdbcTemplate.execute("SET QUERY_STATISTICS FALSE");
+        }
+    }
+
+    private String explain(String sql) {
+        return String.join("\n", jdbcTemplate.queryForList("EXPLAIN " + sql, String.class));
+    }
+}
@@ -0,0 +1,128 @@
+package ru.yandex.practicum.filmorate;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
+import org.springframework.boot.test.autoconfigure.jdbc.JdbcTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+import org.springframework.web.filter.OncePerRequestFilter;
+import ru.yandex.practicum.filmorate.config.StorageMetricsConfig;
+import ru.yandex.practicum.filmorate.controller.UserController;
+import ru.yandex.practicum.filmorate.model.Film;
+import ru.yandex.practicum.filmorate.model.Mpa;
+import ru.yandex.practicum.filmorate.model.User;
+import ru.yandex.practicum.filmorate.service.FeedService;
+import ru.yandex.practicum.filmorate.service.UserService;
+import ru.yandex.practicum.filmorate.storage.event.EventDbStorage;
+import ru.yandex.practicum.filmorate.storage.film.FilmCache;
+import ru.yandex.practicum.filmorate.storage.film.FilmDbStorage;
+import ru.yandex.practicum.filmorate.storage.film.FilmRankings;
+import ru.yandex.practicum.filmorate.storage.film.FilmSearchIndex;
+import ru.yandex.practicum.filmorate.storage.film.FilmStorage;
+import ru.yandex.practicum.filmorate.storage.film.FilmTrends;
+import ru.yandex.practicum.filmorate.storage.film.LikesGraph;
+import ru.yandex.practicum.filmorate.storage.film.WriteBehindLikes;
+import ru.yandex.practicum.filmorate.storage.genre.GenreDbStorage;
+import ru.yandex.practicum.filmorate.storage.genre.GenreStorage;
+import ru.yandex.practicum.filmorate.storage.user.FriendsGraph;
+import ru.yandex.practicum.filmorate.storage.user.UserCache;
+import ru.yandex.practicum.filmorate.storage.user.UserDbStorage;
+import ru.yandex.practicum.filmorate.storage.user.UserStorage;
+
+import java.time.LocalDate;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+@JdbcTest
+@AutoConfigureTestDatabase
+@Import({StorageMetricsConfig.class, SimpleMeterRegistry.class, GenreDbStorage.class, UserService.class,
+        FeedService.class, EventDbStorage.class, FilmDbStorage.class, UserDbStorage.class, LikesGraph.class,
+        FilmRankings.class, FilmSearchIndex.class, WriteBehindLikes.class, FriendsGraph.class, FilmCache.class,
+        FilmTrends.class, UserCache.class})
+class StorageMetricsTest {
+
+    @Autowired
+    private GenreStorage genreStorage;
+    @Autowired
+    private FilmStorage filmStorage;
+    @Autowired
+    private UserStorage userStorage;
+    @Autowired
+    private UserService userService;
+    @Autowired
+    private OncePerRequestFilter storageCallsPerRequestFilter;
+    @Autowired
+    private MeterRegistry registry;
+
+    @Test
+    void testStorageCallsAreTimedWithReturnedRows() {
+        int genres = genreStorage.getAllGenres().size();
+        genreStorage.getAllGenres();
+        genreStorage.invalidate();
+
+        assertEquals(2, registry.get("filmorate.storage")
+                .tags("storage", "GenreStorage", "method", "getAllGenres", "exception", "none")
+                .timer().count());
+        assertEquals(2L * genres, (long) registry.get("filmorate.storage.rows")
+                .tags("storage", "GenreStorage", "method", "getAllGenres")
+                .summary().totalAmount());
+        assertEquals(1, registry.get("filmorate.storage").tags("method", "invalidate").timer().count());
+    }
+
+    @Test
+    void testFailedCallsShareOneTimerPerException() {
+        Film film = filmStorage.add(Film.builder().name("Фильм").releaseDate(LocalDate.of(2000, 1, 1))
+                .duration(90).mpa(new Mpa("G", 1)).build());
+        User user = addUser("user");
+        for (int i = 0; i < 3; i++) {
+            assertThrows(DataIntegrityViolationException.class, () -> userStorage.addFriend(user.getId(), user.getId() + 1));
+        }
+        filmStorage.findById(film.getId());
+
+        assertEquals(3, registry.get("filmorate.storage")
+                .tags("storage", "UserStorage", "method", "addFriend", "exception", "DataIntegrityViolationException")
+                .timer().count());
+        assertEquals(1, registry.get("filmorate.storage").tags("method", "addFriend")
+                .tagKeys("exception").timers().stream()
+                .filter(timer -> !"none".equals(timer.getId().getTag("exception"))).count());
+        assertEquals(1, registry.get("filmorate.storage.rows")
+                .tags("storage", "FilmStorage", "method", "findById")
+                .summary().count());
+    }
+
+    @Test
+    void testCallsPerRequestAreCountedPerRoute() throws Exception {
+        User user = addUser("user");
+        User friend = addUser("friend");
+        userStorage.addFriend(user.getId(), friend.getId());
+        MockMvc mockMvc = MockMvcBuilders.standaloneSetup(new UserController(userService, new ObjectMapper()))
+                .addFilters(storageCallsPerRequestFilter)
+                .build();
+
+        // У друга нет своих друзей, поэтому сервис дополнительно проверяет, что он существует
+        mockMvc.perform(get("/users/{id}/friends", user.getId())).andExpect(status().isOk());
+        mockMvc.perform(get("/users/{id}/friends", friend.getId())).andExpect(status().isOk());
+
+        DistributionSummary calls = registry.get("filmorate.storage.requests")
+                .tags("method", "GET", "uri", "/users/{id}/friends")
+                .summary();
+        assertEquals(2, calls.count());
+        assertEquals(3, (long) calls.totalAmount());
+        assertEquals(2, (long) calls.max());
+    }
+
+    private User addUser(String login) {
+        return userStorage.add(User.builder().email(login + "@mail.ru").login(login)
+                .birthday(LocalDate.of(1990, 1, 1)).build());
+    }
+}
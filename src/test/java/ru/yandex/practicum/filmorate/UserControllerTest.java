@@ -0,0 +1,103 @@
+package ru.yandex.practicum.filmorate;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
+import org.springframework.boot.test.autoconfigure.jdbc.JdbcTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+import ru.yandex.practicum.filmorate.controller.UserController;
+import ru.yandex.practicum.filmorate.exception.NotFoundException;
+import ru.yandex.practicum.filmorate.model.User;
+import ru.yandex.practicum.filmorate.service.FeedService;
+import ru.yandex.practicum.filmorate.service.UserService;
+import ru.yandex.practicum.filmorate.storage.event.EventDbStorage;
+import ru.yandex.practicum.filmorate.storage.film.FilmCache;
+import ru.yandex.practicum.filmorate.storage.film.FilmDbStorage;
+import ru.yandex.practicum.filmorate.storage.film.FilmRankings;
+import ru.yandex.practicum.filmorate.storage.film.FilmSearchIndex;
+import ru.yandex.practicum.filmorate.storage.film.FilmTrends;
+import ru.yandex.practicum.filmorate.storage.film.LikesGraph;
+import ru.yandex.practicum.filmorate.storage.film.WriteBehindLikes;
+import ru.yandex.practicum.filmorate.storage.user.FriendsGraph;
+import ru.yandex.practicum.filmorate.storage.user.UserCache;
+import ru.yandex.practicum.filmorate.storage.user.UserDbStorage;
+
+import java.time.Duration;
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+@JdbcTest
+@AutoConfigureTestDatabase
+@Import({UserService.class, FeedService.class, EventDbStorage.class, FilmDbStorage.class, UserDbStorage.class,
+        LikesGraph.class, FilmRankings.class, FilmSearchIndex.class, WriteBehindLikes.class, FriendsGraph.class,
+        FilmCache.class, FilmTrends.class, UserCache.class})
+class UserControllerTest {
+
+    @Autowired
+    private UserService userService;
+    @Autowired
+    private UserDbStorage userStorage;
+    @Autowired
+    private FilmDbStorage filmStorage;
+    @Autowired
+    private EventDbStorage eventStorage;
+
+    @Test
+    void testMissingIdsHeaderIsCappedAndCounted() throws Exception {
+        User user = userStorage.add(User.builder().email("user@mail.ru").login("user")
+                .birthday(LocalDate.of(1990, 1, 1)).build());
+        MockMvc mockMvc = MockMvcBuilders.standaloneSetup(new UserController(userService, new ObjectMapper())).build();
+        // Тысяча десятизначных id не помещается в заголовок целиком
+        String ids = user.getId() + "," + IntStream.range(0, 999).mapToObj(i -> String.valueOf(1_000_000_000 + i))
+                .collect(Collectors.joining(","));
+
+        MockHttpServletResponse response = mockMvc.perform(get("/users").param("ids", ids))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.length()").value(1))
+                .andExpect(jsonPath("$[0].id").value(user.getId()))
+                .andReturn().getResponse();
+
+        assertEquals("999", response.getHeader("X-Missing-Count"));
+        String listed = response.getHeader("X-Missing-Ids");
+        assertTrue(listed.length() <= 4096);
+        String[] missing = listed.split(",");
+        assertTrue(missing.length < 999);
+        assertEquals(IntStream.range(0, missing.length).mapToObj(i -> String.valueOf(1_000_000_000 + i)).toList(),
+                Arrays.asList(missing));
+
+        mockMvc.perform(get("/users").param("ids", user.getId() + ",1000000000"))
+                .andExpect(status().isOk())
+                .andExpect(result -> assertEquals("1000000000", result.getResponse().getHeader("X-Missing-Ids")))
+                .andExpect(result -> assertEquals("1", result.getResponse().getHeader("X-Missing-Count")));
+        assertNull(mockMvc.perform(get("/users").param("ids", String.valueOf(user.getId())))
+                .andReturn().getResponse().getHeader("X-Missing-Count"));
+    }
+
+    @Test
+    void testUserIsDeletedWhenFeedCannotBeFlushed() throws Exception {
+        User user = userStorage.add(User.builder().email("deleted@mail.ru").login("deleted")
+                .birthday(LocalDate.of(1990, 1, 1)).build());
+        FeedService unavailable = new FeedService(eventStorage, 4, 1, Duration.ofHours(1), Duration.ZERO) {
+            @Override
+            public int flush() {
+                throw new DataAccessResourceFailureException("БД недоступна");
+            }
+        };
+
+        new UserService(userStorage, filmStorage, unavailable).delete(user.getId());
+
+        assertThrows(NotFoundException.class, () -> userService.getUserOrThrow(user.getId()));
+    }
+}
@@ -7,22 +7,36 @@ import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabas
 import org.springframework.boot.test.autoconfigure.jdbc.JdbcTest;
 import org.springframework.context.annotation.Import;
 import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
 import ru.yandex.practicum.filmorate.model.User;
+import ru.yandex.practicum.filmorate.storage.film.FilmCache;
+import ru.yandex.practicum.filmorate.storage.film.FilmRankings;
+import ru.yandex.practicum.filmorate.storage.film.FilmTrends;
+import ru.yandex.practicum.filmorate.storage.film.LikesGraph;
+import ru.yandex.practicum.filmorate.storage.user.FriendsGraph;
+import ru.yandex.practicum.filmorate.storage.user.UserCache;
 import ru.yandex.practicum.filmorate.storage.user.UserDbStorage;
 
 import java.time.LocalDate;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.List;
+import java.util.Set;
 
 import static org.junit.jupiter.api.Assertions.*;
 
 @JdbcTest
 @AutoConfigureTestDatabase
-@Import(UserDbStorage.class)
+@Import({UserDbStorage.class, LikesGraph.class, FilmRankings.class, FriendsGraph.class, UserCache.class, FilmCache.class,
+        FilmTrends.class})
 class UserDbStorageTest {
 
     @Autowired
     private UserDbStorage userStorage;
     @Autowired
+    private FriendsGraph friendsGraph;
+    @Autowired
     private JdbcTemplate jdbcTemplate;
 
     private User testUser1;
@@ -32,6 +46,7 @@ class UserDbStorageTest {
     void setUp() {
         jdbcTemplate.update("DELETE FROM friendship");
         jdbcTemplate.update("DELETE FROM users");
+        friendsGraph.rebuild();
 
         testUser1 = User.builder()
                 .email("user1@mail.ru")
@@ -58,7 +73,9 @@ class UserDbStorageTest {
     @Test
     void testDeleteUser() {
         User addedUser = userStorage.add(testUser1);
+        assertTrue(userStorage.exists(addedUser.getId()));
         userStorage.delete(addedUser.getId());
+        assertFalse(userStorage.exists(addedUser.getId()));
         assertNull(userStorage.findById(addedUser.getId()));
     }
 
@@ -69,4 +86,102 @@ class UserDbStorageTest {
         Collection<User> users = userStorage.findAll();
         assertEquals(2, users.size());
     }
-}
\ No newline at end of file
+
+    @Test
+    void testFindPageAndStreamAll() {
+        User first = userStorage.add(testUser1);
+        User second = userStorage.add(testUser2);
+        userStorage.addFriend(first.getId(), second.getId());
+
+        List<User> page = userStorage.findPage(0, 1);
+        assertEquals(1, page.size());
+        assertEquals(Set.of(second.getId()), page.get(0).getFriends());
+        assertEquals(List.of(second.getId()),
+                userStorage.findPage(first.getId(), 10).stream().map(User::getId).toList());
+
+        List<User> streamed = new ArrayList<>();
+        userStorage.streamAll(streamed::add);
+        assertEquals(List.of(first.getId(), second.getId()), streamed.stream().map(User::getId).toList());
+        assertEquals(Set.of(second.getId()), streamed.get(0).getFriends());
+
+        List<User> found = userStorage.findByIds(List.of(second.getId(), -1, first.getId()));
+        assertEquals(List.of(second.getId(), first.getId()), found.stream().map(User::getId).toList());
+        assertEquals(Set.of(second.getId()), found.get(1).getFriends());
+    }
+
+    @Test
+    void testFriendsAndCommonFriends() {
+        User first = userStorage.add(testUser1);
+        User second = userStorage.add(testUser2);
+        User common = userStorage.add(User.builder()
+                .email("common@mail.ru")
+                .login("common")
+                .birthday(LocalDate.of(2000, 1, 1))
+                .build());
+        userStorage.addFriend(first.getId(), second.getId());
+        userStorage.addFriend(first.getId(), common.getId());
+        userStorage.addFriend(second.getId(), common.getId());
+        userStorage.addFriend(common.getId(), first.getId());
+
+        List<User> friends = userStorage.getFriends(first.getId());
+        assertEquals(List.of(second.getId(), common.getId()), friends.stream().map(User::getId).toList());
+        assertEquals(Set.of(common.getId()), friends.get(0).getFriends());
+
+        List<User> commonFriends = userStorage.getCommonFriends(first.getId(), second.getId());
+        assertEquals(List.of(common.getId()), commonFriends.stream().map(User::getId).toList());
+        assertEquals(Set.of(first.getId()), commonFriends.get(0).getFriends());
+        assertTrue(userStorage.getFriends(common.getId() + 1).isEmpty());
+    }
+
+    @Test
+    void testVersionChangesWithFriendList() {
+        User first = userStorage.add(testUser1);
+        User second = userStorage.add(testUser2);
+        long created = userStorage.findVersion(first.getId());
+
+        userStorage.addFriend(first.getId(), second.getId());
+        long befriended = userStorage.findVersion(first.getId());
+        assertNotEquals(created, befriended);
+
+        userStorage.removeFriend(first.getId(), second.getId() + 1);
+        assertEquals(befriended, userStorage.findVersion(first.getId()));
+
+        userStorage.delete(second.getId());
+        assertNotEquals(befriended, userStorage.findVersion(first.getId()));
+        assertNull(userStorage.findVersion(second.getId()));
+    }
+
+    @Test
+    @Transactional(propagation = Propagation.NOT_SUPPORTED)
+    void testFriendSuggestionsRankByMutualFriends() {
+        List<Integer> ids = new ArrayList<>();
+        for (int i = 0; i < 6; i++) {
+            ids.add(userStorage.add(User.builder().email("user" + i + "@mail.ru").login("user" + i)
+                    .birthday(LocalDate.of(1990, 1, 1)).build()).getId());
+        }
+        int me = ids.get(0);
+        userStorage.addFriend(me, ids.get(1));
+        userStorage.addFriend(me, ids.get(2));
+        userStorage.addFriend(ids.get(3), ids.get(1));
+        userStorage.addFriend(ids.get(3), ids.get(2));
+        userStorage.addFriend(ids.get(4), ids.get(2));
+        userStorage.addFriend(ids.get(5), ids.get(1));
+        userStorage.addFriend(ids.get(2), ids.get(1));
+
+        assertEquals(List.of(ids.get(3), ids.get(4), ids.get(5)), suggestionIds(me, 10));
+        assertEquals(List.of(ids.get(3)), suggestionIds(me, 1));
+        assertEquals(List.of(me, ids.get(2), ids.get(3)), suggestionIds(ids.get(5), 10));
+
+        userStorage.addFriend(me, ids.get(4));
+        userStorage.removeFriend(ids.get(3), ids.get(1));
+        assertEquals(List.of(ids.get(3), ids.get(5)), suggestionIds(me, 10));
+
+        userStorage.delete(ids.get(3));
+        assertEquals(List.of(ids.get(5)), suggestionIds(me, 10));
+        assertTrue(suggestionIds(ids.get(1), 10).isEmpty());
+    }
+
+    private List<Integer> suggestionIds(int userId, int count) {
+        return userStorage.findFriendSuggestions(userId, count).stream().map(User::getId).toList();
+    }
+}
@@ -0,0 +1,88 @@
+package ru.yandex.practicum.filmorate;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
+import org.springframework.boot.test.autoconfigure.jdbc.JdbcTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.TestPropertySource;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import ru.yandex.practicum.filmorate.config.JdbcConcurrencyConfig;
+import ru.yandex.practicum.filmorate.model.Film;
+import ru.yandex.practicum.filmorate.model.Mpa;
+import ru.yandex.practicum.filmorate.model.User;
+import ru.yandex.practicum.filmorate.storage.film.FilmCache;
+import ru.yandex.practicum.filmorate.storage.film.FilmDbStorage;
+import ru.yandex.practicum.filmorate.storage.film.FilmRankings;
+import ru.yandex.practicum.filmorate.storage.film.FilmSearchIndex;
+import ru.yandex.practicum.filmorate.storage.film.FilmTrends;
+import ru.yandex.practicum.filmorate.storage.film.LikesGraph;
+import ru.yandex.practicum.filmorate.storage.film.WriteBehindLikes;
+import ru.yandex.practicum.filmorate.storage.user.FriendsGraph;
+import ru.yandex.practicum.filmorate.storage.user.UserCache;
+import ru.yandex.practicum.filmorate.storage.user.UserDbStorage;
+
+import java.time.LocalDate;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Переполнение буфера отложенных лайков при одном разрешении на соединение: принимающий поток
+ * не пишет пакет сам и не держит соединение, пока его пишет фоновый поток.
+ */
+@JdbcTest
+@AutoConfigureTestDatabase
+@Import({JdbcConcurrencyConfig.class, FilmDbStorage.class, UserDbStorage.class, LikesGraph.class, FilmRankings.class,
+        FilmSearchIndex.class, WriteBehindLikes.class, FriendsGraph.class, FilmCache.class, FilmTrends.class,
+        UserCache.class})
+@TestPropertySource(properties = {"filmorate.likes.write-behind.enabled=true", "filmorate.likes.write-behind.lag=1h",
+        "filmorate.likes.write-behind.max-pending=2", "filmorate.jdbc.max-concurrency=1",
+        "filmorate.jdbc.acquire-timeout=100ms"})
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+class WriteBehindBackpressureTest {
+
+    @Autowired
+    private FilmDbStorage filmStorage;
+    @Autowired
+    private UserDbStorage userStorage;
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @BeforeEach
+    void setUp() {
+        jdbcTemplate.update("DELETE FROM likes");
+        jdbcTemplate.update("DELETE FROM film_genre");
+        jdbcTemplate.update("DELETE FROM films");
+        jdbcTemplate.update("DELETE FROM users");
+        jdbcTemplate.update("MERGE INTO mpa (id, name) KEY (id) VALUES (1, 'G')");
+    }
+
+    @Test
+    void testFullBufferIsWrittenByBackgroundWriter() throws InterruptedException {
+        Film film = filmStorage.add(Film.builder().name("Хит").releaseDate(LocalDate.of(2000, 1, 1))
+                .duration(90).mpa(new Mpa("G", 1)).build());
+        User first = addUser("first");
+        User second = addUser("second");
+
+        assertTrue(filmStorage.addLike(film.getId(), first.getId()));
+        assertTrue(filmStorage.addLike(film.getId(), second.getId()));
+
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (filmStorage.getLikes(film.getId()).size() < 2 && System.nanoTime() < deadline) {
+            TimeUnit.MILLISECONDS.sleep(10);
+        }
+        assertEquals(Set.of(first.getId(), second.getId()), filmStorage.getLikes(film.getId()));
+        assertEquals(2, jdbcTemplate.queryForObject("SELECT likes_count FROM films WHERE film_id = ?",
+                Integer.class, film.getId()));
+    }
+
+    private User addUser(String login) {
+        return userStorage.add(User.builder().email(login + "@mail.ru").login(login)
+                .birthday(LocalDate.of(1990, 1, 1)).build());
+    }
+}
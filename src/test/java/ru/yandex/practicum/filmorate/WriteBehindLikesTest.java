@@ -0,0 +1,129 @@
+package ru.yandex.practicum.filmorate;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
+import org.springframework.boot.test.autoconfigure.jdbc.JdbcTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.TestPropertySource;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import ru.yandex.practicum.filmorate.model.Film;
+import ru.yandex.practicum.filmorate.model.Mpa;
+import ru.yandex.practicum.filmorate.model.User;
+import ru.yandex.practicum.filmorate.storage.film.FilmCache;
+import ru.yandex.practicum.filmorate.storage.film.FilmDbStorage;
+import ru.yandex.practicum.filmorate.storage.film.FilmRankings;
+import ru.yandex.practicum.filmorate.storage.film.FilmSearchIndex;
+import ru.yandex.practicum.filmorate.storage.film.FilmTrends;
+import ru.yandex.practicum.filmorate.storage.film.LikesGraph;
+import ru.yandex.practicum.filmorate.storage.film.WriteBehindLikes;
+import ru.yandex.practicum.filmorate.storage.user.FriendsGraph;
+import ru.yandex.practicum.filmorate.storage.user.UserCache;
+import ru.yandex.practicum.filmorate.storage.user.UserDbStorage;
+
+import java.time.LocalDate;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Пакеты лайков пишутся в собственных транзакциях, поэтому тест работает без общей транзакции и чистит таблицы сам.
+ */
+@JdbcTest
+@AutoConfigureTestDatabase
+@Import({FilmDbStorage.class, UserDbStorage.class, LikesGraph.class, FilmRankings.class, FilmSearchIndex.class,
+        WriteBehindLikes.class, FriendsGraph.class, FilmCache.class, FilmTrends.class, UserCache.class})
+@TestPropertySource(properties = {"filmorate.likes.write-behind.enabled=true", "filmorate.likes.write-behind.lag=1h"})
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+class WriteBehindLikesTest {
+
+    @Autowired
+    private FilmDbStorage filmStorage;
+    @Autowired
+    private UserDbStorage userStorage;
+    @Autowired
+    private LikesGraph likesGraph;
+    @Autowired
+    private WriteBehindLikes writeBehindLikes;
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @BeforeEach
+    void setUp() {
+        jdbcTemplate.update("DELETE FROM likes");
+        jdbcTemplate.update("DELETE FROM film_genre");
+        jdbcTemplate.update("DELETE FROM films");
+        jdbcTemplate.update("DELETE FROM users");
+        jdbcTemplate.update("MERGE INTO mpa (id, name) KEY (id) VALUES (1, 'G')");
+        likesGraph.rebuild();
+        filmStorage.rebuildPopularity();
+    }
+
+    @Test
+    void testLikesAreCheckedInMemoryAndWrittenInBatches() {
+        Film film = filmStorage.add(Film.builder().name("Хит").releaseDate(LocalDate.of(2000, 1, 1))
+                .duration(90).mpa(new Mpa("G", 1)).build());
+        Film other = filmStorage.add(Film.builder().name("Другой").releaseDate(LocalDate.of(2000, 1, 1))
+                .duration(90).mpa(new Mpa("G", 1)).build());
+        User first = addUser("first");
+        User second = addUser("second");
+
+        assertTrue(filmStorage.addLike(film.getId(), first.getId()));
+        assertFalse(filmStorage.addLike(film.getId(), first.getId()));
+        assertTrue(filmStorage.addLike(film.getId(), second.getId()));
+        assertTrue(filmStorage.removeLike(film.getId(), second.getId()));
+        assertFalse(filmStorage.removeLike(other.getId(), first.getId()));
+        assertThrows(DataIntegrityViolationException.class, () -> filmStorage.addLike(film.getId(), second.getId() + 1));
+        assertEquals(0, countLikes());
+
+        writeBehindLikes.flush();
+
+        assertEquals(Set.of(first.getId()), filmStorage.getLikes(film.getId()));
+        assertEquals(1, jdbcTemplate.queryForObject("SELECT likes_count FROM films WHERE film_id = ?",
+                Integer.class, film.getId()));
+        assertEquals(List.of(film.getId(), other.getId()),
+                filmStorage.findPopular(2, null, 2000).stream().map(Film::getId).toList());
+
+        assertTrue(filmStorage.removeLike(film.getId(), first.getId()));
+        assertFalse(filmStorage.removeLike(film.getId(), first.getId()));
+        writeBehindLikes.flush();
+        assertEquals(0, countLikes());
+        assertEquals(0, jdbcTemplate.queryForObject("SELECT likes_count FROM films WHERE film_id = ?",
+                Integer.class, film.getId()));
+    }
+
+    @Test
+    void testLikeAndUnlikeInOneBatchChangeVersions() {
+        Film film = filmStorage.add(Film.builder().name("Хит").releaseDate(LocalDate.of(2000, 1, 1))
+                .duration(90).mpa(new Mpa("G", 1)).build());
+        User first = addUser("first");
+        User second = addUser("second");
+        filmStorage.addLike(film.getId(), first.getId());
+        writeBehindLikes.flush();
+        long filmVersion = filmStorage.findVersion(film.getId());
+        long popularVersion = filmStorage.getPopularVersion();
+
+        // Число лайков не меняется, меняется только их набор
+        filmStorage.addLike(film.getId(), second.getId());
+        filmStorage.removeLike(film.getId(), first.getId());
+        writeBehindLikes.flush();
+
+        assertEquals(Set.of(second.getId()), filmStorage.getLikes(film.getId()));
+        assertNotEquals(filmVersion, filmStorage.findVersion(film.getId()));
+        assertNotEquals(popularVersion, filmStorage.getPopularVersion());
+    }
+
+    private User addUser(String login) {
+        return userStorage.add(User.builder().email(login + "@mail.ru").login(login)
+                .birthday(LocalDate.of(1990, 1, 1)).build());
+    }
+
+    private int countLikes() {
+        return jdbcTemplate.queryForObject("SELECT COUNT(*) FROM likes", Integer.class);
+    }
+}